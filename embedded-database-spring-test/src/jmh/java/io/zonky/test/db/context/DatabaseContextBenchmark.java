@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import io.zonky.test.db.event.TestExecutionStartedEvent;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.support.AbstractEmbeddedDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of resolving the target of the proxied data source
+ * by many threads at once, while the database context is in a steady (dirty) state.
+ * <p>
+ * The {@code synchronizedTarget} benchmark approximates the previous implementation,
+ * which acquired the monitor of the database context on each resolution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class DatabaseContextBenchmark {
+
+    private DefaultDatabaseContext databaseContext;
+    private DatabaseTargetSource targetSource;
+
+    @Setup
+    public void setUp() throws Exception {
+        DatabaseProvider databaseProvider = preparer -> new AbstractEmbeddedDatabase(() -> {}) {
+            @Override
+            protected DataSource getDataSource() {
+                return null;
+            }
+
+            @Override
+            public String getJdbcUrl() {
+                return "jdbc:benchmark";
+            }
+        };
+
+        databaseContext = new DefaultDatabaseContext(() -> databaseProvider);
+        databaseContext.setBeanName("benchmarkDatabaseContext");
+        databaseContext.setBeanFactory(new DefaultListableBeanFactory());
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, DatabaseContextBenchmark.class.getMethod("setUp")));
+
+        targetSource = new DatabaseTargetSource(databaseContext);
+        targetSource.getTarget();
+    }
+
+    @TearDown
+    public void tearDown() {
+        databaseContext.destroy();
+    }
+
+    @Benchmark
+    public Object lockFreeTarget() {
+        return targetSource.getTarget();
+    }
+
+    @Benchmark
+    public Object synchronizedTarget() {
+        synchronized (databaseContext) {
+            return targetSource.getTarget();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.preparer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.zonky.test.db.util.ReflectionUtils.invokeMethod;
+
+/**
+ * Measures the replay of a recorded database preparation against a data source with no-op stub objects,
+ * so that only the overhead of the replay engine itself is measured.
+ * <p>
+ * The {@code reflectiveReplay} benchmark approximates the previous implementation,
+ * which resolved each recorded call by its method name and runtime argument types on every replay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordingReplayBenchmark {
+
+    @Param({"100", "1000"})
+    private int queryCount;
+
+    private DataSource dataSource;
+    private List<Call> calls;
+    private DatabasePreparer preparer;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<Class<?>, Object> stubs = new HashMap<>();
+        for (Class<?> type : new Class<?>[] { DataSource.class, Connection.class, Statement.class, PreparedStatement.class, ResultSet.class }) {
+            stubs.put(type, Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type },
+                    (proxy, method, args) -> stubResult(stubs, proxy, method.getName(), method.getReturnType(), args)));
+        }
+        dataSource = (DataSource) stubs.get(DataSource.class);
+
+        calls = new ArrayList<>();
+        calls.add(new Call("dataSource", "getConnection", "connection"));
+        calls.add(new Call("connection", "setAutoCommit", null, false));
+        calls.add(new Call("connection", "createStatement", "statement"));
+        calls.add(new Call("statement", "execute", null, "create table person (id int, name varchar(100))"));
+        calls.add(new Call("statement", "close", null));
+        calls.add(new Call("connection", "prepareStatement", "query", "select pg_advisory_xact_lock(?)"));
+        for (int i = 0; i < queryCount; i++) {
+            calls.add(new Call("query", "setInt", null, 1, i));
+            calls.add(new Call("query", "execute", null));
+        }
+        calls.add(new Call("query", "close", null));
+        calls.add(new Call("connection", "commit", null));
+        calls.add(new Call("connection", "close", null));
+
+        RecordingDataSource recordingDataSource = RecordingDataSource.wrap(dataSource);
+        replay(recordingDataSource);
+        preparer = recordingDataSource.getPreparer();
+        preparer.prepare(dataSource);
+    }
+
+    @Benchmark
+    public void linkedReplay() throws SQLException {
+        preparer.prepare(dataSource);
+    }
+
+    @Benchmark
+    public void reflectiveReplay() {
+        replay(dataSource);
+    }
+
+    private void replay(DataSource dataSource) {
+        Map<String, Object> context = new HashMap<>();
+        context.put("dataSource", dataSource);
+
+        for (Call call : calls) {
+            Object result = invokeMethod(context.get(call.target), call.methodName, call.arguments.clone());
+            if (call.result != null) {
+                context.put(call.result, result);
+            }
+        }
+    }
+
+    private static Object stubResult(Map<Class<?>, Object> stubs, Object proxy, String methodName, Class<?> returnType, Object[] args) {
+        if (methodName.equals("equals")) {
+            return proxy == args[0];
+        } else if (methodName.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (methodName.equals("toString")) {
+            return "stub";
+        } else if (returnType == boolean.class) {
+            return false;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else {
+            return stubs.get(returnType);
+        }
+    }
+
+    private static class Call {
+
+        private final String target;
+        private final String methodName;
+        private final String result;
+        private final Object[] arguments;
+
+        private Call(String target, String methodName, String result, Object... arguments) {
+            this.target = target;
+            this.methodName = methodName;
+            this.result = result;
+            this.arguments = arguments;
+        }
+    }
+}
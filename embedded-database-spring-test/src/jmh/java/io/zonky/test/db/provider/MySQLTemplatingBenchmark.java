@@ -0,0 +1,121 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider;
+
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.mariadb.DockerMariaDBDatabaseProvider;
+import io.zonky.test.db.provider.mariadb.MariaDBContainerCustomizer;
+import io.zonky.test.db.provider.mysql.DockerMySQLDatabaseProvider;
+import io.zonky.test.db.provider.mysql.MySQLContainerCustomizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.core.ResolvableType.forClassWithGenerics;
+
+/**
+ * Measures the creation of a MySQL or MariaDB database with a schema of many tables, either by running
+ * the migration statements or by copying a template database created by the same migration. Requires Docker.
+ * <p>
+ * The {@code migration} benchmark approximates the previous implementation,
+ * which had to run the full migration for each new database because templating was not supported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MySQLTemplatingBenchmark {
+
+    @Param({"mysql", "mariadb"})
+    private String database;
+
+    @Param({"300"})
+    private int tableCount;
+
+    private TemplatableDatabaseProvider provider;
+    private DatabasePreparer migration;
+    private DatabaseTemplate template;
+
+    @Setup
+    public void setUp() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        if (database.equals("mysql")) {
+            provider = new DockerMySQLDatabaseProvider(new StandardEnvironment(),
+                    beanFactory.getBeanProvider(forClassWithGenerics(List.class, MySQLContainerCustomizer.class)));
+        } else {
+            provider = new DockerMariaDBDatabaseProvider(new StandardEnvironment(),
+                    beanFactory.getBeanProvider(forClassWithGenerics(List.class, MariaDBContainerCustomizer.class)));
+        }
+
+        migration = new DatabasePreparer() {
+            @Override
+            public long estimatedDuration() {
+                return tableCount;
+            }
+
+            @Override
+            public void prepare(DataSource dataSource) throws SQLException {
+                try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+                    for (int i = 0; i < tableCount; i++) {
+                        statement.execute(String.format("create table table_%d (id bigint auto_increment primary key, parent_id bigint, " +
+                                "name varchar(100) not null, created_at timestamp default current_timestamp, index name_idx (name)%s)",
+                                i, i > 0 ? String.format(", foreign key (parent_id) references table_%d (id)", i - 1) : ""));
+                        statement.execute(String.format("insert into table_%d (name) values ('row %d')", i, i));
+                    }
+                }
+            }
+        };
+
+        template = provider.createTemplate(DatabaseRequest.of(migration));
+        provider.createDatabase(DatabaseRequest.of(null, template)).close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        template.close();
+    }
+
+    @Benchmark
+    public void templateClone() {
+        provider.createDatabase(DatabaseRequest.of(null, template)).close();
+    }
+
+    @Benchmark
+    public void migration() {
+        provider.createDatabase(DatabaseRequest.of(migration)).close();
+    }
+}
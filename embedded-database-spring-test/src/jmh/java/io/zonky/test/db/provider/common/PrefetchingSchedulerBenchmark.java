@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import io.zonky.test.db.preparer.CompositeDatabasePreparer;
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PipelineKey;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PrefetchingTask;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PriorityTaskQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of re-prioritizing the queued tasks of a single pipeline,
+ * which happens on each database request, with 1000 tasks waiting in the queue.
+ * <p>
+ * The {@code cancelAndResubmit} benchmark approximates the previous implementation,
+ * which replaced each queued task of the pipeline by a new copy with the updated priority.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefetchingSchedulerBenchmark {
+
+    private static final int QUEUED_TASKS = 1000;
+
+    @Param({"10", "50"})
+    private int pipelineCount;
+
+    private final DatabaseProvider provider = preparer -> null;
+
+    private List<List<PrefetchingTask>> pipelineTasks;
+    private PriorityTaskQueue taskQueue;
+    private PriorityBlockingQueue<PrefetchingTask> legacyQueue;
+
+    private int invocationCount;
+    private int pipelineIndex;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        pipelineTasks = new ArrayList<>();
+        taskQueue = new PriorityTaskQueue();
+        legacyQueue = new PriorityBlockingQueue<>();
+
+        for (int i = 0; i < pipelineCount; i++) {
+            DatabasePreparer preparer = new CompositeDatabasePreparer(Collections.emptyList());
+            PipelineKey key = new PipelineKey(provider, preparer);
+            List<PrefetchingTask> tasks = new ArrayList<>();
+
+            for (int j = 0; j < QUEUED_TASKS / pipelineCount; j++) {
+                PrefetchingTask task = PrefetchingTask.forPreparer(key, provider, preparer, -j);
+                taskQueue.offer(task);
+                legacyQueue.offer(task);
+                tasks.add(task);
+            }
+
+            pipelineTasks.add(tasks);
+        }
+    }
+
+    @Benchmark
+    public PriorityTaskQueue reprioritizeInPlace() {
+        List<PrefetchingTask> tasks = nextPipeline();
+
+        for (int i = 0; i < tasks.size(); i++) {
+            int priority = -1 * (invocationCount / tasks.size() * (i + 1));
+            taskQueue.reprioritize(tasks.get(i), priority, tasks.size() - i - 1);
+        }
+
+        return taskQueue;
+    }
+
+    @Benchmark
+    public PriorityBlockingQueue<PrefetchingTask> cancelAndResubmit() {
+        List<PrefetchingTask> tasks = nextPipeline();
+
+        for (int i = 0; i < tasks.size(); i++) {
+            int priority = -1 * (invocationCount / tasks.size() * (i + 1));
+            PrefetchingTask task = tasks.get(i);
+            PrefetchingTask newTask = PrefetchingTask.forPreparer(task.key, provider, task.key.preparer, priority);
+
+            legacyQueue.remove(task);
+            legacyQueue.offer(newTask);
+            tasks.set(i, newTask);
+        }
+
+        return legacyQueue;
+    }
+
+    private List<PrefetchingTask> nextPipeline() {
+        invocationCount++;
+        pipelineIndex = (pipelineIndex + 1) % pipelineTasks.size();
+        return pipelineTasks.get(pipelineIndex);
+    }
+}
@@ -1,6 +1,7 @@
 package io.zonky.test.db;
 
 import io.zonky.test.db.context.DatabaseContext;
+import io.zonky.test.db.context.DefaultDatabaseContext;
 import io.zonky.test.db.preparer.DatabasePreparer;
 import io.zonky.test.db.util.AnnotationUtils;
 import io.zonky.test.db.util.PropertyUtils;
@@ -41,12 +42,15 @@ public class EmbeddedDatabaseTestExecutionListener extends AbstractTestExecution
 
     @Override
     public void beforeTestMethod(TestContext testContext) {
+        // leases must be acquired before other listeners, e.g. the transactional one, obtain a connection in this thread
+        acquireLeases(testContext);
         resetDatabasesAndApplyTestClassPreparers(testContext, RefreshMode.BEFORE_EACH_TEST_METHOD);
     }
 
     @Override
     public void afterTestMethod(TestContext testContext) {
         resetDatabasesAndApplyTestClassPreparers(testContext, RefreshMode.AFTER_EACH_TEST_METHOD);
+        releaseLeases(testContext);
     }
 
     @Override
@@ -74,6 +78,22 @@ public class EmbeddedDatabaseTestExecutionListener extends AbstractTestExecution
         });
     }
 
+    private void acquireLeases(TestContext testContext) {
+        forEachDatabase(testContext, RefreshMode.values(), (context, annotation) -> {
+            if (context instanceof DefaultDatabaseContext) {
+                ((DefaultDatabaseContext) context).acquireLease();
+            }
+        });
+    }
+
+    private void releaseLeases(TestContext testContext) {
+        forEachDatabase(testContext, RefreshMode.values(), (context, annotation) -> {
+            if (context instanceof DefaultDatabaseContext) {
+                ((DefaultDatabaseContext) context).releaseLease();
+            }
+        });
+    }
+
     private void captureTestClassPreparers(TestContext testContext, RefreshMode... refreshModes) {
         forEachDatabase(testContext, refreshModes, (context, annotation) -> {
             String attributeFullName = getTestPreparersAttributeName(testContext, annotation.beanName());
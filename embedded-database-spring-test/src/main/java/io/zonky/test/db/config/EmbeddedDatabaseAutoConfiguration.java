@@ -24,6 +24,7 @@ import io.zonky.test.db.init.SpringScriptDatabaseExtension;
 import io.zonky.test.db.liquibase.LiquibaseDatabaseExtension;
 import io.zonky.test.db.liquibase.LiquibasePropertiesPostProcessor;
 import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.ExecutorMode;
 import io.zonky.test.db.provider.derby.DerbyDatabaseProvider;
 import io.zonky.test.db.provider.h2.H2DatabaseProvider;
 import io.zonky.test.db.provider.hsqldb.HSQLDatabaseProvider;
@@ -37,6 +38,7 @@ import io.zonky.test.db.provider.postgres.ZonkyPostgresDatabaseProvider;
 import io.zonky.test.db.support.DatabaseProviders;
 import io.zonky.test.db.support.DefaultProviderResolver;
 import io.zonky.test.db.support.ProviderResolver;
+import io.zonky.test.db.util.PropertyUtils;
 import org.springframework.beans.factory.BeanClassLoaderAware;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.beans.factory.config.BeanDefinition;
@@ -186,7 +188,9 @@ public class EmbeddedDatabaseAutoConfiguration implements BeanClassLoaderAware {
     @ConditionalOnMissingBean(name = "mySqlDatabaseProviderFactory")
     public DatabaseProviderFactory mySqlDatabaseProviderFactory(DatabaseProviderFactory defaultDatabaseProviderFactory) {
         return defaultDatabaseProviderFactory.customizeProvider((builder, provider) ->
-                builder.optimizingProvider(provider));
+                builder.optimizingProvider(
+                        builder.prefetchingProvider(
+                                builder.templatingProvider(provider))));
     }
 
     @Bean
@@ -194,7 +198,9 @@ public class EmbeddedDatabaseAutoConfiguration implements BeanClassLoaderAware {
     @ConditionalOnMissingBean(name = "mariaDbDatabaseProviderFactory")
     public DatabaseProviderFactory mariaDbDatabaseProviderFactory(DatabaseProviderFactory defaultDatabaseProviderFactory) {
         return defaultDatabaseProviderFactory.customizeProvider((builder, provider) ->
-                builder.optimizingProvider(provider));
+                builder.optimizingProvider(
+                        builder.prefetchingProvider(
+                                builder.templatingProvider(provider))));
     }
 
     @Bean
@@ -233,15 +239,25 @@ public class EmbeddedDatabaseAutoConfiguration implements BeanClassLoaderAware {
         int pipelineCacheSize = environment.getProperty("zonky.test.database.prefetching.pipeline-cache-size", int.class, 5);
         int maxPreparedTemplates = environment.getProperty("zonky.test.database.prefetching.max-prepared-templates", int.class, 10);
         int maxPreparedDatabases = (maxPreparedTemplates * 2 / 3 * 2) + pipelineCacheSize;
+        boolean backgroundTemplates = environment.getProperty("zonky.test.database.prefetching.background-templates", boolean.class, false);
+        boolean templateCheckpoints = environment.getProperty("zonky.test.database.prefetching.template-checkpoints", boolean.class, false);
+        ExecutorMode executorMode = PropertyUtils.getEnumProperty(environment, "zonky.test.database.prefetching.executor-mode", ExecutorMode.class, ExecutorMode.SHARED);
+        boolean virtualThreads = environment.getProperty("zonky.test.database.prefetching.virtual-threads", boolean.class, false);
+        String profileFile = environment.getProperty("zonky.test.database.prefetching.profile-file");
 
         return new DatabaseProviderFactory(beanFactory)
                 .customizeTemplating(builder -> builder
-                        .withMaxTemplateCount(maxPreparedTemplates))
+                        .withMaxTemplateCount(maxPreparedTemplates)
+                        .withBackgroundTemplates(backgroundTemplates)
+                        .withCheckpoints(templateCheckpoints))
                 .customizePrefetching(builder -> builder
                         .withThreadNamePrefix(threadNamePrefix)
                         .withConcurrency(concurrency)
                         .withPipelineMaxCacheSize(pipelineCacheSize)
-                        .withMaxPreparedDatabases(maxPreparedDatabases));
+                        .withMaxPreparedDatabases(maxPreparedDatabases)
+                        .withExecutorMode(executorMode)
+                        .withVirtualThreads(virtualThreads)
+                        .withProfileFile(profileFile));
     }
 
     @Bean
@@ -28,6 +28,7 @@ import io.zonky.test.db.preparer.RecordingDataSource;
 import io.zonky.test.db.preparer.ReplayableDatabasePreparer;
 import io.zonky.test.db.provider.DatabaseProvider;
 import io.zonky.test.db.provider.EmbeddedDatabase;
+import io.zonky.test.db.util.PropertyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.framework.AopProxyUtils;
@@ -38,7 +39,9 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.EnvironmentAware;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
@@ -46,9 +49,12 @@ import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.test.context.transaction.TestTransaction;
 
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 
@@ -58,12 +64,13 @@ import static io.zonky.test.db.context.DefaultDatabaseContext.DatabaseState.DIRT
 import static io.zonky.test.db.context.DefaultDatabaseContext.DatabaseState.FRESH;
 import static io.zonky.test.db.context.DefaultDatabaseContext.DatabaseState.RECORDING;
 import static io.zonky.test.db.context.DefaultDatabaseContext.DatabaseState.RESET;
+import static io.zonky.test.db.context.DefaultDatabaseContext.DatabaseState.TRACKING;
 import static io.zonky.test.db.context.DefaultDatabaseContext.ExecutionPhase.INITIALIZING;
 import static io.zonky.test.db.context.DefaultDatabaseContext.ExecutionPhase.TEST_EXECUTION;
 import static io.zonky.test.db.context.DefaultDatabaseContext.ExecutionPhase.TEST_PREPARATION;
 import static org.springframework.aop.interceptor.AsyncExecutionAspectSupport.DEFAULT_TASK_EXECUTOR_BEAN_NAME;
 
-public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, BeanFactoryAware, DisposableBean {
+public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, BeanFactoryAware, EnvironmentAware, DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultDatabaseContext.class);
 
@@ -75,11 +82,30 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
     protected String beanName;
     protected Thread mainThread;
     protected AsyncTaskExecutor bootstrapExecutor;
+    protected boolean writeTracking;
+    protected RefreshStrategy refreshStrategy = RefreshStrategy.RECREATE;
+    protected boolean leasing;
 
     protected ExecutionPhase executionPhase = INITIALIZING;
     protected DatabaseState databaseState = RESET;
 
     protected Future<EmbeddedDatabase> database;
+    protected RollbackDataSource rollbackDatabase;
+
+    /**
+     * Snapshot of the database that is returned without locking as long as the context stays in a steady state,
+     * i.e. the database is ready and has already been marked as dirty. It is cleared on each state transition.
+     */
+    protected volatile EmbeddedDatabase readyDatabase;
+
+    /**
+     * Databases leased to threads other than the main thread, which allows concurrent execution of tests.
+     * Each lease is a separate context with its own database and state, it is bound to the thread until the test method
+     * running in the thread is finished, then it is returned to the idle leases to be reused by other threads.
+     */
+    protected final ThreadLocal<DefaultDatabaseContext> currentLease = new ThreadLocal<>();
+    protected final List<DefaultDatabaseContext> leases = new CopyOnWriteArrayList<>();
+    protected final Deque<DefaultDatabaseContext> idleLeases = new ArrayDeque<>();
 
     public DefaultDatabaseContext(ObjectFactory<DatabaseProvider> databaseProviderFactory) {
         this.databaseProvider = databaseProviderFactory.getObject();
@@ -96,17 +122,53 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
     }
 
     @Override
-    public synchronized List<DatabasePreparer> getCorePreparers() {
-        return ImmutableList.copyOf(corePreparers);
+    public void setEnvironment(Environment environment) {
+        this.refreshStrategy = PropertyUtils.getEnumProperty(environment, "zonky.test.database.refresh-strategy", RefreshStrategy.class, RefreshStrategy.RECREATE);
+        this.writeTracking = refreshStrategy == RefreshStrategy.RESTORE_TABLES
+                || environment.getProperty("zonky.test.database.write-tracking.enabled", boolean.class, false);
+        this.leasing = environment.getProperty("zonky.test.database.leasing.enabled", boolean.class, false);
     }
 
     @Override
-    public synchronized List<DatabasePreparer> getTestPreparers() {
-        return ImmutableList.copyOf(testPreparers);
+    public List<DatabasePreparer> getCorePreparers() {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            return lease.getCorePreparers();
+        }
+
+        synchronized (this) {
+            return ImmutableList.copyOf(corePreparers);
+        }
     }
 
     @Override
-    public synchronized EmbeddedDatabase getDatabase() {
+    public List<DatabasePreparer> getTestPreparers() {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            return lease.getTestPreparers();
+        }
+
+        synchronized (this) {
+            return ImmutableList.copyOf(testPreparers);
+        }
+    }
+
+    @Override
+    public EmbeddedDatabase getDatabase() {
+        // threads without a lease, e.g. background threads of the application, use the shared database
+        DefaultDatabaseContext lease = leasing ? currentLease.get() : null;
+        if (lease != null) {
+            return lease.getDatabase();
+        }
+
+        EmbeddedDatabase snapshot = readyDatabase;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return resolveDatabase();
+    }
+
+    private synchronized EmbeddedDatabase resolveDatabase() {
         if (databaseState == RESET && !isRefreshAllowed()) {
             return awaitDatabase();
         }
@@ -115,11 +177,28 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
             refreshDatabase();
         }
 
-        if (executionPhase != INITIALIZING && databaseState != DIRTY) {
+        if (executionPhase != INITIALIZING && databaseState == FRESH && refreshStrategy == RefreshStrategy.ROLLBACK && rollbackDatabase == null) {
+            rollbackDatabase = RollbackDataSource.wrap(awaitDatabase());
+            database = databaseFuture(rollbackDatabase);
+            logger.trace("Starting outer transaction of the database - context={}", beanName);
+        }
+
+        if (executionPhase != INITIALIZING && databaseState == FRESH && writeTracking) {
+            database = databaseFuture(WriteTrackingDataSource.wrap(awaitDatabase(), refreshStrategy == RefreshStrategy.RESTORE_TABLES));
+            logger.trace("Starting tracking of database writes - context={}", beanName);
+            databaseState = TRACKING;
+        }
+
+        if (executionPhase != INITIALIZING && databaseState != DIRTY && databaseState != TRACKING) {
             databaseState = DIRTY;
         }
 
-        if (executionPhase != INITIALIZING || databaseState == RECORDING) {
+        if (executionPhase != INITIALIZING) {
+            readyDatabase = awaitDatabase();
+            return readyDatabase;
+        }
+
+        if (databaseState == RECORDING) {
             return awaitDatabase();
         }
 
@@ -144,9 +223,14 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
 
     @Override
     public ContextState getState() {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            return lease.getState();
+        }
+
         if (executionPhase == INITIALIZING) {
             return ContextState.INITIALIZING;
-        } else if (databaseState == DIRTY) {
+        } else if (databaseState == DIRTY || (databaseState == TRACKING && hasWrites())) {
             return ContextState.DIRTY;
         } else if (!testPreparers.isEmpty()) {
             return ContextState.AHEAD;
@@ -166,52 +250,84 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
     }
 
     @EventListener
-    public synchronized void handleTestStarted(TestExecutionStartedEvent event) {
-        executionPhase = TEST_EXECUTION;
-
-        if (databaseState == RESET) {
-            refreshDatabase();
+    public void handleTestStarted(TestExecutionStartedEvent event) {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            lease.handleTestStarted(event);
+            return;
         }
 
-        String databaseBeanName = beanName.substring(0, beanName.length() - "Context".length());
-        EmbeddedDatabaseReporter.reportDataSource(databaseBeanName, awaitDatabase(), event.getTestMethod());
+        synchronized (this) {
+            executionPhase = TEST_EXECUTION;
 
-        logger.trace("Execution phase has been changed to {} - context={}", executionPhase, beanName);
+            if (databaseState == RESET) {
+                refreshDatabase();
+            }
+
+            String databaseBeanName = beanName.substring(0, beanName.length() - "Context".length());
+            EmbeddedDatabaseReporter.reportDataSource(databaseBeanName, awaitDatabase(), event.getTestMethod());
+
+            logger.trace("Execution phase has been changed to {} - context={}", executionPhase, beanName);
+        }
     }
 
     @EventListener
-    public synchronized void handleTestFinished(TestExecutionFinishedEvent event) {
-        executionPhase = TEST_PREPARATION;
-        logger.trace("Execution phase has been changed to {} - context={}", executionPhase, beanName);
+    public void handleTestFinished(TestExecutionFinishedEvent event) {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            lease.handleTestFinished(event);
+            return;
+        }
+
+        synchronized (this) {
+            executionPhase = TEST_PREPARATION;
+            logger.trace("Execution phase has been changed to {} - context={}", executionPhase, beanName);
+        }
     }
 
     @Override
-    public synchronized void reset() {
-        checkState(getState() != ContextState.INITIALIZING, "Data source context must be initialized");
-        checkState(!TestTransaction.isActive(), "Cannot reset the data source context without ending the existing transaction first");
+    public void reset() {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            lease.reset();
+            return;
+        }
+
+        synchronized (this) {
+            checkState(getState() != ContextState.INITIALIZING, "Data source context must be initialized");
+            checkState(!TestTransaction.isActive(), "Cannot reset the data source context without ending the existing transaction first");
 
-        if (getState() != ContextState.FRESH) {
-            testPreparers.clear();
-            resetDatabase();
+            if (getState() != ContextState.FRESH && !restoreTables() && !rollbackDatabase()) {
+                testPreparers.clear();
+                resetDatabase();
+            }
         }
     }
 
     @Override
-    public synchronized void apply(DatabasePreparer preparer) {
-        checkNotNull(preparer, "Preparer must not be null");
-        stopRecording();
+    public void apply(DatabasePreparer preparer) {
+        DefaultDatabaseContext lease = getLease();
+        if (lease != null) {
+            lease.apply(preparer);
+            return;
+        }
 
-        if (getState() == ContextState.INITIALIZING) {
-            corePreparers.add(preparer);
-            refreshDatabase();
-        } else if (getState() != ContextState.DIRTY) {
-            testPreparers.add(preparer);
-            resetDatabase();
-        } else {
-            try {
-                preparer.prepare(awaitDatabase());
-            } catch (SQLException e) {
-                throw new IllegalStateException("Unknown error when applying the preparer", e);
+        synchronized (this) {
+            checkNotNull(preparer, "Preparer must not be null");
+            stopRecording();
+
+            if (getState() == ContextState.INITIALIZING) {
+                corePreparers.add(preparer);
+                refreshDatabase();
+            } else if (getState() != ContextState.DIRTY) {
+                testPreparers.add(preparer);
+                resetDatabase();
+            } else {
+                try {
+                    preparer.prepare(awaitDatabase());
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Unknown error when applying the preparer", e);
+                }
             }
         }
     }
@@ -219,6 +335,12 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
     @Override
     public synchronized void destroy() {
         logger.trace("Closing database context bean - context={}", beanName);
+        readyDatabase = null;
+        for (DefaultDatabaseContext lease : leases) {
+            lease.destroy();
+        }
+        leases.clear();
+        idleLeases.clear();
         if (database != null) {
             try {
                 awaitDatabase().close();
@@ -228,9 +350,79 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
         }
     }
 
+    /**
+     * Leases a database to the current thread, unless it is the main thread or the thread already holds a lease.
+     * It should be called at the beginning of each test method, before any connection is obtained in the thread,
+     * otherwise the connection would be obtained from the shared database.
+     */
+    public void acquireLease() {
+        getLease();
+    }
+
+    /**
+     * Returns the database leased to the current thread to the idle leases, so that it can be reused by tests running in other threads.
+     * It should be called at the end of each test method, after the database has been refreshed according to the refresh mode.
+     */
+    public synchronized void releaseLease() {
+        DefaultDatabaseContext lease = currentLease.get();
+        if (lease != null) {
+            currentLease.remove();
+            idleLeases.push(lease);
+
+            logger.trace("Database lease has been released - context={}, thread={}, idleLeases={}",
+                    beanName, Thread.currentThread().getName(), idleLeases.size());
+        }
+    }
+
+    private DefaultDatabaseContext getLease() {
+        if (!leasing) {
+            return null;
+        }
+
+        DefaultDatabaseContext lease = currentLease.get();
+        if (lease == null && executionPhase != INITIALIZING && mainThread != null && Thread.currentThread() != mainThread) {
+            lease = obtainLease();
+        }
+        return lease;
+    }
+
+    private synchronized DefaultDatabaseContext obtainLease() {
+        DefaultDatabaseContext lease = idleLeases.poll();
+        if (lease == null) {
+            return createLease();
+        }
+
+        lease.mainThread = Thread.currentThread();
+        currentLease.set(lease);
+
+        logger.trace("Idle database lease has been reused by a new thread - context={}, thread={}, idleLeases={}",
+                beanName, Thread.currentThread().getName(), idleLeases.size());
+        return lease;
+    }
+
+    private DefaultDatabaseContext createLease() {
+        DefaultDatabaseContext lease = new DefaultDatabaseContext(() -> databaseProvider);
+        lease.beanName = beanName;
+        lease.bootstrapExecutor = bootstrapExecutor;
+        lease.writeTracking = writeTracking;
+        lease.refreshStrategy = refreshStrategy;
+        lease.corePreparers.addAll(corePreparers);
+        lease.testPreparers.addAll(testPreparers);
+        lease.mainThread = Thread.currentThread();
+        lease.executionPhase = TEST_PREPARATION;
+
+        currentLease.set(lease);
+        leases.add(lease);
+
+        logger.trace("Database has been leased to a new thread - context={}, thread={}, leases={}",
+                beanName, Thread.currentThread().getName(), leases.size());
+        return lease;
+    }
+
     private synchronized void stopRecording() {
         if (databaseState == RECORDING) {
             logger.trace("Stopping database recording - context={}", beanName);
+            readyDatabase = null;
 
             RecordingDataSource recordingDataSource = (RecordingDataSource) awaitDatabase();
             ReplayableDatabasePreparer recordedPreparer = recordingDataSource.getPreparer();
@@ -247,10 +439,12 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
     private synchronized void refreshDatabase() {
         Stopwatch stopwatch = Stopwatch.createStarted();
         logger.trace("Refreshing database context - context={}", beanName);
+        readyDatabase = null;
 
         if (database != null) {
             logger.trace("Closing previous database - context={}", beanName);
             awaitDatabase().close();
+            rollbackDatabase = null;
         }
 
         logger.trace("Creating a new database - context={}, corePreparers={}, testPreparers={}", beanName, corePreparers, testPreparers);
@@ -275,9 +469,47 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
     }
 
     private synchronized void resetDatabase() {
+        readyDatabase = null;
         databaseState = RESET;
     }
 
+    private boolean restoreTables() {
+        if (refreshStrategy != RefreshStrategy.RESTORE_TABLES || databaseState != TRACKING || !testPreparers.isEmpty()) {
+            return false;
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        if (((WriteTrackingDataSource) awaitDatabase()).restoreTables()) {
+            logger.trace("Modified tables have been restored in {} - context={}", stopwatch, beanName);
+            return true;
+        }
+
+        logger.trace("Modified tables can not be restored, the database will be recreated - context={}", beanName);
+        return false;
+    }
+
+    private boolean rollbackDatabase() {
+        if (rollbackDatabase == null || !testPreparers.isEmpty()) {
+            return false;
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        if (rollbackDatabase.rollback()) {
+            logger.trace("Database has been rolled back in {} - context={}", stopwatch, beanName);
+            readyDatabase = null;
+            database = databaseFuture(rollbackDatabase);
+            databaseState = FRESH;
+            return true;
+        }
+
+        logger.trace("Database can not be rolled back, it will be recreated - context={}", beanName);
+        return false;
+    }
+
+    private boolean hasWrites() {
+        return ((WriteTrackingDataSource) awaitDatabase()).hasWrites();
+    }
+
     private EmbeddedDatabase awaitDatabase() {
         return Futures.getUnchecked(database);
     }
@@ -321,6 +553,7 @@ public class DefaultDatabaseContext implements DatabaseContext, BeanNameAware, B
 
         FRESH,
         DIRTY, // TODO: improve the detection of non-tracked changes
+        TRACKING, // the database is considered dirty as soon as a write is detected
         RECORDING,
         RESET
 
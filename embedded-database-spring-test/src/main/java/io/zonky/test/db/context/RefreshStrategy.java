@@ -0,0 +1,42 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+/**
+ * Strategy used to bring a dirty database back to its initial state when the database context is reset.
+ */
+public enum RefreshStrategy {
+
+    /**
+     * The database is always replaced by a new one created from a template.
+     */
+    RECREATE,
+
+    /**
+     * The tables modified by the test are restored in place from their snapshots if possible,
+     * otherwise the database is recreated. Currently supported only for PostgreSQL databases.
+     */
+    RESTORE_TABLES,
+
+    /**
+     * All work of the test is done on a single pinned connection in an outer transaction, which is rolled back.
+     * The database is recreated if the test uses several connections concurrently or executes a statement
+     * that can not run in a transaction.
+     */
+    ROLLBACK
+
+}
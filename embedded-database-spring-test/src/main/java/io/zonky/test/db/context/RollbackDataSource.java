@@ -0,0 +1,49 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import org.springframework.aop.framework.ProxyFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Modifier;
+
+/**
+ * Data source that pins a single physical connection and runs all work in an outer transaction,
+ * so that all changes can be discarded by rolling the transaction back.
+ */
+public interface RollbackDataSource extends DataSource {
+
+    /**
+     * Rolls back all changes made through the data source since the last rollback.
+     * Returns {@code false} if the changes can not be rolled back, e.g. because a non-transactional statement
+     * has been executed or several connections have been used concurrently.
+     */
+    boolean rollback();
+
+    static RollbackDataSource wrap(DataSource dataSource) {
+        ProxyFactory proxyFactory = new ProxyFactory(dataSource);
+        proxyFactory.addAdvice(new RollbackMethodInterceptor());
+        proxyFactory.addInterface(RollbackDataSource.class);
+
+        if (!Modifier.isFinal(dataSource.getClass().getModifiers())) {
+            proxyFactory.setProxyTargetClass(true);
+        }
+
+        return (RollbackDataSource) proxyFactory.getProxy();
+    }
+
+}
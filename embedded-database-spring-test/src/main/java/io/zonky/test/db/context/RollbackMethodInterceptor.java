@@ -0,0 +1,405 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import com.google.common.collect.ImmutableSet;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static io.zonky.test.db.util.SqlUtils.stripLeadingNoise;
+
+/**
+ * Method interceptor that pins a single physical connection of the intercepted data source
+ * and hands out logical connections backed by it, one at a time.
+ * <p>
+ * The physical connection runs in an outer transaction that is rolled back by {@link RollbackDataSource#rollback()}.
+ * Transactions of the logical connections are emulated by savepoints, commits release the savepoints,
+ * and statements executed in auto-commit mode are guarded by savepoints so that their failures
+ * do not abort the outer transaction. Transaction isolation and read-only flags are only remembered, not applied.
+ * <p>
+ * When a second connection is requested while the first one is still open, or a statement that can not run
+ * in a transaction is executed, the interceptor commits the outer transaction as soon as possible,
+ * passes all further work through to the data source, and the changes can no longer be rolled back.
+ */
+public class RollbackMethodInterceptor implements MethodInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollbackMethodInterceptor.class);
+
+    private static final Pattern TRANSACTION_CONTROL_PATTERN = Pattern.compile(
+            "^(BEGIN|START|COMMIT|END|ABORT|ROLLBACK(?!\\s+TO)|PREPARE\\s+TRANSACTION|SET\\s+(TRANSACTION|SESSION\\s+CHARACTERISTICS|AUTOCOMMIT))\\b");
+    private static final Pattern POSTGRES_NON_TRANSACTIONAL_PATTERN = Pattern.compile(
+            "^(VACUUM|CLUSTER|REINDEX|CHECKPOINT|DISCARD|ALTER\\s+SYSTEM|(CREATE|ALTER|DROP)\\s+(DATABASE|TABLESPACE|SUBSCRIPTION))\\b|\\bCONCURRENTLY\\b");
+    private static final Pattern MSSQL_NON_TRANSACTIONAL_PATTERN = Pattern.compile(
+            "^((CREATE|ALTER|DROP)\\s+(DATABASE|FULLTEXT)|BACKUP|RESTORE|RECONFIGURE|KILL)\\b");
+
+    // other databases, e.g. MySQL or MariaDB, implicitly commit on most statements except plain data manipulation
+    private static final Set<String> TRANSACTIONAL_COMMANDS = ImmutableSet.of(
+            "SELECT", "INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE", "WITH", "VALUES", "TABLE",
+            "SHOW", "EXPLAIN", "SAVEPOINT", "RELEASE", "ROLLBACK");
+
+    private Connection connection;
+    private String productName;
+    private ConnectionHandle handle;
+    private volatile boolean passThrough;
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+
+        if (method.getDeclaringClass() == RollbackDataSource.class && method.getName().equals("rollback")) {
+            return rollback();
+        }
+
+        if (method.getName().equals("getConnection") && !passThrough) {
+            return getConnection(invocation);
+        }
+
+        if (method.getName().equals("close")) {
+            release();
+        }
+
+        return invocation.proceed();
+    }
+
+    private synchronized Object getConnection(MethodInvocation invocation) throws Throwable {
+        if (handle != null) {
+            startPassThrough("concurrent connections");
+        }
+        if (passThrough) {
+            return invocation.proceed();
+        }
+
+        if (connection == null) {
+            connection = (Connection) invocation.proceed();
+            connection.setAutoCommit(false);
+            productName = connection.getMetaData().getDatabaseProductName();
+            logger.trace("Physical connection has been pinned - productName={}", productName);
+        }
+
+        handle = new ConnectionHandle();
+        handle.proxy = (Connection) createProxy(Connection.class, connection, handle);
+        return handle.proxy;
+    }
+
+    private synchronized boolean rollback() {
+        if (passThrough) {
+            return false;
+        }
+        if (connection == null) {
+            return true;
+        }
+
+        if (handle != null) {
+            logger.warn("Connection has not been closed by the test, it is going to be invalidated");
+            handle.closed = true;
+            handle = null;
+        }
+
+        try {
+            connection.rollback();
+            return true;
+        } catch (SQLException e) {
+            logger.warn("Unexpected error when rolling back the database", e);
+            passThrough = true;
+            return false;
+        }
+    }
+
+    private synchronized void release() {
+        if (connection != null) {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Unexpected error when releasing the pinned connection", e);
+            }
+            connection = null;
+            handle = null;
+        }
+    }
+
+    private synchronized void startPassThrough(String reason) throws SQLException {
+        if (passThrough) {
+            return;
+        }
+
+        logger.trace("Rollback is not possible, falling back to a full refresh - reason={}", reason);
+        passThrough = true;
+
+        if (handle == null) {
+            connection.commit();
+            connection.close();
+            connection = null;
+        } else if (handle.autoCommit) {
+            connection.commit();
+            connection.setAutoCommit(true);
+            handle.released = true;
+        }
+        // otherwise the outer transaction is committed as soon as the current logical transaction ends
+    }
+
+    private void checkStatement(String sql) throws SQLException {
+        String statement = stripLeadingNoise(sql).toUpperCase(Locale.ROOT);
+
+        if (TRANSACTION_CONTROL_PATTERN.matcher(statement).find()) {
+            startPassThrough("transaction control statement");
+        } else if ("PostgreSQL".equals(productName)) {
+            if (POSTGRES_NON_TRANSACTIONAL_PATTERN.matcher(statement).find()) {
+                startPassThrough("non-transactional statement");
+            }
+        } else if ("Microsoft SQL Server".equals(productName)) {
+            if (MSSQL_NON_TRANSACTIONAL_PATTERN.matcher(statement).find()) {
+                startPassThrough("non-transactional statement");
+            }
+        } else if (!TRANSACTIONAL_COMMANDS.contains(statement.split("\\s", 2)[0])) {
+            startPassThrough("non-transactional statement");
+        }
+    }
+
+    private Object createProxy(Class<?> type, Object target, MethodInterceptor interceptor) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.addAdvice(interceptor);
+        proxyFactory.addInterface(type);
+        return proxyFactory.getProxy();
+    }
+
+    private class ConnectionHandle implements MethodInterceptor {
+
+        private Connection proxy;
+        private Savepoint savepoint;
+        private boolean autoCommit = true;
+        private boolean readOnly;
+        private Integer transactionIsolation;
+        private volatile boolean closed;
+        private volatile boolean released;
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Method method = invocation.getMethod();
+            String methodName = method.getName();
+            Object[] arguments = invocation.getArguments();
+
+            if (released) {
+                if (methodName.equals("close")) {
+                    closeReleased();
+                    return null;
+                }
+                return invocation.proceed();
+            }
+
+            synchronized (RollbackMethodInterceptor.this) {
+                if (methodName.equals("isClosed")) {
+                    return closed;
+                } else if (methodName.equals("close")) {
+                    close();
+                    return null;
+                } else if (closed) {
+                    throw new SQLException("Connection is closed");
+                }
+
+                switch (methodName) {
+                    case "getAutoCommit":
+                        return autoCommit;
+                    case "setAutoCommit":
+                        setAutoCommit((Boolean) arguments[0]);
+                        return null;
+                    case "commit":
+                        endTransaction(true);
+                        return null;
+                    case "rollback":
+                        if (arguments.length == 0) {
+                            endTransaction(false);
+                            return null;
+                        }
+                        break;
+                    case "isReadOnly":
+                        return readOnly;
+                    case "setReadOnly":
+                        readOnly = (Boolean) arguments[0];
+                        return null;
+                    case "getTransactionIsolation":
+                        return transactionIsolation != null ? transactionIsolation : invocation.proceed();
+                    case "setTransactionIsolation":
+                        transactionIsolation = (Integer) arguments[0];
+                        return null;
+                    case "unwrap":
+                        startPassThrough("unwrap");
+                        break;
+                    case "setCatalog":
+                    case "setSchema":
+                        if (!"PostgreSQL".equals(productName)) {
+                            startPassThrough(methodName);
+                        }
+                        break;
+                    case "prepareStatement":
+                    case "prepareCall":
+                        checkStatement((String) arguments[0]);
+                        break;
+                }
+
+                Object result = invocation.proceed();
+
+                if (result instanceof Statement) {
+                    Class<?> type = result instanceof CallableStatement ? CallableStatement.class :
+                            result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+                    return createProxy(type, result, new StatementInterceptor(this));
+                }
+
+                return result;
+            }
+        }
+
+        private void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (this.autoCommit == autoCommit) {
+                return;
+            }
+            if (autoCommit) {
+                endTransaction(true);
+                this.autoCommit = true;
+                if (released) {
+                    connection.setAutoCommit(true);
+                }
+            } else {
+                this.autoCommit = false;
+                savepoint = connection.setSavepoint();
+            }
+        }
+
+        private void endTransaction(boolean commit) throws SQLException {
+            if (autoCommit) {
+                throw new SQLException("Cannot " + (commit ? "commit" : "rollback") + " when autoCommit is enabled");
+            }
+
+            if (passThrough) {
+                if (!commit) {
+                    rollbackToSavepoint();
+                }
+                connection.commit();
+                savepoint = null;
+                released = true;
+                return;
+            }
+
+            if (!commit) {
+                connection.rollback(savepoint);
+            }
+            connection.releaseSavepoint(savepoint);
+            savepoint = connection.setSavepoint();
+        }
+
+        private void rollbackToSavepoint() throws SQLException {
+            try {
+                connection.rollback(savepoint);
+            } catch (SQLException e) {
+                // the savepoint may have been discarded by an implicit commit of a non-transactional statement
+                connection.rollback();
+            }
+        }
+
+        private void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+            if (!autoCommit) {
+                rollbackToSavepoint();
+                connection.releaseSavepoint(savepoint);
+                savepoint = null;
+            }
+            closed = true;
+            handle = null;
+
+            if (passThrough) {
+                connection.commit();
+                connection.close();
+                connection = null;
+            }
+        }
+
+        private void closeReleased() throws SQLException {
+            synchronized (RollbackMethodInterceptor.this) {
+                closed = true;
+                handle = null;
+                if (connection != null) {
+                    connection.close();
+                    connection = null;
+                }
+            }
+        }
+    }
+
+    private class StatementInterceptor implements MethodInterceptor {
+
+        private final ConnectionHandle handle;
+
+        private StatementInterceptor(ConnectionHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            if (handle.released) {
+                return invocation.getMethod().getName().equals("getConnection") ? handle.proxy : invocation.proceed();
+            }
+
+            synchronized (RollbackMethodInterceptor.this) {
+                String methodName = invocation.getMethod().getName();
+                Object[] arguments = invocation.getArguments();
+
+                if (methodName.equals("getConnection")) {
+                    return handle.proxy;
+                }
+                if (!methodName.startsWith("execute") && !methodName.equals("addBatch")) {
+                    return invocation.proceed();
+                }
+                if (arguments.length > 0 && arguments[0] instanceof String) {
+                    checkStatement((String) arguments[0]);
+                }
+                if (handle.released || !handle.autoCommit || methodName.equals("addBatch")) {
+                    return invocation.proceed();
+                }
+
+                // guards the statement so that its failure does not abort the outer transaction
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    Object result = invocation.proceed();
+                    connection.releaseSavepoint(savepoint);
+                    return result;
+                } catch (SQLException e) {
+                    connection.rollback(savepoint);
+                    connection.releaseSavepoint(savepoint);
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.zonky.test.db.util.SqlUtils.stripLeadingNoise;
+
+/**
+ * Restores tables modified by a test to their original content, so that the database does not have to be recreated.
+ * <p>
+ * Before a table is modified for the first time, its content and the state of its sequences are copied
+ * to temporary tables held by a dedicated connection. The copies are taken on a copy-on-write basis
+ * and reused by all subsequent restores. Tables that may be modified by cascading foreign keys are copied together
+ * with the modified table. Modifications that can not be restored this way (DDL statements, tables with triggers,
+ * statements with unrecognized targets, etc.) make the restorer unusable, and the database must be recreated instead.
+ * <p>
+ * Only PostgreSQL databases are supported.
+ */
+public class TableRestorer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TableRestorer.class);
+
+    private static final Set<String> DML_COMMANDS = ImmutableSet.of("INSERT", "UPDATE", "DELETE", "MERGE", "TRUNCATE", "WITH");
+
+    private static final String IDENTIFIER = "(?:\"[^\"]+\"|[A-Z_][A-Z0-9_$]*)";
+    private static final String TABLE_NAME = "(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")?)";
+
+    private static final String TRUNCATE_TARGET = "(?:ONLY\\s+)?" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")?";
+
+    // the lookbehinds exclude update actions of INSERT ... ON CONFLICT DO UPDATE and MERGE ... THEN UPDATE
+    private static final Pattern DML_TARGET_PATTERN = Pattern.compile(
+            "\\b(?:INSERT\\s+INTO|(?<!DO\\s)(?<!THEN\\s)UPDATE|DELETE\\s+FROM|MERGE\\s+INTO)\\s+(?:ONLY\\s+)?" + TABLE_NAME);
+    private static final Pattern TRUNCATE_PATTERN = Pattern.compile(
+            "^TRUNCATE\\s+(?:TABLE\\s+)?(" + TRUNCATE_TARGET + "(?:\\s*,\\s*" + TRUNCATE_TARGET + ")*)");
+    private static final Pattern SUSPICIOUS_PATTERN = Pattern.compile(
+            "\\b(CASCADE|NEXTVAL|SETVAL|CREATE|ALTER|DROP|COPY|LOCK)\\b|;\\s*\\S");
+
+    private final DataSource dataSource;
+
+    private final Map<Long, List<String>> snapshots = new HashMap<>();
+    private final Set<Long> modifiedTables = new LinkedHashSet<>();
+
+    private Connection connection;
+    private boolean restorable = true;
+
+    public TableRestorer(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Returns {@code true} if all modifications since the last restore can be restored.
+     */
+    public synchronized boolean isRestorable() {
+        return restorable;
+    }
+
+    /**
+     * Marks the restorer as unusable, e.g. because a modification with unknown targets has been detected.
+     */
+    public synchronized void markUnrestorable(String reason) {
+        if (restorable) {
+            logger.trace("Tables can not be restored - reason={}", reason);
+            restorable = false;
+        }
+    }
+
+    /**
+     * Copies all tables that may be modified by the given statement, must be called before the statement is executed.
+     */
+    public synchronized void beforeWrite(String sql) {
+        if (!restorable) {
+            return;
+        }
+
+        Set<String> tableNames = parseModifiedTables(sql);
+        if (tableNames == null) {
+            markUnrestorable(sql);
+            return;
+        }
+
+        try {
+            for (String tableName : tableNames) {
+                if (!snapshotTable(tableName)) {
+                    markUnrestorable(sql);
+                    return;
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to copy tables modified by the statement, the database will be recreated instead", e);
+            markUnrestorable(sql);
+        }
+    }
+
+    /**
+     * Restores all tables modified since the last restore.
+     * Returns {@code false} if the tables can not be restored and the database must be recreated instead.
+     */
+    public synchronized boolean restore() {
+        if (!restorable) {
+            return false;
+        }
+        if (modifiedTables.isEmpty()) {
+            return true;
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try (Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.execute("SET LOCAL session_replication_role = replica");
+
+            for (Long tableOid : modifiedTables) {
+                List<String> snapshot = snapshots.get(tableOid);
+                String tableName = snapshot.get(0);
+                statement.execute(String.format("DELETE FROM %s", tableName));
+                statement.execute(String.format("INSERT INTO %s OVERRIDING SYSTEM VALUE SELECT * FROM %s", tableName, snapshot.get(1)));
+                for (int i = 2; i < snapshot.size(); i++) {
+                    statement.execute(snapshot.get(i));
+                }
+            }
+
+            connection.commit();
+            logger.trace("Tables have been restored in {} - tables={}", stopwatch, modifiedTables.size());
+            modifiedTables.clear();
+            return true;
+        } catch (SQLException e) {
+            logger.warn("Unable to restore modified tables, the database will be recreated instead", e);
+            rollback();
+            restorable = false;
+            return false;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                restorable = false;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.trace("Unable to close the connection used for restoring tables", e);
+            }
+            connection = null;
+        }
+        restorable = false;
+    }
+
+    private boolean snapshotTable(String tableName) throws SQLException {
+        if (connection() == null) {
+            return false;
+        }
+
+        Long tableOid = queryForLong("SELECT to_regclass(?)::oid", tableName);
+        if (tableOid == null) {
+            return false;
+        }
+
+        Deque<Long> queue = new ArrayDeque<>();
+        queue.add(tableOid);
+
+        while (!queue.isEmpty()) {
+            Long oid = queue.poll();
+            if (modifiedTables.contains(oid)) {
+                continue;
+            }
+
+            if (!snapshots.containsKey(oid)) {
+                List<String> snapshot = createSnapshot(oid);
+                if (snapshot == null) {
+                    return false;
+                }
+                snapshots.put(oid, snapshot);
+            }
+            modifiedTables.add(oid);
+
+            // tables whose rows may be changed by cascading actions of foreign keys
+            queue.addAll(queryForLongs("SELECT conrelid::bigint FROM pg_constraint WHERE contype = 'f' AND confrelid = ?::oid " +
+                    "AND (confdeltype IN ('c', 'n', 'd') OR confupdtype IN ('c', 'n', 'd'))", oid));
+        }
+
+        return true;
+    }
+
+    private List<String> createSnapshot(Long oid) throws SQLException {
+        Long triggerCount = queryForLong("SELECT count(*) FROM pg_trigger WHERE tgrelid = ?::oid AND NOT tgisinternal", oid);
+        Long ordinaryTable = queryForLong("SELECT count(*) FROM pg_class WHERE oid = ?::oid AND relkind = 'r' AND relpersistence <> 't'", oid);
+        if (triggerCount == null || triggerCount > 0 || ordinaryTable == null || ordinaryTable == 0) {
+            return null;
+        }
+
+        List<String> snapshot = new ArrayList<>();
+        snapshot.add(queryForString("SELECT ?::oid::regclass::text", oid));
+        snapshot.add("zonky_snapshot_" + oid);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(String.format("CREATE TEMPORARY TABLE %s AS SELECT * FROM %s", snapshot.get(1), snapshot.get(0)));
+        }
+
+        for (String sequenceName : queryForStrings("SELECT s.oid::regclass::text FROM pg_depend d JOIN pg_class s ON s.oid = d.objid " +
+                "WHERE d.refobjid = ?::oid AND d.classid = 'pg_class'::regclass AND s.relkind = 'S' AND d.deptype IN ('a', 'i')", oid)) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(String.format("SELECT last_value, is_called FROM %s", sequenceName))) {
+                resultSet.next();
+                snapshot.add(String.format("SELECT setval('%s', %d, %b)",
+                        sequenceName.replace("'", "''"), resultSet.getLong(1), resultSet.getBoolean(2)));
+            }
+        }
+
+        return snapshot;
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null) {
+            Connection newConnection = dataSource.getConnection();
+            if (!"PostgreSQL".equals(newConnection.getMetaData().getDatabaseProductName())) {
+                newConnection.close();
+                return null;
+            }
+            connection = newConnection;
+        }
+        return connection;
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            logger.trace("Unable to roll back the restore of tables", e);
+        }
+    }
+
+    private Long queryForLong(String sql, Object parameter) throws SQLException {
+        List<Long> values = queryForLongs(sql, parameter);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private List<Long> queryForLongs(String sql, Object parameter) throws SQLException {
+        List<Long> values = new ArrayList<>();
+        for (String value : queryForStrings(sql, parameter)) {
+            if (value != null) {
+                values.add(Long.valueOf(value));
+            }
+        }
+        return values;
+    }
+
+    private String queryForString(String sql, Object parameter) throws SQLException {
+        List<String> values = queryForStrings(sql, parameter);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private List<String> queryForStrings(String sql, Object parameter) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, String.valueOf(parameter));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                List<String> values = new ArrayList<>();
+                while (resultSet.next()) {
+                    values.add(resultSet.getString(1));
+                }
+                return values;
+            }
+        }
+    }
+
+    /**
+     * Returns names of tables modified by the statement,
+     * or {@code null} if the statement is not a plain data modification or its targets can not be recognized.
+     */
+    static Set<String> parseModifiedTables(String sql) {
+        String original = stripLeadingNoise(sql).trim();
+        String statement = original.toUpperCase(Locale.ROOT);
+        String command = statement.split("\\s", 2)[0];
+
+        if (!DML_COMMANDS.contains(command) || SUSPICIOUS_PATTERN.matcher(statement).find()
+                || statement.length() != original.length()) {
+            return null;
+        }
+
+        Set<String> tableNames = new LinkedHashSet<>();
+
+        if (command.equals("TRUNCATE")) {
+            Matcher matcher = TRUNCATE_PATTERN.matcher(statement);
+            if (!matcher.find()) {
+                return null;
+            }
+            String targets = original.substring(matcher.start(1), matcher.end(1));
+            for (String target : targets.split(",")) {
+                String tableName = target.trim().replaceFirst("(?i)^ONLY\\s+", "");
+                if (!tableName.isEmpty()) {
+                    tableNames.add(tableName);
+                }
+            }
+        } else {
+            Matcher matcher = DML_TARGET_PATTERN.matcher(statement);
+            while (matcher.find()) {
+                tableNames.add(original.substring(matcher.start(1), matcher.end(1)));
+            }
+        }
+
+        return tableNames.isEmpty() ? null : tableNames;
+    }
+}
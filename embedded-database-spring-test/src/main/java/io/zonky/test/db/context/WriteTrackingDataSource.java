@@ -0,0 +1,61 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import org.springframework.aop.framework.ProxyFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Modifier;
+
+/**
+ * Data source that detects whether any statement that may modify the database has been executed through it.
+ */
+public interface WriteTrackingDataSource extends DataSource {
+
+    /**
+     * Returns {@code true} if a statement that may have modified the database has been executed.
+     * The detection is conservative, statements that can not be classified are considered as writes.
+     */
+    boolean hasWrites();
+
+    /**
+     * Restores the tables modified since the last restore to their original content.
+     * Returns {@code false} if the modifications can not be restored, e.g. because of DDL statements,
+     * or the data source has been created without table tracking.
+     */
+    boolean restoreTables();
+
+    static WriteTrackingDataSource wrap(DataSource dataSource) {
+        return wrap(dataSource, false);
+    }
+
+    /**
+     * Wraps the data source, optionally with tracking of modified tables, which allows to restore them later.
+     */
+    static WriteTrackingDataSource wrap(DataSource dataSource, boolean trackTables) {
+        ProxyFactory proxyFactory = new ProxyFactory(dataSource);
+        proxyFactory.addAdvice(new WriteTrackingMethodInterceptor(trackTables ? new TableRestorer(dataSource) : null));
+        proxyFactory.addInterface(WriteTrackingDataSource.class);
+
+        if (!Modifier.isFinal(dataSource.getClass().getModifiers())) {
+            proxyFactory.setProxyTargetClass(true);
+        }
+
+        return (WriteTrackingDataSource) proxyFactory.getProxy();
+    }
+
+}
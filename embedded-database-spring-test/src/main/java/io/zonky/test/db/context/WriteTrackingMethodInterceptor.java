@@ -0,0 +1,173 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.ProxyFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.zonky.test.db.util.SqlUtils.isReadOnlyStatement;
+
+/**
+ * Method interceptor that classifies statements executed through the intercepted data source
+ * and its connections and statements, and remembers whether any of them may have modified the database.
+ * <p>
+ * Only queries that are known to be read-only are ignored, i.e. {@code SELECT}, {@code WITH}, {@code SHOW},
+ * {@code EXPLAIN}, {@code VALUES} and {@code TABLE} queries without any data-modifying clause,
+ * and transaction control statements. Everything else, including callable statements, statements producing
+ * updatable result sets and unwrapping to native driver objects, is considered as a write.
+ * Side effects of functions invoked by a select query are not detected.
+ */
+public class WriteTrackingMethodInterceptor implements MethodInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteTrackingMethodInterceptor.class);
+
+    private final AtomicBoolean writes;
+    private final TableRestorer restorer;
+    private final String sql;
+    private final boolean updatable;
+
+    public WriteTrackingMethodInterceptor() {
+        this(null);
+    }
+
+    /**
+     * Creates an interceptor that also keeps track of modified tables by the given restorer, if any.
+     */
+    public WriteTrackingMethodInterceptor(TableRestorer restorer) {
+        this(new AtomicBoolean(), restorer, null, false);
+    }
+
+    private WriteTrackingMethodInterceptor(AtomicBoolean writes, TableRestorer restorer, String sql, boolean updatable) {
+        this.writes = writes;
+        this.restorer = restorer;
+        this.sql = sql;
+        this.updatable = updatable;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Method method = invocation.getMethod();
+        Object[] arguments = invocation.getArguments();
+
+        if (method.getDeclaringClass() == WriteTrackingDataSource.class) {
+            if (method.getName().equals("hasWrites")) {
+                return writes.get();
+            } else if (method.getName().equals("restoreTables")) {
+                return restoreTables();
+            }
+        }
+
+        if (restorer != null && method.getName().equals("close") && invocation.getThis() instanceof DataSource) {
+            restorer.close();
+        }
+
+        if (isTracking() && isWrite(invocation.getThis(), method, arguments)) {
+            logger.trace("Database write has been detected - method={}", method);
+            trackTables(invocation.getThis(), method, arguments);
+            writes.set(true);
+        }
+
+        Object result = invocation.proceed();
+
+        // once a write has been detected, there is no need to track any further objects unless the tables are tracked
+        if (result == null || !isTracking()) {
+            return result;
+        }
+
+        Class<?> returnType = method.getReturnType();
+        if (returnType == Connection.class) {
+            return createTrackingProxy(Connection.class, result, null, false);
+        } else if (returnType == Statement.class || returnType == PreparedStatement.class || returnType == CallableStatement.class) {
+            String statementSql = arguments.length > 0 && arguments[0] instanceof String ? (String) arguments[0] : null;
+            return createTrackingProxy(returnType, result, statementSql, isUpdatable(method, arguments));
+        }
+
+        return result;
+    }
+
+    private boolean isTracking() {
+        return !writes.get() || (restorer != null && restorer.isRestorable());
+    }
+
+    private void trackTables(Object target, Method method, Object[] arguments) {
+        if (restorer == null) {
+            return;
+        }
+        if (target instanceof CallableStatement || updatable
+                || !method.getName().startsWith("execute") && !method.getName().equals("addBatch")) {
+            restorer.markUnrestorable(method.getName());
+        } else if (arguments.length > 0 && arguments[0] instanceof String) {
+            restorer.beforeWrite((String) arguments[0]);
+        } else if (sql != null) {
+            restorer.beforeWrite(sql);
+        } else {
+            restorer.markUnrestorable(method.getName());
+        }
+    }
+
+    private boolean restoreTables() {
+        if (restorer != null && writes.get() && restorer.restore()) {
+            writes.set(false);
+            return true;
+        }
+        return !writes.get();
+    }
+
+    private boolean isWrite(Object target, Method method, Object[] arguments) {
+        String methodName = method.getName();
+
+        if (methodName.equals("unwrap")) {
+            return true;
+        }
+        if (!methodName.startsWith("execute") && !methodName.equals("addBatch")) {
+            return false;
+        }
+        if (target instanceof CallableStatement || updatable) {
+            return true;
+        }
+        if (arguments.length > 0 && arguments[0] instanceof String) {
+            return !isReadOnlyStatement((String) arguments[0]);
+        }
+        return sql != null && !isReadOnlyStatement(sql);
+    }
+
+    private Object createTrackingProxy(Class<?> type, Object target, String sql, boolean updatable) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.addAdvice(new WriteTrackingMethodInterceptor(writes, restorer, sql, updatable));
+        proxyFactory.addInterface(type);
+        return proxyFactory.getProxy();
+    }
+
+    private static boolean isUpdatable(Method method, Object[] arguments) {
+        int concurrencyIndex = method.getName().equals("createStatement") ? 1 : 2;
+        return arguments.length > concurrencyIndex
+                && arguments[concurrencyIndex - 1] instanceof Integer
+                && Integer.valueOf(ResultSet.CONCUR_UPDATABLE).equals(arguments[concurrencyIndex]);
+    }
+}
@@ -21,19 +21,25 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
 
 import javax.sql.DataSource;
 import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import static io.zonky.test.db.util.FingerprintUtils.putValue;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.springframework.util.ReflectionUtils.FieldFilter;
 import static org.springframework.util.ReflectionUtils.doWithFields;
 import static org.springframework.util.ReflectionUtils.getField;
@@ -193,6 +199,39 @@ public class FlywayDescriptor {
         return validateOnMigrate;
     }
 
+    /**
+     * Puts all fields of the descriptor into the hasher.
+     * <p>
+     * Returns {@code false} if the descriptor cannot be fingerprinted, which is the case if custom callbacks,
+     * java migrations or resource providers are configured, or if any other field has no stable representation.
+     * The behavior of such objects is defined by code that cannot be hashed, so the descriptors would be
+     * considered equal even if they produced different databases.
+     */
+    public boolean putFingerprint(Hasher hasher) {
+        if (resourceProvider != null || javaMigrationClassProvider != null
+                || !isEmpty(javaMigrations) || !isEmpty(callbacks)) {
+            return false;
+        }
+
+        boolean result = putValue(hasher, Arrays.asList(locations, schemas, table,
+                sqlMigrationPrefix, repeatableSqlMigrationPrefix,
+                sqlMigrationSeparator, sqlMigrationSuffixes,
+                ignoreMissingMigrations, ignoreFutureMigrations,
+                validateOnMigrate));
+
+        result = result && putFields(hasher, otherFields);
+        result = result && putFields(hasher, envConfFields);
+
+        List<Map.Entry<Class<?>, Map<Field, Object>>> plugins = pluginsFields.entrySet().stream()
+                .sorted(Comparator.comparing(entry -> entry.getKey().getName()))
+                .collect(Collectors.toList());
+        for (Map.Entry<Class<?>, Map<Field, Object>> entry : plugins) {
+            hasher.putString(entry.getKey().getName(), UTF_8);
+            result = result && putFields(hasher, entry.getValue());
+        }
+        return result;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -228,6 +267,27 @@ public class FlywayDescriptor {
                 otherFields, envConfFields, pluginsFields);
     }
 
+    private static boolean putFields(Hasher hasher, Map<Field, Object> fields) {
+        List<Map.Entry<Field, Object>> entries = fields.entrySet().stream()
+                .sorted(Comparator.comparing(entry -> fieldName(entry.getKey())))
+                .collect(Collectors.toList());
+        for (Map.Entry<Field, Object> entry : entries) {
+            hasher.putString(fieldName(entry.getKey()), UTF_8).putChar('=');
+            if (!putValue(hasher, entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+
+    private static String fieldName(Field field) {
+        return field.getDeclaringClass().getName() + "." + field.getName();
+    }
+
     private static void setCollection(Field field, Object target, Collection<?> value) {
         Collection collection = (Collection) getField(field, target);
         if (collection != null) {
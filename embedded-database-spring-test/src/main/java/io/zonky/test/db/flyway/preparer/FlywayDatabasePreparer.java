@@ -18,6 +18,10 @@ package io.zonky.test.db.flyway.preparer;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.zonky.test.db.flyway.FlywayDescriptor;
 import io.zonky.test.db.flyway.FlywayWrapper;
 import io.zonky.test.db.preparer.DatabasePreparer;
@@ -25,9 +29,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public abstract class FlywayDatabasePreparer implements DatabasePreparer {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
@@ -35,6 +42,8 @@ public abstract class FlywayDatabasePreparer implements DatabasePreparer {
     protected final CompletableFuture<Object> result = new CompletableFuture<>();
     protected final FlywayDescriptor descriptor;
 
+    private final Supplier<String> fingerprint = Suppliers.memoize(this::computeFingerprint);
+
     public FlywayDatabasePreparer(FlywayDescriptor descriptor) {
         this.descriptor = descriptor;
     }
@@ -66,6 +75,37 @@ public abstract class FlywayDatabasePreparer implements DatabasePreparer {
         }
     }
 
+    @Override
+    public String fingerprint() {
+        return fingerprint.get();
+    }
+
+    protected String computeFingerprint() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(getClass().getName(), UTF_8);
+            if (!putFingerprint(hasher)) {
+                logger.trace("Flyway preparer does not support fingerprinting, the configuration contains objects that cannot be hashed by content");
+                return null;
+            }
+            String result = hasher.hash().toString();
+            logger.trace("Fingerprint has been computed in {}", stopwatch);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unexpected error when computing fingerprint of flyway preparer", e);
+            return null;
+        }
+    }
+
+    /**
+     * Puts all inputs of the preparer into the hasher,
+     * returns {@code false} if the preparer cannot be fingerprinted.
+     */
+    protected boolean putFingerprint(Hasher hasher) throws IOException {
+        return descriptor.putFingerprint(hasher);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -18,12 +18,15 @@ package io.zonky.test.db.flyway.preparer;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hasher;
 import io.zonky.test.db.flyway.FlywayDescriptor;
 import io.zonky.test.db.flyway.FlywayWrapper;
+import io.zonky.test.db.util.FingerprintUtils;
 import io.zonky.test.db.util.StringUtils;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.stream.Stream;
 
@@ -57,6 +60,19 @@ public class MigrateFlywayDatabasePreparer extends FlywayDatabasePreparer {
         return estimatedDuration;
     }
 
+    @Override
+    protected boolean putFingerprint(Hasher hasher) throws IOException {
+        if (!super.putFingerprint(hasher)) {
+            return false;
+        }
+
+        PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        for (String location : descriptor.getLocations()) {
+            FingerprintUtils.putResources(hasher, resolver, FingerprintUtils.toResourcePattern(location) + "/**/*");
+        }
+        return true;
+    }
+
     @Override
     protected Object doOperation(FlywayWrapper wrapper) {
         return wrapper.migrate();
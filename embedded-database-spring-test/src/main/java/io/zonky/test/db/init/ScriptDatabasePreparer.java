@@ -17,25 +17,40 @@
 package io.zonky.test.db.init;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.util.FingerprintUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class ScriptDatabasePreparer implements DatabasePreparer {
 
+    private static final Logger logger = LoggerFactory.getLogger(ScriptDatabasePreparer.class);
+
     private final List<String> scriptLocations;
     private final boolean continueOnError;
     private final String separator;
     private final Charset encoding;
 
+    private final Supplier<String> fingerprint = Suppliers.memoize(this::computeFingerprint);
+
     public ScriptDatabasePreparer(List<String> scriptLocations) {
         this.scriptLocations = scriptLocations;
         this.continueOnError = false;
@@ -72,6 +87,30 @@ public class ScriptDatabasePreparer implements DatabasePreparer {
         DatabasePopulatorUtils.execute(populator, dataSource);
     }
 
+    @Override
+    public String fingerprint() {
+        return fingerprint.get();
+    }
+
+    protected String computeFingerprint() {
+        try {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(getClass().getName(), UTF_8);
+            FingerprintUtils.putValue(hasher, Arrays.asList(continueOnError, separator, encoding != null ? encoding.name() : null));
+
+            PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+            for (String scriptLocation : scriptLocations) {
+                hasher.putString(scriptLocation, UTF_8);
+                FingerprintUtils.putResource(hasher, resolver.getResource(scriptLocation));
+            }
+
+            return hasher.hash().toString();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unexpected error when computing fingerprint of script preparer", e);
+            return null;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
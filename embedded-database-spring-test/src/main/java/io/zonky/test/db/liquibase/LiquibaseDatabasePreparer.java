@@ -18,7 +18,13 @@ package io.zonky.test.db.liquibase;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.util.FingerprintUtils;
 import io.zonky.test.db.util.ReflectionUtils;
 import liquibase.exception.ChangeLogParseException;
 import liquibase.exception.LiquibaseException;
@@ -26,6 +32,9 @@ import liquibase.integration.spring.SpringLiquibase;
 import liquibase.util.StreamUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
 import org.springframework.util.ClassUtils;
 
 import javax.sql.DataSource;
@@ -33,14 +42,19 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Locale;
 import java.util.Objects;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public class LiquibaseDatabasePreparer implements DatabasePreparer {
 
     private static final Logger logger = LoggerFactory.getLogger(LiquibaseDatabasePreparer.class);
 
     private final LiquibaseDescriptor descriptor;
 
+    private final Supplier<String> fingerprint = Suppliers.memoize(this::computeFingerprint);
+
     private volatile Long estimatedDuration;
 
     public LiquibaseDatabasePreparer(LiquibaseDescriptor descriptor) {
@@ -75,6 +89,57 @@ public class LiquibaseDatabasePreparer implements DatabasePreparer {
         logger.trace("Database has been successfully prepared in {}", stopwatch);
     }
 
+    @Override
+    public String fingerprint() {
+        return fingerprint.get();
+    }
+
+    /**
+     * Computes the fingerprint from the descriptor and from all files located in the directory of the changelog
+     * (including its subdirectories), which usually covers all included changelog files.
+     * If the changelog is located in the root directory, the included files cannot be enumerated,
+     * so the fingerprint is computed only for changelogs that do not include other files.
+     */
+    protected String computeFingerprint() {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(getClass().getName(), UTF_8);
+            if (!descriptor.putFingerprint(hasher)) {
+                logger.trace("Liquibase preparer does not support fingerprinting, the configuration contains objects that cannot be hashed by content");
+                return null;
+            }
+
+            ResourcePatternResolver resolver = ResourcePatternUtils.getResourcePatternResolver(descriptor.getResourceLoader());
+            String changeLog = descriptor.getChangeLog().replace('\\', '/');
+            int directoryIndex = changeLog.lastIndexOf('/');
+            if (directoryIndex > changeLog.indexOf(':') + 1) {
+                FingerprintUtils.putResources(hasher, resolver, FingerprintUtils.toResourcePattern(changeLog.substring(0, directoryIndex)) + "/**/*");
+            } else {
+                Resource resource = resolver.getResource(changeLog);
+                if (containsIncludes(resource)) {
+                    logger.trace("Liquibase preparer does not support fingerprinting, the changelog in the root directory includes other files");
+                    return null;
+                }
+                FingerprintUtils.putResource(hasher, resource);
+            }
+
+            String result = hasher.hash().toString();
+            logger.trace("Fingerprint has been computed in {}", stopwatch);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unexpected error when computing fingerprint of liquibase preparer", e);
+            return null;
+        }
+    }
+
+    private static boolean containsIncludes(Resource resource) throws IOException {
+        try (InputStream inputStream = resource.getInputStream()) {
+            String content = new String(ByteStreams.toByteArray(inputStream), UTF_8);
+            return content.toLowerCase(Locale.ROOT).contains("include");
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
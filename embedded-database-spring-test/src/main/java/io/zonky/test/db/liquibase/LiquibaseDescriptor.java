@@ -17,12 +17,15 @@
 package io.zonky.test.db.liquibase;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
 import liquibase.integration.spring.SpringLiquibase;
 import org.springframework.core.io.ResourceLoader;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
 
+import static io.zonky.test.db.util.FingerprintUtils.putValue;
 import static io.zonky.test.db.util.ReflectionUtils.getField;
 
 public class LiquibaseDescriptor {
@@ -118,6 +121,16 @@ public class LiquibaseDescriptor {
         liquibase.setShouldRun(shouldRun);
     }
 
+    /**
+     * Puts all fields included in equals and hashCode methods into the hasher,
+     * returns {@code false} if any of the fields has no stable representation.
+     */
+    public boolean putFingerprint(Hasher hasher) {
+        return putValue(hasher, Arrays.asList(
+                changeLog, contexts, labels, tag, parameters,
+                defaultSchema, dropFirst, shouldRun));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -18,6 +18,7 @@ package io.zonky.test.db.preparer;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.util.FingerprintUtils;
 
 import javax.sql.DataSource;
 import java.sql.SQLException;
@@ -50,6 +51,11 @@ public class CompositeDatabasePreparer implements DatabasePreparer {
         }
     }
 
+    @Override
+    public String fingerprint() {
+        return FingerprintUtils.combine("", preparers);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
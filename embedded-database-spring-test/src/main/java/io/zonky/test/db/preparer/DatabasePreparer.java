@@ -25,4 +25,13 @@ public interface DatabasePreparer {
 
     void prepare(DataSource dataSource) throws SQLException;
 
+    /**
+     * Returns a fingerprint of all inputs of the preparer that is stable across JVM runs,
+     * or {@code null} if the preparer does not support fingerprinting.
+     * Preparers with equal fingerprints must produce the same database content.
+     */
+    default String fingerprint() {
+        return null;
+    }
+
 }
@@ -19,41 +19,65 @@ package io.zonky.test.db.preparer;
 import com.google.common.base.Equivalence;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharSource;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.AtomicLongMap;
+import io.zonky.test.db.util.FingerprintUtils;
+import io.zonky.test.db.util.SqlUtils;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.framework.ProxyFactory;
-import org.springframework.util.FileCopyUtils;
+import org.springframework.util.MethodInvoker;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.util.StringUtils;
 
 import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.CharArrayReader;
-import java.io.CharArrayWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.Wrapper;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
@@ -63,10 +87,13 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkState;
-import static io.zonky.test.db.util.ReflectionUtils.invokeMethod;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.springframework.beans.BeanUtils.isSimpleValueType;
 
 public class RecordingMethodInterceptor implements MethodInterceptor {
@@ -80,10 +107,13 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
             new MethodPredicate(PreparedStatement.class, "getMetaData", "getParameterMetaData"),
             new MethodPredicate(CallableStatement.class, "getString", "getBoolean", "getByte", "getShort", "getInt", "getLong", "getFloat", "getDouble", "getBigDecimal", "getBytes", "getDate", "getTime", "getTimestamp", "getObject", "getRef", "getBlob", "getClob", "getArray", "getURL", "getRowId", "getNClob", "getSQLXML", "getNString", "getNCharacterStream", "getCharacterStream"),
             new MethodPredicate(ResultSet.class, "wasNull", "getString", "getBoolean", "getByte", "getShort", "getInt", "getLong", "getFloat", "getDouble", "getBigDecimal", "getBytes", "getDate", "getTime", "getTimestamp", "getAsciiStream", "getUnicodeStream", "getBinaryStream", "getWarnings", "clearWarnings", "getCursorName", "getMetaData", "getObject", "findColumn", "getCharacterStream", "isBeforeFirst", "isAfterLast", "isFirst", "isLast", "getRow", "getFetchDirection", "getFetchSize", "getType", "getConcurrency", "rowUpdated", "rowInserted", "rowDeleted", "getRef", "getBlob", "getClob", "getArray", "getURL", "getRowId", "getHoldability", "isClosed", "getNClob", "getSQLXML", "getNString", "getNCharacterStream"));
-            // TODO: consider excluding executeQuery methods (select statements)
+            // read-only queries can not be excluded here, they are removed when the recording is finished (see ReplayableDatabasePreparerImpl#removeReadOnlyStatements)
 
     private static final String ROOT_REFERENCE = "dataSource";
 
+    private static final int BUFFER_SIZE = 8192;
+    private static final long SPILL_THRESHOLD = 1024 * 1024;
+
     private final String thisId;
     private final RecordingContext context;
 
@@ -277,10 +307,35 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
 
         private static final Logger logger = LoggerFactory.getLogger(ReplayableDatabasePreparer.class);
 
+        private static final int MAX_BATCH_SIZE = 500;
+        private static final Pattern BATCHABLE_SQL_PATTERN = Pattern.compile("^\\s*(INSERT|UPDATE|DELETE|MERGE)\\s", Pattern.CASE_INSENSITIVE);
+        private static final Pattern RETURNING_PATTERN = Pattern.compile("\\bRETURNING\\b", Pattern.CASE_INSENSITIVE);
+
+        private static final Pattern QUERY_PATTERN = Pattern.compile("^[\\s(]*(SELECT|WITH|VALUES|TABLE|SHOW|EXPLAIN)\\s", Pattern.CASE_INSENSITIVE);
+        private static final Pattern FUNCTION_CALL_PATTERN = Pattern.compile("([\\w.$\"]+)\\s*\\(");
+        private static final Set<String> PURE_FUNCTIONS = ImmutableSet.of(
+                // keywords that may be followed by parentheses
+                "SELECT", "FROM", "JOIN", "WHERE", "ON", "AND", "OR", "NOT", "IN", "EXISTS", "ANY", "ALL", "SOME", "AS", "WITH",
+                "VALUES", "USING", "OVER", "FILTER", "WHEN", "THEN", "ELSE", "UNION", "INTERSECT", "EXCEPT", "LATERAL", "ARRAY", "ROW",
+                // functions without side effects
+                "COUNT", "MIN", "MAX", "SUM", "AVG", "COALESCE", "NULLIF", "GREATEST", "LEAST", "CAST", "LOWER", "UPPER", "TRIM",
+                "LENGTH", "SUBSTRING", "SUBSTR", "CONCAT", "REPLACE", "ABS", "ROUND", "CURRENT_SCHEMA", "CURRENT_DATABASE", "VERSION");
+
+        private static final Set<String> QUERY_METHODS = ImmutableSet.of("execute", "executeQuery");
+        private static final Set<String> STATEMENT_SETTINGS_METHODS = ImmutableSet.of(
+                "close", "closeOnCompletion", "setFetchSize", "setFetchDirection", "setMaxRows", "setLargeMaxRows", "setMaxFieldSize", "setQueryTimeout", "setEscapeProcessing", "setPoolable");
+        private static final Set<String> RESULT_SET_NAVIGATION_METHODS = ImmutableSet.of(
+                "next", "previous", "first", "last", "beforeFirst", "afterLast", "absolute", "relative", "close", "setFetchSize", "setFetchDirection");
+        private static final Set<String> CONNECTION_SETTINGS_METHODS = ImmutableSet.of(
+                "close", "commit", "setAutoCommit", "setReadOnly", "setTransactionIsolation", "setHoldability", "clearWarnings");
+
         private final List<Record> recordData;
+        private final Supplier<String> fingerprint = Suppliers.memoize(this::computeFingerprint);
+        private final Supplier<LinkedCall[]> linkedCalls = Suppliers.memoize(() -> LinkedCall.link(compileReplayData()));
 
         private ReplayableDatabasePreparerImpl(Collection<Record> recordData) {
             List<Record> records = new LinkedList<>(recordData);
+            removeReadOnlyStatements(records);
 
             List<Record> removableRecords = records.stream()
                     .filter(ReplayableDatabasePreparerImpl::isGetConnectionMethod)
@@ -308,29 +363,141 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
         public void prepare(DataSource dataSource) {
             Stopwatch stopwatch = Stopwatch.createStarted();
 
-            Map<String, Object> context = new HashMap<>();
-            context.put(ROOT_REFERENCE, dataSource);
+            LinkedCall[] calls = linkedCalls.get();
+            Object[] context = new Object[calls.length + 1];
+            context[0] = dataSource;
+
+            for (LinkedCall call : calls) {
+                call.invoke(context);
+            }
+
+            logger.trace("Database has been successfully prepared in {}", stopwatch);
+        }
+
+        @Override
+        public String fingerprint() {
+            return fingerprint.get();
+        }
+
+        private String computeFingerprint() {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(getClass().getName(), UTF_8);
 
             for (Record record : recordData) {
-                Object target = context.get(record.thisId);
-                Object[] arguments = record.arguments.stream().map(arg -> mapArgument(arg, context)).toArray();
-                Object result = invokeMethod(target, record.methodName, arguments);
-                if (record.resultId != null) {
-                    checkState(result != null, "The result does not match the recorded data");
-                    context.put(record.resultId, result);
+                hasher.putString(record.thisId, UTF_8).putChar('.')
+                        .putString(record.methodName, UTF_8).putChar('>')
+                        .putString(String.valueOf(record.resultId), UTF_8).putChar('(');
+                for (Object argument : record.arguments) {
+                    if (!putArgument(hasher, argument)) {
+                        logger.trace("Recorded data can not be fingerprinted, unsupported argument: {}", argument);
+                        return null;
+                    }
                 }
+                hasher.putChar(')');
             }
 
-            logger.trace("Database has been successfully prepared in {}", stopwatch);
+            return hasher.hash().toString();
         }
 
-        private static Object mapArgument(Object argument, Map<String, Object> context) {
+        /**
+         * Compiles the recorded data into an equivalent sequence of calls that is faster to replay.
+         * Consecutive executions of data modifying statements, either on the same prepared statement
+         * or on separately created statements with the same SQL, are replaced by JDBC batches.
+         * Everything else, including any statement whose results are consumed, is replayed call by call.
+         */
+        private List<Record> compileReplayData() {
+            List<Record> result = new ArrayList<>(recordData.size());
+            Map<String, Integer> lastUsages = new HashMap<>();
+            int batches = 0;
+
+            for (int i = 0; i < recordData.size(); i++) {
+                Record record = recordData.get(i);
+                lastUsages.put(record.thisId, i);
+                for (Object argument : record.arguments) {
+                    if (argument instanceof ArgumentReference) {
+                        lastUsages.put(((ArgumentReference) argument).referenceId, i);
+                    }
+                }
+            }
+
+            int index = 0;
+            while (index < recordData.size()) {
+                StatementUnit unit = StatementUnit.match(recordData, index, lastUsages);
+                if (unit == null) {
+                    result.add(recordData.get(index++));
+                    continue;
+                }
+
+                List<StatementUnit> units = new ArrayList<>();
+                units.add(unit);
+                int end = unit.end;
+
+                StatementUnit nextUnit;
+                while ((nextUnit = StatementUnit.match(recordData, end, lastUsages)) != null && nextUnit.isCompatibleWith(unit)) {
+                    units.add(nextUnit);
+                    end = nextUnit.end;
+                }
+
+                if (units.stream().mapToInt(u -> u.executions.size()).sum() > 1) {
+                    result.addAll(compileBatch(units));
+                    batches++;
+                } else {
+                    result.addAll(recordData.subList(index, end));
+                }
+                index = end;
+            }
+
+            if (batches > 0) {
+                logger.trace("Recorded data has been compiled into {} batches - records={}, replayRecords={}", batches, recordData.size(), result.size());
+            }
+            return result;
+        }
+
+        private static List<Record> compileBatch(List<StatementUnit> units) {
+            Record creation = units.get(0).creation;
+            String statementId = creation.resultId;
+
+            List<Record> result = new ArrayList<>();
+            result.add(creation);
+
+            int batchSize = 0;
+            for (StatementUnit unit : units) {
+                for (List<Record> execution : unit.executions) {
+                    for (Record record : execution) {
+                        result.add(new Record(statementId, record.methodName, record.arguments.toArray(), null));
+                    }
+                    if (++batchSize == MAX_BATCH_SIZE) {
+                        result.add(new Record(statementId, "executeBatch", new Object[0], null));
+                        batchSize = 0;
+                    }
+                }
+            }
+
+            if (batchSize > 0) {
+                result.add(new Record(statementId, "executeBatch", new Object[0], null));
+            }
+            result.add(new Record(statementId, "close", new Object[0], null));
+            return result;
+        }
+
+        private static boolean isBatchableSql(Object sql) {
+            return sql instanceof String
+                    && BATCHABLE_SQL_PATTERN.matcher((String) sql).find()
+                    && !RETURNING_PATTERN.matcher((String) sql).find();
+        }
+
+        private static boolean putArgument(Hasher hasher, Object argument) {
             if (argument instanceof ArgumentReference) {
-                return context.get(((ArgumentReference) argument).getReferenceId());
+                hasher.putString("reference:", UTF_8).putString(((ArgumentReference) argument).getReferenceId(), UTF_8);
+                return true;
+            } else if (argument instanceof InputStreamArgumentProvider) {
+                return FingerprintUtils.putValue(hasher, ((InputStreamArgumentProvider) argument).content.digest.toString());
+            } else if (argument instanceof ReaderArgumentProvider) {
+                return FingerprintUtils.putValue(hasher, ((ReaderArgumentProvider) argument).content.digest.toString());
             } else if (argument instanceof ArgumentProvider) {
-                return ((ArgumentProvider) argument).getArgument();
+                return FingerprintUtils.putValue(hasher, ((ArgumentProvider) argument).getArgument());
             } else {
-                return argument;
+                return FingerprintUtils.putValue(hasher, argument);
             }
         }
 
@@ -339,7 +506,83 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
         }
 
         private static boolean hasUsefulCommands(List<Record> records, String connectionId) {
-            return records.stream().anyMatch(record -> record.thisId.equals(connectionId) && !(record.methodName.equals("close") && record.arguments.isEmpty()));
+            return records.stream().anyMatch(record -> record.thisId.equals(connectionId) && !CONNECTION_SETTINGS_METHODS.contains(record.methodName));
+        }
+
+        /**
+         * Removes statements without side effects, i.e. statements that only execute read-only queries
+         * and whose result sets are only iterated, because the queried values are never used by the replay.
+         * Queries calling functions that are not known to be side effect free are kept.
+         */
+        private static void removeReadOnlyStatements(List<Record> records) {
+            Map<String, List<Record>> targetRecords = records.stream()
+                    .collect(Collectors.groupingBy(record -> record.thisId));
+            Set<String> referencedIds = records.stream()
+                    .flatMap(record -> record.arguments.stream())
+                    .filter(ArgumentReference.class::isInstance)
+                    .map(argument -> ((ArgumentReference) argument).getReferenceId())
+                    .collect(Collectors.toSet());
+
+            Set<String> removableIds = new HashSet<>();
+            for (Record record : records) {
+                if (record.resultId != null && (record.methodName.equals("createStatement") || record.methodName.equals("prepareStatement"))) {
+                    collectReadOnlyStatement(record, targetRecords, referencedIds, removableIds);
+                }
+            }
+
+            if (!removableIds.isEmpty()) {
+                records.removeIf(record -> removableIds.contains(record.thisId) || removableIds.contains(record.resultId));
+            }
+        }
+
+        private static void collectReadOnlyStatement(Record creation, Map<String, List<Record>> targetRecords, Set<String> referencedIds, Set<String> removableIds) {
+            String statementId = creation.resultId;
+            if (referencedIds.contains(statementId)) {
+                return;
+            }
+
+            Object statementSql = creation.methodName.equals("prepareStatement") ? creation.arguments.get(0) : null;
+            Set<String> resultSetIds = new HashSet<>();
+
+            for (Record record : targetRecords.getOrDefault(statementId, ImmutableList.of())) {
+                if (QUERY_METHODS.contains(record.methodName)) {
+                    Object sql = record.arguments.isEmpty() ? statementSql : record.arguments.get(0);
+                    if (!(sql instanceof String) || !isReadOnlyQuery((String) sql)) {
+                        return;
+                    }
+                    if (record.resultId != null) {
+                        if (!isNavigatedOnly(record.resultId, targetRecords, referencedIds)) {
+                            return;
+                        }
+                        resultSetIds.add(record.resultId);
+                    }
+                } else if (record.resultId != null
+                        || !STATEMENT_SETTINGS_METHODS.contains(record.methodName) && !StatementUnit.isParameterSetter(record)) {
+                    return;
+                }
+            }
+
+            removableIds.add(statementId);
+            removableIds.addAll(resultSetIds);
+        }
+
+        private static boolean isNavigatedOnly(String resultSetId, Map<String, List<Record>> targetRecords, Set<String> referencedIds) {
+            return !referencedIds.contains(resultSetId) && targetRecords.getOrDefault(resultSetId, ImmutableList.of()).stream()
+                    .allMatch(record -> record.resultId == null && RESULT_SET_NAVIGATION_METHODS.contains(record.methodName));
+        }
+
+        private static boolean isReadOnlyQuery(String sql) {
+            if (!QUERY_PATTERN.matcher(sql).find() || !SqlUtils.isReadOnlyStatement(sql)) {
+                return false;
+            }
+
+            Matcher matcher = FUNCTION_CALL_PATTERN.matcher(sql);
+            while (matcher.find()) {
+                if (!PURE_FUNCTIONS.contains(matcher.group(1).toUpperCase(Locale.ROOT))) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         private static boolean hasCloseMethod(List<Record> records, String connectionId) {
@@ -419,6 +662,239 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
         }
     }
 
+    /**
+     * Creation of a statement followed by its executions and closing, which can be replaced by a batch.
+     * Each execution is represented by the records to replay before {@code addBatch}, i.e. parameter setters
+     * of a prepared statement, or the {@code addBatch(sql)} call of a plain statement.
+     */
+    private static class StatementUnit {
+
+        private static final Set<String> UPDATE_METHODS = ImmutableSet.of("execute", "executeUpdate", "executeLargeUpdate");
+
+        private final Record creation;
+        private final List<List<Record>> executions;
+        private final int end;
+
+        private StatementUnit(Record creation, List<List<Record>> executions, int end) {
+            this.creation = creation;
+            this.executions = executions;
+            this.end = end;
+        }
+
+        public boolean isCompatibleWith(StatementUnit unit) {
+            return creation.thisId.equals(unit.creation.thisId)
+                    && creation.methodName.equals(unit.creation.methodName)
+                    && creation.arguments.equals(unit.creation.arguments);
+        }
+
+        public static StatementUnit match(List<Record> records, int index, Map<String, Integer> lastUsages) {
+            if (index >= records.size()) {
+                return null;
+            }
+
+            Record creation = records.get(index);
+            boolean prepared = creation.methodName.equals("prepareStatement") && creation.arguments.size() == 1
+                    && ReplayableDatabasePreparerImpl.isBatchableSql(creation.arguments.get(0));
+            boolean plain = creation.methodName.equals("createStatement") && creation.arguments.isEmpty();
+
+            if (creation.resultId == null || !prepared && !plain) {
+                return null;
+            }
+
+            String statementId = creation.resultId;
+            List<List<Record>> executions = new ArrayList<>();
+            List<Record> parameters = new ArrayList<>();
+
+            for (int i = index + 1; i < records.size(); i++) {
+                Record record = records.get(i);
+
+                if (!record.thisId.equals(statementId) || record.resultId != null) {
+                    return null;
+                }
+
+                if (record.methodName.equals("close") && record.arguments.isEmpty()) {
+                    if (executions.isEmpty() || !parameters.isEmpty() || lastUsages.get(statementId) > i) {
+                        return null;
+                    }
+                    return new StatementUnit(creation, executions, i + 1);
+                } else if (prepared && UPDATE_METHODS.contains(record.methodName) && record.arguments.isEmpty()) {
+                    parameters.add(new Record(statementId, "addBatch", new Object[0], null));
+                    executions.add(parameters);
+                    parameters = new ArrayList<>();
+                } else if (prepared && isParameterSetter(record)) {
+                    parameters.add(record);
+                } else if (plain && UPDATE_METHODS.contains(record.methodName) && record.arguments.size() == 1
+                        && ReplayableDatabasePreparerImpl.isBatchableSql(record.arguments.get(0))) {
+                    executions.add(ImmutableList.of(new Record(statementId, "addBatch", record.arguments.toArray(), null)));
+                } else {
+                    return null;
+                }
+            }
+
+            return null;
+        }
+
+        private static boolean isParameterSetter(Record record) {
+            return record.methodName.equals("clearParameters")
+                    || record.methodName.startsWith("set") && record.arguments.size() >= 2 && record.arguments.get(0) instanceof Integer;
+        }
+    }
+
+    /**
+     * Recorded call linked to slots of the replay context, which hold the data source and the recorded results.
+     * The method handle is resolved on the first invocation and cached for the class of the target object,
+     * constant arguments are bound to it, so only references and provided arguments are resolved on each replay.
+     */
+    private static class LinkedCall {
+
+        private static final Object[] NO_ARGUMENTS = new Object[0];
+
+        private final String methodName;
+        private final Object[] arguments;
+        private final int targetSlot;
+        private final int resultSlot;
+        private final int[] dynamicIndexes;
+        private final int[] dynamicSlots;
+
+        private volatile ResolvedMethod resolvedMethod;
+
+        private LinkedCall(String methodName, Object[] arguments, int targetSlot, int resultSlot, int[] dynamicIndexes, int[] dynamicSlots) {
+            this.methodName = methodName;
+            this.arguments = arguments;
+            this.targetSlot = targetSlot;
+            this.resultSlot = resultSlot;
+            this.dynamicIndexes = dynamicIndexes;
+            this.dynamicSlots = dynamicSlots;
+        }
+
+        /**
+         * Links the records to slots of the replay context, the slot {@code 0} is reserved for the data source.
+         */
+        public static LinkedCall[] link(List<Record> records) {
+            Map<String, Integer> slots = new HashMap<>();
+            slots.put(ROOT_REFERENCE, 0);
+
+            LinkedCall[] calls = new LinkedCall[records.size()];
+            for (int i = 0; i < calls.length; i++) {
+                Record record = records.get(i);
+                Object[] arguments = record.arguments.toArray();
+
+                int dynamicCount = (int) record.arguments.stream().filter(LinkedCall::isDynamicArgument).count();
+                int[] dynamicIndexes = new int[dynamicCount];
+                int[] dynamicSlots = new int[dynamicCount];
+
+                for (int j = 0, k = 0; j < arguments.length; j++) {
+                    if (isDynamicArgument(arguments[j])) {
+                        dynamicIndexes[k] = j;
+                        dynamicSlots[k++] = arguments[j] instanceof ArgumentReference
+                                ? getSlot(slots, ((ArgumentReference) arguments[j]).getReferenceId()) : -1;
+                    } else if (arguments[j] instanceof NullArgumentProvider) {
+                        arguments[j] = null;
+                    }
+                }
+
+                int targetSlot = getSlot(slots, record.thisId);
+                int resultSlot = -1;
+                if (record.resultId != null) {
+                    resultSlot = slots.size();
+                    slots.put(record.resultId, resultSlot);
+                }
+
+                calls[i] = new LinkedCall(record.methodName, arguments, targetSlot, resultSlot, dynamicIndexes, dynamicSlots);
+            }
+            return calls;
+        }
+
+        public void invoke(Object[] context) {
+            Object target = context[targetSlot];
+            checkState(target != null, "Target object must not be null");
+
+            Object[] dynamicArguments = dynamicIndexes.length == 0 ? NO_ARGUMENTS : new Object[dynamicIndexes.length];
+            for (int i = 0; i < dynamicIndexes.length; i++) {
+                dynamicArguments[i] = dynamicSlots[i] >= 0
+                        ? context[dynamicSlots[i]] : ((ArgumentProvider) arguments[dynamicIndexes[i]]).getArgument();
+            }
+
+            MethodHandle methodHandle = resolveMethod(target, dynamicArguments);
+
+            Object result;
+            try {
+                result = (Object) methodHandle.invokeExact(target, dynamicArguments);
+            } catch (Throwable ex) {
+                ReflectionUtils.rethrowRuntimeException(ex);
+                throw new IllegalStateException("Should never get here");
+            }
+
+            if (resultSlot >= 0) {
+                checkState(result != null, "The result does not match the recorded data");
+                context[resultSlot] = result;
+            }
+        }
+
+        private MethodHandle resolveMethod(Object target, Object[] dynamicArguments) {
+            ResolvedMethod resolvedMethod = this.resolvedMethod;
+            if (resolvedMethod == null || resolvedMethod.targetClass != target.getClass()) {
+                resolvedMethod = new ResolvedMethod(target.getClass(), createMethodHandle(target, dynamicArguments));
+                this.resolvedMethod = resolvedMethod;
+            }
+            return resolvedMethod.methodHandle;
+        }
+
+        private MethodHandle createMethodHandle(Object target, Object[] dynamicArguments) {
+            Object[] arguments = this.arguments.clone();
+            for (int i = 0; i < dynamicIndexes.length; i++) {
+                arguments[dynamicIndexes[i]] = dynamicArguments[i];
+            }
+
+            try {
+                MethodInvoker methodInvoker = new MethodInvoker();
+                methodInvoker.setTargetObject(target);
+                methodInvoker.setTargetMethod(methodName);
+                methodInvoker.setArguments(arguments);
+                methodInvoker.prepare();
+
+                Method method = methodInvoker.getPreparedMethod();
+                ReflectionUtils.makeAccessible(method);
+
+                MethodHandle methodHandle = MethodHandles.lookup().unreflect(method).asFixedArity();
+                methodHandle = methodHandle.asType(MethodType.genericMethodType(arguments.length + 1));
+
+                for (int i = arguments.length - 1; i >= 0; i--) {
+                    if (Arrays.binarySearch(dynamicIndexes, i) < 0) {
+                        methodHandle = MethodHandles.insertArguments(methodHandle, i + 1, arguments[i]);
+                    }
+                }
+
+                return methodHandle.asSpreader(Object[].class, dynamicIndexes.length);
+            } catch (Exception ex) {
+                ReflectionUtils.handleReflectionException(ex);
+                throw new IllegalStateException("Should never get here");
+            }
+        }
+
+        private static boolean isDynamicArgument(Object argument) {
+            return argument instanceof ArgumentReference
+                    || argument instanceof ArgumentProvider && !(argument instanceof NullArgumentProvider);
+        }
+
+        private static int getSlot(Map<String, Integer> slots, String referenceId) {
+            Integer slot = slots.get(referenceId);
+            checkState(slot != null, "Unknown reference: %s", referenceId);
+            return slot;
+        }
+
+        private static class ResolvedMethod {
+
+            private final Class<?> targetClass;
+            private final MethodHandle methodHandle;
+
+            private ResolvedMethod(Class<?> targetClass, MethodHandle methodHandle) {
+                this.targetClass = targetClass;
+                this.methodHandle = methodHandle;
+            }
+        }
+    }
+
     private interface ArgumentProvider {
 
         Object getArgument();
@@ -466,15 +942,26 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
 
     private static class InputStreamArgumentProvider implements ArgumentProvider {
 
-        private final byte[] data;
+        private final CapturedContent content;
 
         public InputStreamArgumentProvider(InputStream stream) throws IOException {
-            data = FileCopyUtils.copyToByteArray(stream);
+            try (CapturedContent.Builder builder = new CapturedContent.Builder()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = stream.read(buffer)) != -1) {
+                    builder.write(buffer, bytesRead);
+                }
+                content = builder.build();
+            }
         }
 
         @Override
         public Object getArgument() {
-            return new ByteArrayInputStream(data);
+            try {
+                return content.openStream();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
 
         @Override
@@ -482,28 +969,43 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             InputStreamArgumentProvider that = (InputStreamArgumentProvider) o;
-            return Arrays.equals(data, that.data);
+            return Objects.equals(content, that.content);
         }
 
         @Override
         public int hashCode() {
-            return Arrays.hashCode(data);
+            return Objects.hash(content);
         }
     }
 
     private static class ReaderArgumentProvider implements ArgumentProvider {
 
-        private final char[] data;
+        private final CapturedContent content;
 
         public ReaderArgumentProvider(Reader reader) throws IOException {
-            CharArrayWriter writer = new CharArrayWriter();
-            FileCopyUtils.copy(reader, writer);
-            data = writer.toCharArray();
+            try (CapturedContent.Builder builder = new CapturedContent.Builder()) {
+                char[] buffer = new char[BUFFER_SIZE];
+                byte[] bytes = new byte[BUFFER_SIZE * 2];
+                int charsRead;
+                while ((charsRead = reader.read(buffer)) != -1) {
+                    // chars are stored as UTF-16BE code units, so that even malformed surrogate pairs are preserved
+                    for (int i = 0; i < charsRead; i++) {
+                        bytes[2 * i] = (byte) (buffer[i] >> 8);
+                        bytes[2 * i + 1] = (byte) buffer[i];
+                    }
+                    builder.write(bytes, charsRead * 2);
+                }
+                content = builder.build();
+            }
         }
 
         @Override
         public Object getArgument() {
-            return new CharArrayReader(data);
+            try {
+                return content.openReader();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
 
         @Override
@@ -511,12 +1013,158 @@ public class RecordingMethodInterceptor implements MethodInterceptor {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             ReaderArgumentProvider that = (ReaderArgumentProvider) o;
-            return Arrays.equals(data, that.data);
+            return Objects.equals(content, that.content);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(content);
+        }
+    }
+
+    /**
+     * Content of a captured stream argument. Content larger than {@link #SPILL_THRESHOLD} is spilled
+     * to a temporary file, which is memory-mapped on replay, so large binary fixtures do not occupy the heap
+     * for the whole lifetime of the recorded preparer. Equality and hashing is based on a digest of the content.
+     */
+    private static class CapturedContent {
+
+        private final byte[] data;
+        private final Path file;
+        private final long length;
+        private final HashCode digest;
+        private final Supplier<ByteBuffer> mappedFile = Suppliers.memoize(this::mapFile);
+
+        private CapturedContent(byte[] data, Path file, long length, HashCode digest) {
+            this.data = data;
+            this.file = file;
+            this.length = length;
+            this.digest = digest;
+        }
+
+        public InputStream openStream() throws IOException {
+            if (data != null) {
+                return new ByteArrayInputStream(data);
+            } else if (length > Integer.MAX_VALUE) {
+                return new BufferedInputStream(Files.newInputStream(file));
+            } else {
+                return new ByteBufferInputStream(mappedFile.get().duplicate());
+            }
+        }
+
+        public Reader openReader() throws IOException {
+            if (data != null) {
+                return CharSource.wrap(ByteBuffer.wrap(data).asCharBuffer()).openStream();
+            } else if (length > Integer.MAX_VALUE) {
+                return new InputStreamReader(openStream(), UTF_16BE);
+            } else {
+                return CharSource.wrap(mappedFile.get().asCharBuffer()).openStream();
+            }
+        }
+
+        private ByteBuffer mapFile() {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CapturedContent that = (CapturedContent) o;
+            return length == that.length && Objects.equals(digest, that.digest);
         }
 
         @Override
         public int hashCode() {
-            return Arrays.hashCode(data);
+            return digest.hashCode();
+        }
+
+        private static class Builder implements Closeable {
+
+            private final Hasher hasher = Hashing.sha256().newHasher();
+
+            private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+            private Path file;
+            private OutputStream output;
+            private long length;
+
+            public void write(byte[] bytes, int count) throws IOException {
+                hasher.putBytes(bytes, 0, count);
+
+                if (file == null && length + count > SPILL_THRESHOLD) {
+                    file = Files.createTempFile("zonky-recording-", ".tmp");
+                    file.toFile().deleteOnExit();
+                    output = new BufferedOutputStream(Files.newOutputStream(file));
+                    memory.writeTo(output);
+                    memory = null;
+                }
+
+                if (output != null) {
+                    output.write(bytes, 0, count);
+                } else {
+                    memory.write(bytes, 0, count);
+                }
+                length += count;
+            }
+
+            public CapturedContent build() throws IOException {
+                if (file != null) {
+                    close();
+                    return new CapturedContent(null, file, length, hasher.hash());
+                } else {
+                    return new CapturedContent(memory.toByteArray(), null, length, hasher.hash());
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (output != null) {
+                    output.close();
+                    output = null;
+                }
+            }
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
         }
     }
 }
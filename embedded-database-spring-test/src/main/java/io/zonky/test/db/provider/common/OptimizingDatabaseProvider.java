@@ -17,8 +17,6 @@
 package io.zonky.test.db.provider.common;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.AtomicLongMap;
 import io.zonky.test.db.preparer.CompositeDatabasePreparer;
 import io.zonky.test.db.preparer.DatabasePreparer;
 import io.zonky.test.db.provider.DatabaseProvider;
@@ -31,7 +29,8 @@ import java.sql.SQLException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OptimizingDatabaseProvider implements DatabaseProvider {
 
@@ -39,8 +38,7 @@ public class OptimizingDatabaseProvider implements DatabaseProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(OptimizingDatabaseProvider.class);
 
-    private static final Set<BaselineKey> baselines = Sets.newConcurrentHashSet();
-    private static final AtomicLongMap<BaselineKey> requestCount = AtomicLongMap.create();
+    private static final PreparerTrie<BaselineStats> baselines = new PreparerTrie<>();
 
     private final DatabaseProvider provider;
 
@@ -54,20 +52,18 @@ public class OptimizingDatabaseProvider implements DatabaseProvider {
                 (CompositeDatabasePreparer) preparer : new CompositeDatabasePreparer(ImmutableList.of(preparer));
         List<DatabasePreparer> preparers = compositePreparer.getPreparers();
 
-        for (int i = preparers.size(); i > 0; i--) {
-            requestCount.incrementAndGet(new BaselineKey(provider, new CompositeDatabasePreparer(preparers.subList(0, i))));
-        }
+        List<BaselineStats> prefixStats = baselines.computePrefixes(provider, preparers, BaselineStats::new);
+        prefixStats.forEach(BaselineStats::onRequest);
 
         for (int i = preparers.size(); i > 0; i--) {
-            CompositeDatabasePreparer baselinePreparer = new CompositeDatabasePreparer(preparers.subList(0, i));
-            BaselineKey baselineKey = new BaselineKey(provider, baselinePreparer);
+            BaselineStats baselineStats = prefixStats.get(i - 1);
 
-            if (requestCount.get(baselineKey) >= 3 && !baselines.contains(baselineKey)) {
-                logger.trace("Creating a new baseline preparer {} because the preparer has reached the maximum request threshold", baselinePreparer);
-                baselines.add(baselineKey);
+            if (baselineStats.getRequestCount() >= 3 && baselineStats.markAsBaseline()) {
+                logger.trace("Creating a new baseline preparer {} because the preparer has reached the maximum request threshold", new CompositeDatabasePreparer(preparers.subList(0, i)));
             }
 
-            if (baselines.contains(baselineKey)) {
+            if (baselineStats.isBaseline()) {
+                CompositeDatabasePreparer baselinePreparer = new CompositeDatabasePreparer(preparers.subList(0, i));
                 CompositeDatabasePreparer complementaryPreparer = new CompositeDatabasePreparer(preparers.subList(i, preparers.size()));
 
                 if (i == preparers.size()) {
@@ -75,7 +71,7 @@ public class OptimizingDatabaseProvider implements DatabaseProvider {
                     return createDatabase(baselinePreparer, EMPTY_PREPARER);
                 } else if (hasSlowOperation(complementaryPreparer)) {
                     logger.trace("Baseline preparer found {}, using the existing preparer to create a new baseline preparer {}", baselinePreparer, compositePreparer);
-                    baselines.add(new BaselineKey(provider, compositePreparer));
+                    prefixStats.get(preparers.size() - 1).markAsBaseline();
                     return createDatabase(compositePreparer, EMPTY_PREPARER);
                 } else {
                     logger.trace("Baseline preparer found {}, creating database by using a complementary preparer {}", baselinePreparer, complementaryPreparer);
@@ -85,7 +81,9 @@ public class OptimizingDatabaseProvider implements DatabaseProvider {
         }
 
         logger.trace("No baseline preparer found, creating database by using a new baseline preparer {}", compositePreparer);
-        baselines.add(new BaselineKey(provider, compositePreparer));
+        if (!prefixStats.isEmpty()) {
+            prefixStats.get(preparers.size() - 1).markAsBaseline();
+        }
         return createDatabase(compositePreparer, EMPTY_PREPARER);
     }
 
@@ -116,28 +114,25 @@ public class OptimizingDatabaseProvider implements DatabaseProvider {
         return preparer.estimatedDuration() > 150;
     }
 
-    private static class BaselineKey {
+    private static class BaselineStats {
 
-        private final DatabaseProvider provider;
-        private final DatabasePreparer preparer;
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicBoolean baseline = new AtomicBoolean();
+
+        public long getRequestCount() {
+            return requestCount.get();
+        }
 
-        private BaselineKey(DatabaseProvider provider, DatabasePreparer preparer) {
-            this.provider = provider;
-            this.preparer = preparer;
+        public boolean isBaseline() {
+            return baseline.get();
         }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            BaselineKey that = (BaselineKey) o;
-            return Objects.equals(provider, that.provider) &&
-                    Objects.equals(preparer, that.preparer);
+        public void onRequest() {
+            requestCount.incrementAndGet();
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(provider, preparer);
+        public boolean markAsBaseline() {
+            return baseline.compareAndSet(false, true);
         }
     }
 }
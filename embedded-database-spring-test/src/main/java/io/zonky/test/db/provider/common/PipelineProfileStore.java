@@ -0,0 +1,223 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Stores demand profiles of prefetching pipelines in a file,
+ * so that the statistics collected during one test run can be reused by the next one.
+ * <p>
+ * The file is a plain text file with one profile per line.
+ * Profiles are identified by fingerprints of the pipelines, so the file does not contain any preparer data.
+ * Since multiple test JVMs may share the same file, the file is re-read and merged before it is written.
+ */
+public class PipelineProfileStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineProfileStore.class);
+
+    private static final String HEADER = "# prefetching pipeline profiles v1";
+    private static final String SEPARATOR = ";";
+    private static final int MAX_PROFILES = 100;
+    private static final long MAX_PROFILE_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private final Path file;
+    private final Map<String, PipelineProfile> profiles;
+
+    public PipelineProfileStore(Path file) {
+        this.file = file;
+        this.profiles = load(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the profile loaded at startup for the given pipeline fingerprint,
+     * or {@code null} if no such profile exists.
+     */
+    public PipelineProfile getProfile(String fingerprint) {
+        return profiles.get(fingerprint);
+    }
+
+    /**
+     * Merges the given profiles with the profiles currently stored in the file and writes the result back.
+     * Only the most used profiles are kept, profiles that have not been used for a long time are discarded.
+     */
+    public synchronized void save(Collection<PipelineProfile> currentProfiles) {
+        Map<String, PipelineProfile> mergedProfiles = load(file);
+        for (PipelineProfile profile : currentProfiles) {
+            mergedProfiles.put(profile.getFingerprint(), profile);
+        }
+
+        long minLastUsed = System.currentTimeMillis() - MAX_PROFILE_AGE;
+        List<PipelineProfile> profilesToSave = mergedProfiles.values().stream()
+                .filter(profile -> profile.getLastUsed() >= minLastUsed)
+                .sorted(Comparator.comparingLong(PipelineProfile::getRequestCount).reversed())
+                .limit(MAX_PROFILES)
+                .collect(toList());
+
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+
+            Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                    writer.write(HEADER);
+                    writer.newLine();
+                    for (PipelineProfile profile : profilesToSave) {
+                        writer.write(format(profile));
+                        writer.newLine();
+                    }
+                }
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+
+            logger.debug("Prefetching profiles have been saved - file={}, profiles={}", file, profilesToSave.size());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unexpected error when saving prefetching profiles to {}", file, e);
+        }
+    }
+
+    private static Map<String, PipelineProfile> load(Path file) {
+        Map<String, PipelineProfile> profiles = new HashMap<>();
+
+        if (!Files.isRegularFile(file)) {
+            return profiles;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                PipelineProfile profile = parse(line);
+                if (profile != null) {
+                    profiles.put(profile.getFingerprint(), profile);
+                }
+            }
+            logger.trace("Prefetching profiles have been loaded - file={}, profiles={}", file, profiles.size());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unexpected error when loading prefetching profiles from {}", file, e);
+        }
+
+        return profiles;
+    }
+
+    private static PipelineProfile parse(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+
+        String[] parts = line.split(SEPARATOR);
+        if (parts.length != 5) {
+            return null;
+        }
+
+        try {
+            return new PipelineProfile(parts[0],
+                    Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                    Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String format(PipelineProfile profile) {
+        return String.join(SEPARATOR, profile.getFingerprint(),
+                String.valueOf(profile.getRequestCount()), String.valueOf(profile.getRequestInterval()),
+                String.valueOf(profile.getPreparationTime()), String.valueOf(profile.getLastUsed()));
+    }
+
+    public static class PipelineProfile {
+
+        private final String fingerprint;
+        private final long requestCount;
+        private final long requestInterval;
+        private final long preparationTime;
+        private final long lastUsed;
+
+        public PipelineProfile(String fingerprint, long requestCount, long requestInterval, long preparationTime, long lastUsed) {
+            this.fingerprint = fingerprint;
+            this.requestCount = requestCount;
+            this.requestInterval = requestInterval;
+            this.preparationTime = preparationTime;
+            this.lastUsed = lastUsed;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * Returns the average time between two requests in milliseconds.
+         */
+        public long getRequestInterval() {
+            return requestInterval;
+        }
+
+        /**
+         * Returns the average preparation time in milliseconds.
+         */
+        public long getPreparationTime() {
+            return preparationTime;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("fingerprint", fingerprint)
+                    .add("requestCount", requestCount)
+                    .add("requestInterval", requestInterval)
+                    .add("preparationTime", preparationTime)
+                    .toString();
+        }
+    }
+}
@@ -20,6 +20,8 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.zonky.test.db.preparer.CompositeDatabasePreparer;
 import io.zonky.test.db.preparer.DatabasePreparer;
 import io.zonky.test.db.provider.DatabaseProvider;
@@ -30,9 +32,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -41,13 +53,18 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.collect.Maps.immutableEntry;
 import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.DatabasePipeline.State.INITIALIZED;
@@ -55,6 +72,7 @@ import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.Datab
 import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.DatabasePipeline.State.NEW;
 import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PrefetchingTask.TaskType.EXISTING_DATABASE;
 import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PrefetchingTask.TaskType.NEW_DATABASE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.newSetFromMap;
 import static java.util.stream.Collectors.toList;
 import static org.springframework.core.Ordered.HIGHEST_PRECEDENCE;
@@ -65,8 +83,15 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
     private static final Logger logger = LoggerFactory.getLogger(PrefetchingDatabaseProvider.class);
 
     protected static final ThreadPoolTaskExecutor taskExecutor = new PriorityThreadPoolTaskExecutor();
+    protected static final ConcurrentMap<DatabaseProvider, ThreadPoolTaskExecutor> providerExecutors = new ConcurrentHashMap<>();
     protected static final ConcurrentMap<PipelineKey, DatabasePipeline> pipelines = new ConcurrentHashMap<>();
+    protected static final PreparerTrie<PipelineKey> pipelineIndex = new PreparerTrie<>();
+    protected static final ConcurrentNavigableMap<PreparedResult, PipelineKey> evictionIndex = new ConcurrentSkipListMap<>(PreparedResult.EVICTION_ORDER);
+    protected static final AtomicLong evictionBaseline = new AtomicLong();
     protected static final AtomicLong databaseCount = new AtomicLong();
+    protected static final ConcurrentMap<Path, PipelineProfileStore> profileStores = new ConcurrentHashMap<>();
+    protected static final ConcurrentMap<DatabaseProvider, PipelineProfileStore> providerProfileStores = new ConcurrentHashMap<>();
+    protected static final AtomicBoolean profileShutdownHookRegistered = new AtomicBoolean();
 
     static {
         taskExecutor.setThreadNamePrefix("prefetching-");
@@ -78,6 +103,8 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
 
     protected final DatabaseProvider provider;
     protected final Config config;
+    protected final ThreadPoolTaskExecutor executor;
+    protected final PipelineProfileStore profileStore;
 
     public PrefetchingDatabaseProvider(DatabaseProvider provider) {
         this(provider, Config.builder().build());
@@ -87,8 +114,30 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         this.provider = provider;
         this.config = config;
 
-        taskExecutor.setThreadNamePrefix(config.getThreadNamePrefix());
-        taskExecutor.setCorePoolSize(config.getConcurrency());
+        if (config.getExecutorMode() == ExecutorMode.ISOLATED) {
+            this.executor = providerExecutors.computeIfAbsent(provider, p -> createTaskExecutor(config));
+            this.executor.setCorePoolSize(config.getConcurrency());
+        } else {
+            this.executor = taskExecutor;
+            this.executor.setThreadNamePrefix(config.getThreadNamePrefix());
+            this.executor.setCorePoolSize(config.getConcurrency());
+
+            if (config.isVirtualThreads()) {
+                logger.warn("Virtual threads are supported only in the isolated executor mode, platform threads will be used for database prefetching");
+            }
+        }
+
+        if (config.getProfileFile() != null) {
+            Path profileFile = Paths.get(config.getProfileFile()).toAbsolutePath().normalize();
+            this.profileStore = profileStores.computeIfAbsent(profileFile, PipelineProfileStore::new);
+            providerProfileStores.putIfAbsent(provider, profileStore);
+
+            if (profileShutdownHookRegistered.compareAndSet(false, true)) {
+                Runtime.getRuntime().addShutdownHook(new Thread(PrefetchingDatabaseProvider::saveProfiles, "prefetching-profiles"));
+            }
+        } else {
+            this.profileStore = null;
+        }
     }
 
     @Override
@@ -112,8 +161,12 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         databaseCount.decrementAndGet();
 
         PipelineKey key = new PipelineKey(provider, preparer);
-        DatabasePipeline pipeline = pipelines.computeIfAbsent(key, k -> new DatabasePipeline());
-        PreparedResult result = pipeline.results.poll();
+        DatabasePipeline pipeline = pipelines.computeIfAbsent(key, k -> {
+            pipelineIndex.put(provider, k.preparers, k);
+            return createPipeline(k);
+        });
+        pipeline.stats.onRequest();
+        PreparedResult result = pipeline.pollResult();
 
         if (result != null) {
             prepareDatabase(key, LOWEST_PRECEDENCE);
@@ -129,14 +182,15 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         long databasesCount = pipeline.tasks.size() + pipeline.results.size();
         if (result == null) databasesCount--;
 
-        if (databasesCount < invocationCount - 1 && databasesCount < config.getPipelineMaxCacheSize()) {
+        int prefetchDepth = pipeline.updatePrefetchDepth(invocationCount, config.getPipelineMaxCacheSize());
+        for (long i = databasesCount; i < prefetchDepth; i++) {
             prepareDatabase(key, -1);
         }
         reschedulePipeline(key);
 
         if (result == null) {
             try {
-                result = pipeline.results.take();
+                result = pipeline.takeResult();
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 throw new ProviderException("Provider interrupted", e);
@@ -148,6 +202,20 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         return database;
     }
 
+    protected DatabasePipeline createPipeline(PipelineKey key) {
+        DatabasePipeline pipeline = new DatabasePipeline();
+
+        if (profileStore != null && key.fingerprint() != null) {
+            PipelineProfileStore.PipelineProfile profile = profileStore.getProfile(key.fingerprint());
+            if (profile != null && profile.getRequestCount() > 1) {
+                pipeline.stats.initialize(profile.getRequestInterval(), profile.getPreparationTime());
+                logger.trace("Prefetching pipeline has been initialized from a stored profile: {}", profile);
+            }
+        }
+
+        return pipeline;
+    }
+
     protected PrefetchingTask prepareDatabase(PipelineKey key, int priority) {
         DatabasePipeline pipeline = pipelines.get(key);
 
@@ -179,21 +247,24 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
     }
 
     protected Optional<PrefetchingTask> prepareExistingDatabase(PipelineKey key, int priority) {
-        CompositeDatabasePreparer compositePreparer = key.preparer instanceof CompositeDatabasePreparer ?
-                (CompositeDatabasePreparer) key.preparer : new CompositeDatabasePreparer(ImmutableList.of(key.preparer));
-        List<DatabasePreparer> preparers = compositePreparer.getPreparers();
+        List<DatabasePreparer> preparers = key.preparers;
+        List<PreparerTrie.Match<PipelineKey>> prefixes = pipelineIndex.findPrefixes(provider, preparers);
 
-        for (int i = preparers.size() - 1; i > 0; i--) {
-            CompositeDatabasePreparer pipelinePreparer = new CompositeDatabasePreparer(preparers.subList(0, i));
-            PipelineKey pipelineKey = new PipelineKey(provider, pipelinePreparer);
+        for (int j = prefixes.size() - 1; j >= 0; j--) {
+            int i = prefixes.get(j).getLength();
+            if (i == preparers.size()) {
+                continue;
+            }
+
+            PipelineKey pipelineKey = prefixes.get(j).getValue();
             DatabasePipeline existingPipeline = pipelines.get(pipelineKey);
 
             if (existingPipeline != null) {
-                if (key.preparer.estimatedDuration() - pipelinePreparer.estimatedDuration() > 600) {
+                if (key.preparer.estimatedDuration() - pipelineKey.preparer.estimatedDuration() > 600) {
                     return Optional.empty();
                 }
 
-                PreparedResult result = existingPipeline.results.poll();
+                PreparedResult result = existingPipeline.pollResult();
                 if (result != null) {
                     CompositeDatabasePreparer complementaryPreparer = new CompositeDatabasePreparer(preparers.subList(i, preparers.size()));
                     logger.trace("Preparing existing database from {} pipeline by using the complementary preparer {}", existingPipeline.key, complementaryPreparer);
@@ -212,18 +283,20 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
 
     protected void reschedulePipeline(PipelineKey key) {
         DatabasePipeline pipeline = pipelines.get(key);
+        PriorityTaskQueue taskQueue = (PriorityTaskQueue) executor.getThreadPoolExecutor().getQueue();
 
         synchronized (pipeline.tasks) {
             long invocationCount = pipeline.requests.get();
 
-            List<PrefetchingTask> cancelledTasks = pipeline.tasks.stream()
+            List<PrefetchingTask> queuedTasks = pipeline.tasks.stream()
                     .filter(t -> t.priority > HIGHEST_PRECEDENCE)
-                    .filter(t -> t.cancel(false))
+                    .filter(taskQueue::contains)
+                    .sorted(Comparator.reverseOrder())
                     .collect(toList());
 
-            for (int i = 0; i < cancelledTasks.size(); i++) {
-                int priority = -1 * (int) (invocationCount / cancelledTasks.size() * (i + 1));
-                executeTask(PrefetchingTask.fromTask(key, cancelledTasks.get(i), priority));
+            for (int i = 0; i < queuedTasks.size(); i++) {
+                int priority = -1 * (int) (invocationCount / queuedTasks.size() * (i + 1));
+                taskQueue.reprioritize(queuedTasks.get(i), priority, queuedTasks.size() - i - 1);
             }
         }
     }
@@ -231,47 +304,126 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
     protected PrefetchingTask executeTask(PrefetchingTask task) {
         DatabasePipeline pipeline = pipelines.get(task.key);
         pipeline.tasks.add(task);
-        taskExecutor.execute(task);
+        task.round = pipeline.tasks.size() - 1;
+        executor.execute(task);
         return task;
     }
 
+    protected static ThreadPoolTaskExecutor createTaskExecutor(Config config) {
+        ThreadPoolTaskExecutor executor = new PriorityThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(config.getThreadNamePrefix());
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setKeepAliveSeconds(60);
+        executor.setCorePoolSize(config.getConcurrency());
+
+        if (config.isVirtualThreads()) {
+            ThreadFactory threadFactory = virtualThreadFactory(config.getThreadNamePrefix());
+            if (threadFactory != null) {
+                executor.setThreadFactory(threadFactory);
+            }
+        }
+
+        executor.initialize();
+        return executor;
+    }
+
+    private static ThreadFactory virtualThreadFactory(String threadNamePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warn("Virtual threads are not supported by the current JVM, platform threads will be used for database prefetching");
+            return null;
+        }
+    }
+
+    /**
+     * Finds a prepared database that should be removed to make room for a new one.
+     * <p>
+     * The prepared results are kept in an index ordered by the value of each result,
+     * which is computed when the result is prepared (see {@link DatabasePipeline#offerResult(PipelineKey, PreparedResult)}).
+     * The value is derived from the cost of rebuilding the database and from the demand of its pipeline.
+     * To prevent results of formerly busy pipelines from staying in the cache forever,
+     * the value of each evicted result raises the baseline added to values of newly prepared results.
+     * <p>
+     * Results younger than the observed request interval of their pipeline are skipped,
+     * so that a freshly prepared database is not wasted before the next request has a chance to take it.
+     */
     protected Optional<Entry<PipelineKey, EmbeddedDatabase>> findDatabaseToRemove() {
         while (databaseCount.get() > config.getMaxPreparedDatabases()) {
-            long timestampThreshold = System.currentTimeMillis() - 10_000;
+            long now = System.currentTimeMillis();
+            Entry<PreparedResult, PipelineKey> candidate = evictionIndex.entrySet().stream()
+                    .filter(e -> isEvictable(e.getKey(), e.getValue(), now))
+                    .findFirst().orElse(null);
 
-            PipelineKey key = pipelines.entrySet().stream()
-                    .map(e -> immutableEntry(e.getKey(), e.getValue().results.peek()))
-                    .filter(e -> e.getValue() != null && e.getValue().getTimestamp() < timestampThreshold)
-                    .min(Comparator.comparing(e -> e.getValue().getTimestamp()))
-                    .map(Entry::getKey).orElse(null);
-
-            if (key == null) {
+            if (candidate == null) {
                 return Optional.empty();
             }
 
+            PreparedResult result = candidate.getKey();
+            PipelineKey key = candidate.getValue();
+            if (!evictionIndex.remove(result, key)) {
+                continue;
+            }
+
             DatabasePipeline pipeline = pipelines.get(key);
-            if (pipeline != null) {
-                PreparedResult result = pipeline.results.poll();
-                if (result != null) {
-                    if (result.hasResult()) {
-                        return Optional.of(immutableEntry(key, result.get()));
-                    } else {
-                        databaseCount.decrementAndGet();
-                    }
+
+            if (pipeline != null && pipeline.results.remove(result)) {
+                evictionBaseline.accumulateAndGet(result.getEvictionValue(), Math::max);
+
+                if (result.hasResult()) {
+                    return Optional.of(immutableEntry(key, result.get()));
+                } else {
+                    databaseCount.decrementAndGet();
                 }
             }
         }
         return Optional.empty();
     }
 
+    private static boolean isEvictable(PreparedResult result, PipelineKey key, long now) {
+        if (!result.hasResult()) {
+            return true;
+        }
+        DatabasePipeline pipeline = pipelines.get(key);
+        return pipeline == null || now - result.getTimestamp() >= pipeline.stats.getRequestInterval();
+    }
+
+    protected static void saveProfiles() {
+        Map<PipelineProfileStore, List<PipelineProfileStore.PipelineProfile>> profiles = new HashMap<>();
+        long now = System.currentTimeMillis();
+
+        pipelines.forEach((key, pipeline) -> {
+            PipelineProfileStore store = providerProfileStores.get(key.provider);
+            long requestCount = pipeline.requests.get();
+            long preparationTime = pipeline.stats.getPreparationTime();
+
+            if (store != null && key.fingerprint() != null && requestCount > 0 && preparationTime > 0) {
+                profiles.computeIfAbsent(store, s -> new ArrayList<>()).add(new PipelineProfileStore.PipelineProfile(
+                        key.fingerprint(), requestCount, pipeline.stats.getRequestInterval(), preparationTime, now));
+            }
+        });
+
+        profileStores.values().forEach(store -> store.save(profiles.getOrDefault(store, ImmutableList.of())));
+    }
+
     protected static class PipelineKey {
 
         public final DatabaseProvider provider;
         public final DatabasePreparer preparer;
+        public final List<DatabasePreparer> preparers;
+
+        private final int hashCode;
+        private volatile Optional<String> fingerprint;
 
         protected PipelineKey(DatabaseProvider provider, DatabasePreparer preparer) {
             this.provider = provider;
             this.preparer = preparer;
+            this.preparers = preparer instanceof CompositeDatabasePreparer ?
+                    ((CompositeDatabasePreparer) preparer).getPreparers() : ImmutableList.of(preparer);
+            this.hashCode = Objects.hash(provider, preparer);
         }
 
         @Override
@@ -279,13 +431,37 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             PipelineKey that = (PipelineKey) o;
-            return Objects.equals(provider, that.provider) &&
+            return hashCode == that.hashCode &&
+                    Objects.equals(provider, that.provider) &&
                     Objects.equals(preparer, that.preparer);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(provider, preparer);
+            return hashCode;
+        }
+
+        /**
+         * Returns a fingerprint identifying the pipeline across different JVM runs,
+         * or {@code null} if any of the preparers does not support fingerprinting.
+         * Pipelines without a fingerprint are not stored in the profiles.
+         */
+        public String fingerprint() {
+            Optional<String> result = fingerprint;
+            if (result == null) {
+                Hasher hasher = Hashing.sha256().newHasher()
+                        .putString(provider.getClass().getName(), UTF_8);
+                for (DatabasePreparer preparer : preparers) {
+                    String preparerFingerprint = preparer.fingerprint();
+                    if (preparerFingerprint == null) {
+                        result = fingerprint = Optional.empty();
+                        return null;
+                    }
+                    hasher.putString(preparerFingerprint, UTF_8);
+                }
+                result = fingerprint = Optional.of(hasher.hash().toString());
+            }
+            return result.orElse(null);
         }
     }
 
@@ -296,6 +472,60 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         public final AtomicLong requests = new AtomicLong();
         public final Set<PrefetchingTask> tasks = newSetFromMap(new ConcurrentHashMap<>());
         public final BlockingQueue<PreparedResult> results = new LinkedBlockingQueue<>();
+        public final PipelineStats stats = new PipelineStats();
+
+        private volatile int prefetchDepth = 0;
+
+        /**
+         * Returns the number of databases that should be prepared in advance,
+         * which is the last value computed by {@link #updatePrefetchDepth(long, int)}.
+         */
+        public int getPrefetchDepth() {
+            return prefetchDepth;
+        }
+
+        public PreparedResult pollResult() {
+            PreparedResult result = results.poll();
+            if (result != null) {
+                evictionIndex.remove(result);
+            }
+            return result;
+        }
+
+        public PreparedResult takeResult() throws InterruptedException {
+            PreparedResult result = results.take();
+            evictionIndex.remove(result);
+            return result;
+        }
+
+        public void offerResult(PipelineKey key, PreparedResult result) {
+            if (result.hasResult()) {
+                long cost = stats.getPreparationTime() > 0 ? stats.getPreparationTime() : key.preparer.estimatedDuration();
+                double demand = 1 + Math.log1p(requests.get());
+                result.setEvictionValue(evictionBaseline.get() + Math.round(cost * demand));
+            } else {
+                result.setEvictionValue(evictionBaseline.get());
+            }
+            evictionIndex.put(result, key);
+            results.offer(result);
+        }
+
+        /**
+         * Recomputes the prefetch depth of the pipeline.
+         * <p>
+         * Until the pipeline has collected enough samples, the depth grows by one with each request.
+         * After that, the depth is derived from the observed request rate and the preparation time
+         * so that a prepared database is available at the moment it is requested,
+         * but no more databases are kept than necessary.
+         */
+        public int updatePrefetchDepth(long invocationCount, int maxDepth) {
+            int depth = stats.estimatePrefetchDepth(maxDepth);
+            if (depth < 0) {
+                depth = (int) Math.min(invocationCount - 1, maxDepth);
+            }
+            prefetchDepth = depth;
+            return depth;
+        }
 
         @Override
         public String toString() {
@@ -303,8 +533,11 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
                     .add("pipelineKey", key)
                     .add("pipelineState", state.get())
                     .add("totalRequests", requests.get())
+                    .add("prefetchDepth", prefetchDepth)
                     .add("prefetchingQueue", tasks.size())
                     .add("preparedResults", results.size())
+                    .add("requestInterval", stats.getRequestInterval())
+                    .add("preparationTime", stats.getPreparationTime())
                     .toString();
         }
 
@@ -315,12 +548,99 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         }
     }
 
+    protected static class PipelineStats {
+
+        private static final double SMOOTHING_FACTOR = 0.3;
+        private static final int MIN_SAMPLES = 3;
+
+        private long lastRequestTime = -1;
+        private double requestInterval;
+        private int requestSamples;
+        private double preparationTime;
+        private int preparationSamples;
+
+        /**
+         * Returns the exponentially weighted moving average of the time between two requests in milliseconds.
+         */
+        public synchronized long getRequestInterval() {
+            return Math.round(requestInterval);
+        }
+
+        /**
+         * Returns the exponentially weighted moving average of the preparation time in milliseconds.
+         */
+        public synchronized long getPreparationTime() {
+            return Math.round(preparationTime);
+        }
+
+        /**
+         * Initializes the statistics from values observed in a previous run,
+         * so that the prefetch depth can be estimated right from the first request.
+         */
+        public synchronized void initialize(long requestInterval, long preparationTime) {
+            if (requestInterval < 0 || preparationTime <= 0) {
+                return;
+            }
+            this.requestInterval = requestInterval;
+            this.requestSamples = Math.max(requestSamples, MIN_SAMPLES);
+            this.preparationTime = preparationTime;
+            this.preparationSamples = Math.max(preparationSamples, MIN_SAMPLES);
+        }
+
+        public void onRequest() {
+            onRequest(System.nanoTime());
+        }
+
+        protected synchronized void onRequest(long timestampNanos) {
+            if (lastRequestTime >= 0) {
+                requestInterval = average(requestInterval, toMillis(timestampNanos - lastRequestTime), requestSamples++);
+            }
+            lastRequestTime = timestampNanos;
+        }
+
+        public synchronized void onPrepared(long durationNanos) {
+            preparationTime = average(preparationTime, toMillis(durationNanos), preparationSamples++);
+        }
+
+        /**
+         * Estimates how many databases must be prepared in advance to keep up with the demand,
+         * or returns {@code -1} if there are not enough samples to make the estimation.
+         */
+        public synchronized int estimatePrefetchDepth(int maxDepth) {
+            if (requestSamples < MIN_SAMPLES || preparationSamples < MIN_SAMPLES) {
+                return -1;
+            }
+            if (requestInterval <= 0) {
+                return maxDepth;
+            }
+            double depth = Math.ceil(preparationTime / requestInterval);
+            return (int) Math.max(1, Math.min(depth, maxDepth));
+        }
+
+        private static double average(double average, double sample, int samples) {
+            return samples == 0 ? sample : average + SMOOTHING_FACTOR * (sample - average);
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
     protected static class PreparedResult {
 
+        protected static final Comparator<PreparedResult> EVICTION_ORDER = Comparator
+                .comparingLong(PreparedResult::getEvictionValue)
+                .thenComparingLong(PreparedResult::getSequence);
+
+        private static final AtomicLong sequenceGenerator = new AtomicLong();
+
         private final long timestamp = System.currentTimeMillis();
+        private final long sequence = sequenceGenerator.incrementAndGet();
         private final EmbeddedDatabase result;
         private final Throwable error;
 
+        private volatile long evictionValue;
+
         public static PreparedResult success(EmbeddedDatabase result) {
             return new PreparedResult(result, null);
         }
@@ -338,6 +658,18 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
             return timestamp;
         }
 
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getEvictionValue() {
+            return evictionValue;
+        }
+
+        protected void setEvictionValue(long evictionValue) {
+            this.evictionValue = evictionValue;
+        }
+
         public boolean hasResult() {
             return result != null;
         }
@@ -355,18 +687,321 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
 
         @Override
         protected BlockingQueue<Runnable> createQueue(int queueCapacity) {
-            return new PriorityBlockingQueue<>();
+            return new PriorityTaskQueue();
+        }
+    }
+
+    /**
+     * Unbounded blocking queue of prefetching tasks backed by an indexed binary heap.
+     * <p>
+     * Unlike {@link java.util.concurrent.PriorityBlockingQueue}, each queued task knows its position in the heap,
+     * so the task can be looked up, removed or re-prioritized in place in O(log n) time,
+     * without the need to cancel it and submit a new copy.
+     * Tasks with the same priority are ordered by their round within the pipeline,
+     * so that tasks of different pipelines are interleaved fairly, and then by their insertion order.
+     */
+    protected static class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+
+        private PrefetchingTask[] heap = new PrefetchingTask[16];
+        private int size = 0;
+        private long sequence = 0;
+
+        public boolean reprioritize(PrefetchingTask task, int priority, int round) {
+            lock.lock();
+            try {
+                if (!isQueued(task)) {
+                    return false;
+                }
+                task.priority = priority;
+                task.round = round;
+                int index = task.heapIndex;
+                siftUp(index);
+                if (heap[index] == task) {
+                    siftDown(index);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            PrefetchingTask task = (PrefetchingTask) runnable;
+            lock.lock();
+            try {
+                if (isQueued(task)) {
+                    return false;
+                }
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, size * 2);
+                }
+                task.sequence = sequence++;
+                task.heapIndex = size;
+                heap[size] = task;
+                siftUp(size++);
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void put(Runnable runnable) {
+            offer(runnable);
+        }
+
+        @Override
+        public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+            return offer(runnable);
+        }
+
+        @Override
+        public Runnable poll() {
+            lock.lock();
+            try {
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (size == 0) {
+                    notEmpty.await();
+                }
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (size == 0) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                return dequeue();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Runnable peek() {
+            lock.lock();
+            try {
+                return size > 0 ? heap[0] : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof PrefetchingTask)) {
+                return false;
+            }
+            lock.lock();
+            try {
+                return isQueued((PrefetchingTask) o);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof PrefetchingTask)) {
+                return false;
+            }
+            lock.lock();
+            try {
+                PrefetchingTask task = (PrefetchingTask) o;
+                if (!isQueued(task)) {
+                    return false;
+                }
+                removeAt(task.heapIndex);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            lock.lock();
+            try {
+                int count = 0;
+                while (size > 0 && count < maxElements) {
+                    c.add(dequeue());
+                    count++;
+                }
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Iterator<Runnable> iterator() {
+            Object[] snapshot = toArray();
+            return new Iterator<Runnable>() {
+
+                private int cursor = 0;
+                private Runnable lastReturned;
+
+                @Override
+                public boolean hasNext() {
+                    return cursor < snapshot.length;
+                }
+
+                @Override
+                public Runnable next() {
+                    if (cursor >= snapshot.length) {
+                        throw new NoSuchElementException();
+                    }
+                    lastReturned = (Runnable) snapshot[cursor++];
+                    return lastReturned;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastReturned == null) {
+                        throw new IllegalStateException();
+                    }
+                    PriorityTaskQueue.this.remove(lastReturned);
+                    lastReturned = null;
+                }
+            };
+        }
+
+        @Override
+        public Object[] toArray() {
+            lock.lock();
+            try {
+                return Arrays.copyOf(heap, size, Object[].class);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isQueued(PrefetchingTask task) {
+            int index = task.heapIndex;
+            return index >= 0 && index < size && heap[index] == task;
+        }
+
+        private PrefetchingTask dequeue() {
+            if (size == 0) {
+                return null;
+            }
+            PrefetchingTask result = heap[0];
+            removeAt(0);
+            return result;
+        }
+
+        private void removeAt(int index) {
+            PrefetchingTask removed = heap[index];
+            PrefetchingTask last = heap[--size];
+            heap[size] = null;
+            removed.heapIndex = -1;
+
+            if (index != size) {
+                heap[index] = last;
+                last.heapIndex = index;
+                siftDown(index);
+                if (heap[index] == last) {
+                    siftUp(index);
+                }
+            }
+        }
+
+        private void siftUp(int index) {
+            PrefetchingTask task = heap[index];
+            while (index > 0) {
+                int parentIndex = (index - 1) >>> 1;
+                PrefetchingTask parent = heap[parentIndex];
+                if (task.compareTo(parent) >= 0) {
+                    break;
+                }
+                heap[index] = parent;
+                parent.heapIndex = index;
+                index = parentIndex;
+            }
+            heap[index] = task;
+            task.heapIndex = index;
+        }
+
+        private void siftDown(int index) {
+            PrefetchingTask task = heap[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int childIndex = (index << 1) + 1;
+                PrefetchingTask child = heap[childIndex];
+                int rightIndex = childIndex + 1;
+                if (rightIndex < size && heap[rightIndex].compareTo(child) < 0) {
+                    childIndex = rightIndex;
+                    child = heap[childIndex];
+                }
+                if (task.compareTo(child) <= 0) {
+                    break;
+                }
+                heap[index] = child;
+                child.heapIndex = index;
+                index = childIndex;
+            }
+            heap[index] = task;
+            task.heapIndex = index;
         }
     }
 
     protected static class PrefetchingTask extends FutureTask<EmbeddedDatabase> implements Comparable<PrefetchingTask> {
 
         private final AtomicBoolean executed = new AtomicBoolean(false);
+        private volatile long startTime;
 
         public final PipelineKey key;
         public final Callable<EmbeddedDatabase> action;
         public final TaskType type;
-        public final int priority;
+        public volatile int priority;
+
+        // the following fields are guarded by the lock of the task queue
+        private int round = 0;
+        private long sequence = 0;
+        private int heapIndex = -1;
 
         public static PrefetchingTask forPreparer(PipelineKey key, DatabaseProvider provider, DatabasePreparer preparer, int priority) {
             return new PrefetchingTask(key, priority, NEW_DATABASE, () -> provider.createDatabase(preparer));
@@ -383,10 +1018,6 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
             return new PrefetchingTask(key, priority, EXISTING_DATABASE, () -> database);
         }
 
-        public static PrefetchingTask fromTask(PipelineKey key, PrefetchingTask task, int priority) {
-            return new PrefetchingTask(key, priority, task.type, task.action);
-        }
-
         private PrefetchingTask(PipelineKey key, int priority, TaskType type, Callable<EmbeddedDatabase> action) {
             super(action);
 
@@ -399,6 +1030,7 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         @Override
         public void run() {
             if (executed.compareAndSet(false, true)) {
+                startTime = System.nanoTime();
                 super.run();
             }
         }
@@ -413,9 +1045,10 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
 
                 if (type == NEW_DATABASE) {
                     pipeline.state.set(INITIALIZED);
+                    pipeline.stats.onPrepared(System.nanoTime() - startTime);
                 }
                 pipeline.tasks.remove(this);
-                pipeline.results.offer(PreparedResult.success(result));
+                pipeline.offerResult(key, PreparedResult.success(result));
                 return;
             }
             catch (ExecutionException ex) {
@@ -430,7 +1063,7 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
 
             pipeline.tasks.remove(this);
             if (!(cause instanceof CancellationException)) {
-                pipeline.results.offer(PreparedResult.failure(cause));
+                pipeline.offerResult(key, PreparedResult.failure(cause));
             }
         }
 
@@ -445,7 +1078,14 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
 
         @Override
         public int compareTo(PrefetchingTask task) {
-            return Integer.compare(priority, task.priority);
+            int result = Integer.compare(priority, task.priority);
+            if (result == 0) {
+                result = Integer.compare(round, task.round);
+            }
+            if (result == 0) {
+                result = Long.compare(sequence, task.sequence);
+            }
+            return result;
         }
 
         protected enum TaskType {
@@ -455,18 +1095,39 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
         }
     }
 
+    public enum ExecutorMode {
+
+        /**
+         * All prefetching providers share a single thread pool.
+         */
+        SHARED,
+
+        /**
+         * Each underlying database provider has its own thread pool,
+         * so a slow database engine does not block the preparation of databases of other engines.
+         */
+        ISOLATED
+
+    }
+
     public static class Config {
 
         private final String threadNamePrefix;
         private final int concurrency;
         private final int pipelineMaxCacheSize;
         private final int maxPreparedDatabases;
+        private final ExecutorMode executorMode;
+        private final boolean virtualThreads;
+        private final String profileFile;
 
         private Config(Config.Builder builder) {
             this.threadNamePrefix = builder.threadNamePrefix;
             this.concurrency = builder.concurrency;
             this.pipelineMaxCacheSize = builder.pipelineMaxCacheSize;
             this.maxPreparedDatabases = builder.maxPreparedDatabases;
+            this.executorMode = builder.executorMode;
+            this.virtualThreads = builder.virtualThreads;
+            this.profileFile = builder.profileFile;
         }
 
         public String getThreadNamePrefix() {
@@ -485,6 +1146,18 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
             return maxPreparedDatabases;
         }
 
+        public ExecutorMode getExecutorMode() {
+            return executorMode;
+        }
+
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        public String getProfileFile() {
+            return profileFile;
+        }
+
         public static Builder builder() {
             return new Builder();
         }
@@ -494,12 +1167,15 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             Config config = (Config) o;
-            return pipelineMaxCacheSize == config.pipelineMaxCacheSize;
+            return pipelineMaxCacheSize == config.pipelineMaxCacheSize &&
+                    virtualThreads == config.virtualThreads &&
+                    executorMode == config.executorMode &&
+                    Objects.equals(profileFile, config.profileFile);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(pipelineMaxCacheSize);
+            return Objects.hash(pipelineMaxCacheSize, executorMode, virtualThreads, profileFile);
         }
 
         public static class Builder {
@@ -508,6 +1184,9 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
             private int concurrency = 3;
             private int pipelineMaxCacheSize = 5;
             private int maxPreparedDatabases = 15;
+            private ExecutorMode executorMode = ExecutorMode.SHARED;
+            private boolean virtualThreads = false;
+            private String profileFile = null;
 
             private Builder() {}
 
@@ -531,6 +1210,21 @@ public class PrefetchingDatabaseProvider implements DatabaseProvider {
                 return this;
             }
 
+            public Builder withExecutorMode(ExecutorMode executorMode) {
+                this.executorMode = executorMode;
+                return this;
+            }
+
+            public Builder withVirtualThreads(boolean virtualThreads) {
+                this.virtualThreads = virtualThreads;
+                return this;
+            }
+
+            public Builder withProfileFile(String profileFile) {
+                this.profileFile = profileFile;
+                return this;
+            }
+
             public Config build() {
                 return new Config(this);
             }
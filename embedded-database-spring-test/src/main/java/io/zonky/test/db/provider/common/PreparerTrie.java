@@ -0,0 +1,247 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import com.google.common.base.MoreObjects;
+import io.zonky.test.db.preparer.DatabasePreparer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Concurrent prefix tree that maps chains of database preparers to values.
+ * <p>
+ * The first level of the tree is keyed by an owner (typically a database provider),
+ * the following levels are keyed by individual preparers of the chain.
+ * Thanks to that, all prefixes of a chain can be resolved by a single walk through the tree,
+ * and each preparer is hashed only once per lookup.
+ * <p>
+ * Lookups are lock-free. Nodes that are left without a value and without children after a removal are pruned,
+ * the pruning is done under a write lock so that it cannot detach a node that is just being populated.
+ *
+ * @param <V> the type of mapped values
+ */
+public class PreparerTrie<V> {
+
+    private final Node<V> root = new Node<>();
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    public V get(Object owner, List<DatabasePreparer> preparers) {
+        Node<V> node = findNode(owner, preparers);
+        return node != null ? node.value.get() : null;
+    }
+
+    public V computeIfAbsent(Object owner, List<DatabasePreparer> preparers, Supplier<V> supplier) {
+        Lock lock = structureLock.readLock();
+        lock.lock();
+        try {
+            return createNode(owner, preparers).computeIfAbsent(supplier);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public V put(Object owner, List<DatabasePreparer> preparers, V value) {
+        Lock lock = structureLock.readLock();
+        lock.lock();
+        try {
+            return createNode(owner, preparers).value.getAndSet(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean remove(Object owner, List<DatabasePreparer> preparers, V value) {
+        Lock lock = structureLock.writeLock();
+        lock.lock();
+        try {
+            List<Node<V>> path = new ArrayList<>(preparers.size() + 2);
+            path.add(root);
+
+            Node<V> node = root.children.get(owner);
+            for (int i = 0; node != null && i < preparers.size(); i++) {
+                path.add(node);
+                node = node.children.get(preparers.get(i));
+            }
+
+            if (node == null || !node.value.compareAndSet(value, null)) {
+                return false;
+            }
+
+            for (int i = path.size() - 1; i >= 0 && node.isEmpty(); i--) {
+                path.get(i).children.remove(i > 0 ? preparers.get(i - 1) : owner, node);
+                node = path.get(i);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns {@code true} if no nodes are left in the trie.
+     */
+    public boolean isEmpty() {
+        return root.children.isEmpty();
+    }
+
+    /**
+     * Returns all non-empty prefixes of the chain of preparers (including the whole chain) that have a mapped value,
+     * the prefixes are ordered from the shortest to the longest one.
+     */
+    public List<Match<V>> findPrefixes(Object owner, List<DatabasePreparer> preparers) {
+        List<Match<V>> matches = new ArrayList<>();
+
+        Node<V> node = root.children.get(owner);
+        for (int i = 0; node != null && i < preparers.size(); i++) {
+            node = node.children.get(preparers.get(i));
+
+            if (node != null) {
+                V value = node.value.get();
+                if (value != null) {
+                    matches.add(new Match<>(i + 1, value));
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns the longest non-empty prefix of the chain of preparers (including the whole chain) that has a mapped value,
+     * or {@code null} if there is no such prefix.
+     */
+    public Match<V> findLongestPrefix(Object owner, List<DatabasePreparer> preparers) {
+        Match<V> match = null;
+
+        Node<V> node = root.children.get(owner);
+        for (int i = 0; node != null && i < preparers.size(); i++) {
+            node = node.children.get(preparers.get(i));
+
+            if (node != null) {
+                V value = node.value.get();
+                if (value != null) {
+                    match = new Match<>(i + 1, value);
+                }
+            }
+        }
+
+        return match;
+    }
+
+    /**
+     * Returns values mapped to all non-empty prefixes of the chain of preparers,
+     * missing values are created by the given supplier.
+     * The value at index {@code i} belongs to the prefix of length {@code i + 1}.
+     */
+    public List<V> computePrefixes(Object owner, List<DatabasePreparer> preparers, Supplier<V> supplier) {
+        List<V> values = new ArrayList<>(preparers.size());
+
+        Lock lock = structureLock.readLock();
+        lock.lock();
+        try {
+            Node<V> node = root.child(owner);
+            for (DatabasePreparer preparer : preparers) {
+                node = node.child(preparer);
+                values.add(node.computeIfAbsent(supplier));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return values;
+    }
+
+    private Node<V> findNode(Object owner, List<DatabasePreparer> preparers) {
+        Node<V> node = root.children.get(owner);
+        for (int i = 0; node != null && i < preparers.size(); i++) {
+            node = node.children.get(preparers.get(i));
+        }
+        return node;
+    }
+
+    private Node<V> createNode(Object owner, List<DatabasePreparer> preparers) {
+        Node<V> node = root.child(owner);
+        for (DatabasePreparer preparer : preparers) {
+            node = node.child(preparer);
+        }
+        return node;
+    }
+
+    public static class Match<V> {
+
+        private final int length;
+        private final V value;
+
+        private Match(int length, V value) {
+            this.length = length;
+            this.value = value;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("length", length)
+                    .add("value", value)
+                    .toString();
+        }
+    }
+
+    private static class Node<V> {
+
+        private final ConcurrentMap<Object, Node<V>> children = new ConcurrentHashMap<>();
+        private final AtomicReference<V> value = new AtomicReference<>();
+
+        private Node<V> child(Object key) {
+            return children.computeIfAbsent(key, k -> new Node<>());
+        }
+
+        private boolean isEmpty() {
+            return value.get() == null && children.isEmpty();
+        }
+
+        private V computeIfAbsent(Supplier<V> supplier) {
+            V current = value.get();
+            if (current != null) {
+                return current;
+            }
+            synchronized (this) {
+                current = value.get();
+                if (current == null) {
+                    current = supplier.get();
+                    value.set(current);
+                }
+                return current;
+            }
+        }
+    }
+}
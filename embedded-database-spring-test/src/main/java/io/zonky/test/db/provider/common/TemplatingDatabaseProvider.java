@@ -28,12 +28,17 @@ import io.zonky.test.db.provider.DatabaseTemplate;
 import io.zonky.test.db.provider.EmbeddedDatabase;
 import io.zonky.test.db.provider.ProviderException;
 import io.zonky.test.db.provider.TemplatableDatabaseProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -46,10 +51,26 @@ import java.util.function.Supplier;
 
 public class TemplatingDatabaseProvider implements DatabaseProvider {
 
+    private static final Logger logger = LoggerFactory.getLogger(TemplatingDatabaseProvider.class);
+
     public static final CompositeDatabasePreparer EMPTY_PREPARER = new CompositeDatabasePreparer(Collections.emptyList());
 
     private static final ConcurrentMap<TemplateKey, TemplateWrapper> templates = new ConcurrentHashMap<>();
+    private static final PreparerTrie<TemplateWrapper> templateIndex = new PreparerTrie<>();
     private static final ConcurrentMap<TemplateKey, PreparerStats> stats = new ConcurrentHashMap<>();
+    private static final PreparerTrie<PrefixStats> prefixStats = new PreparerTrie<>();
+    private static final TemplateMetrics metrics = new TemplateMetrics();
+
+    private static final ThreadPoolTaskExecutor templateExecutor = new ThreadPoolTaskExecutor();
+
+    static {
+        templateExecutor.setThreadNamePrefix("templating-");
+        templateExecutor.setAllowCoreThreadTimeOut(true);
+        templateExecutor.setKeepAliveSeconds(60);
+        templateExecutor.setCorePoolSize(2);
+        templateExecutor.setDaemon(true);
+        templateExecutor.initialize();
+    }
 
     private final TemplatableDatabaseProvider provider;
     private final Config config;
@@ -77,34 +98,81 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         return Objects.hash(provider, config);
     }
 
+    /**
+     * Returns the metrics of database templates created by all templating providers.
+     */
+    public static TemplateMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public EmbeddedDatabase createDatabase(DatabasePreparer preparer) throws ProviderException {
         CompositeDatabasePreparer compositePreparer = preparer instanceof CompositeDatabasePreparer ?
                 (CompositeDatabasePreparer) preparer : new CompositeDatabasePreparer(ImmutableList.of(preparer));
         List<DatabasePreparer> preparers = compositePreparer.getPreparers();
 
-        PreparerStats preparerStats = stats.computeIfAbsent(new TemplateKey(provider, compositePreparer), key -> new PreparerStats());
+        List<PrefixStats> chainStats = prefixStats.computePrefixes(provider, preparers, PrefixStats::new);
+        PreparerStats preparerStats = registerStats(new TemplateKey(provider, compositePreparer), chainStats);
         Stopwatch stopwatch = Stopwatch.createStarted();
 
         try {
-            for (int i = preparers.size(); i > 0; i--) {
-                CompositeDatabasePreparer templatePreparer = new CompositeDatabasePreparer(preparers.subList(0, i));
-                TemplateWrapper existingTemplate = templates.get(new TemplateKey(provider, templatePreparer));
-
-                if (existingTemplate != null) {
-                    CompositeDatabasePreparer complementaryPreparer = new CompositeDatabasePreparer(preparers.subList(i, preparers.size()));
-                    if (i == preparers.size()) {
-                        return createDatabase(complementaryPreparer, existingTemplate, false);
-                    } else {
-                        return createDatabase(complementaryPreparer, existingTemplate, true);
+            PreparerTrie.Match<TemplateWrapper> existingTemplate = templateIndex.findLongestPrefix(provider, preparers);
+            int i = existingTemplate != null ? existingTemplate.getLength() : 0;
+            TemplateWrapper template = existingTemplate != null ? existingTemplate.getValue() : null;
+
+            if (i < preparers.size() && config.isCheckpoints()) {
+                int checkpointLength = findCheckpoint(preparers, chainStats, i);
+                if (checkpointLength > i) {
+                    CompositeDatabasePreparer checkpointPreparer = new CompositeDatabasePreparer(preparers.subList(i, checkpointLength));
+                    TemplateWrapper checkpoint = createTemplateIfPossible(checkpointPreparer, template);
+                    if (checkpoint != null) {
+                        i = checkpointLength;
+                        template = checkpoint;
                     }
                 }
             }
 
-            return createDatabase(compositePreparer, null, true);
+            CompositeDatabasePreparer complementaryPreparer = new CompositeDatabasePreparer(preparers.subList(i, preparers.size()));
+            return createDatabase(complementaryPreparer, template, template == null || i < preparers.size());
         } finally {
-            preparerStats.onLoad(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            long loadTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            preparerStats.onLoad(loadTime);
+            chainStats.forEach(prefix -> prefix.onLoad(loadTime));
+        }
+    }
+
+    private static PreparerStats registerStats(TemplateKey key, List<PrefixStats> chainStats) {
+        PreparerStats preparerStats = stats.get(key);
+        if (preparerStats == null) {
+            PreparerStats newStats = new PreparerStats();
+            preparerStats = stats.putIfAbsent(key, newStats);
+            if (preparerStats == null) {
+                chainStats.forEach(PrefixStats::onChain);
+                preparerStats = newStats;
+            }
+        }
+        return preparerStats;
+    }
+
+    /**
+     * Returns the length of the longest proper prefix of the chain, longer than the given length,
+     * that is shared with other chains and whose estimated duration exceeds the duration threshold,
+     * or {@code 0} if there is no such prefix.
+     * Such a prefix is worth an intermediate template (a checkpoint) from which all the chains can be derived.
+     */
+    private int findCheckpoint(List<DatabasePreparer> preparers, List<PrefixStats> chainStats, int templateLength) {
+        long estimatedDuration = 0;
+        int checkpointLength = 0;
+
+        for (int i = 0; i < preparers.size() - 1; i++) {
+            estimatedDuration += preparers.get(i).estimatedDuration();
+            if (i + 1 > templateLength && chainStats.get(i).getChainCount() > 1
+                    && estimatedDuration > 0 && estimatedDuration >= config.getDurationThreshold()) {
+                checkpointLength = i + 1;
+            }
         }
+
+        return checkpointLength;
     }
 
     private EmbeddedDatabase createDatabase(CompositeDatabasePreparer preparer, TemplateWrapper template, boolean createNewTemplate) {
@@ -134,8 +202,8 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         CompositeDatabasePreparer templatePreparer = mergedPreparer(preparer, template);
         TemplateKey templateKey = new TemplateKey(provider, templatePreparer);
 
-        PreparerStats preparerStats = stats.get(templateKey);
-        if (preparerStats.getTotalLoadTime() < config.getDurationThreshold()) {
+        long loadTime = totalLoadTime(templateKey);
+        if (loadTime < config.getDurationThreshold()) {
             return null;
         }
 
@@ -145,7 +213,7 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         synchronized (templates) {
             TemplateWrapper existingTemplate = templates.get(templateKey);
             if (existingTemplate != null) {
-                return existingTemplate;
+                return config.isBackgroundTemplates() && !existingTemplate.isLoaded() ? null : existingTemplate;
             }
 
             if (templateCount() >= config.getMaxTemplateCount()) {
@@ -153,23 +221,85 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
                 if (templateToRemove == null) {
                     return null;
                 }
-                PreparerStats templateToRemoveStats = stats.get(templateToRemove);
-                if (preparerStats.getTotalLoadTime() < templateToRemoveStats.getTotalLoadTime() + config.getDurationThreshold()) {
+                if (loadTime < templates.get(templateToRemove).getBenefit() + config.getDurationThreshold()) {
                     return null;
                 }
                 oldTemplate = templates.remove(templateToRemove);
+                templateIndex.remove(provider, templateToRemove.preparer.getPreparers(), oldTemplate);
             }
 
-            newTemplate = new TemplateWrapper(provider, templatePreparer);
+            newTemplate = new TemplateWrapper(provider, templatePreparer, template);
             templates.put(templateKey, newTemplate);
+            if (!config.isBackgroundTemplates()) {
+                templateIndex.put(provider, templatePreparer.getPreparers(), newTemplate);
+            }
         }
 
         if (oldTemplate != null) {
             oldTemplate.close();
         }
 
-        newTemplate.loadTemplate(() -> createTemplate(preparer, template));
-        return newTemplate;
+        if (config.isBackgroundTemplates()) {
+            loadTemplateInBackground(templateKey, newTemplate, preparer, template);
+            return null;
+        }
+
+        try {
+            metrics.onScheduled();
+            loadTemplate(templateKey, newTemplate, preparer, template);
+            return newTemplate;
+        } finally {
+            metrics.onFinished();
+        }
+    }
+
+    /**
+     * Schedules the creation of the template on a background thread,
+     * the template is registered for lookups only after it has been successfully created.
+     * The current request is served without the template.
+     */
+    private void loadTemplateInBackground(TemplateKey templateKey, TemplateWrapper newTemplate, CompositeDatabasePreparer preparer, TemplateWrapper template) {
+        metrics.onScheduled();
+        try {
+            templateExecutor.execute(() -> {
+                try {
+                    loadTemplate(templateKey, newTemplate, preparer, template);
+
+                    synchronized (templates) {
+                        if (templates.get(templateKey) == newTemplate) {
+                            templateIndex.put(provider, newTemplate.getPreparer().getPreparers(), newTemplate);
+                            return;
+                        }
+                    }
+                    newTemplate.close();
+                } catch (Throwable e) {
+                    logger.warn("Unable to prepare a database template in the background, databases will be created without the template", e);
+                } finally {
+                    metrics.onFinished();
+                }
+            });
+        } catch (RuntimeException e) {
+            metrics.onFinished();
+            templates.remove(templateKey, newTemplate);
+            logger.warn("Unable to schedule a database template", e);
+        }
+    }
+
+    private void loadTemplate(TemplateKey templateKey, TemplateWrapper newTemplate, CompositeDatabasePreparer preparer, TemplateWrapper template) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            newTemplate.loadTemplate(() -> createTemplate(preparer, template));
+            metrics.onCompleted(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            logger.debug("Database template has been created in {}", stopwatch);
+        } catch (Throwable e) {
+            metrics.onFailed();
+            synchronized (templates) {
+                if (templates.remove(templateKey, newTemplate)) {
+                    templateIndex.remove(provider, newTemplate.getPreparer().getPreparers(), newTemplate);
+                }
+            }
+            throw e;
+        }
     }
 
     private long templateCount() {
@@ -178,15 +308,36 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
                 .count();
     }
 
+    /**
+     * Returns the loaded template with the lowest benefit that no other template has been derived from,
+     * so that shared checkpoints are evicted only after all templates depending on them.
+     */
     private TemplateKey findTemplateToRemove() {
+        Set<TemplateWrapper> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+        templates.values().forEach(template -> {
+            if (template.getParent() != null) {
+                parents.add(template.getParent());
+            }
+        });
+
         return templates.entrySet().stream()
                 .filter(entry -> entry.getValue().isLoaded())
+                .filter(entry -> !parents.contains(entry.getValue()))
+                .filter(entry -> entry.getKey().provider.equals(provider))
+                .min(Comparator.comparing(entry -> entry.getValue().getBenefit()))
                 .map(Map.Entry::getKey)
-                .filter(key -> key.provider.equals(provider))
-                .min(Comparator.comparing(key -> stats.get(key).getTotalLoadTime()))
                 .orElse(null);
     }
 
+    private static long totalLoadTime(TemplateKey key) {
+        PreparerStats preparerStats = stats.get(key);
+        if (preparerStats != null) {
+            return preparerStats.getTotalLoadTime();
+        }
+        PrefixStats templateStats = prefixStats.get(key.provider, key.preparer.getPreparers());
+        return templateStats != null ? templateStats.getTotalLoadTime() : 0;
+    }
+
     private static CompositeDatabasePreparer mergedPreparer(CompositeDatabasePreparer preparer, TemplateWrapper template) {
         if (template == null) {
             return preparer;
@@ -200,10 +351,12 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
 
         private final TemplatableDatabaseProvider provider;
         private final CompositeDatabasePreparer preparer;
+        private final int hashCode;
 
         private TemplateKey(TemplatableDatabaseProvider provider, CompositeDatabasePreparer preparer) {
             this.provider = provider;
             this.preparer = preparer;
+            this.hashCode = Objects.hash(provider, preparer);
         }
 
         @Override
@@ -211,13 +364,14 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             TemplateKey that = (TemplateKey) o;
-            return Objects.equals(provider, that.provider) &&
+            return hashCode == that.hashCode &&
+                    Objects.equals(provider, that.provider) &&
                     Objects.equals(preparer, that.preparer);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(provider, preparer);
+            return hashCode;
         }
     }
 
@@ -226,25 +380,43 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
         private final CompletableFuture<DatabaseTemplate> future = new CompletableFuture<>();
 
+        private final AtomicLong useCount = new AtomicLong();
+
         private final TemplatableDatabaseProvider provider;
         private final CompositeDatabasePreparer preparer;
+        private final TemplateWrapper parent;
 
+        private volatile long creationTime;
         private boolean closed = false;
 
-        private TemplateWrapper(TemplatableDatabaseProvider provider, CompositeDatabasePreparer preparer) {
+        private TemplateWrapper(TemplatableDatabaseProvider provider, CompositeDatabasePreparer preparer, TemplateWrapper parent) {
             this.provider = provider;
             this.preparer = preparer;
+            this.parent = parent;
         }
 
         public CompositeDatabasePreparer getPreparer() {
             return preparer;
         }
 
+        public TemplateWrapper getParent() {
+            return parent;
+        }
+
+        /**
+         * Returns an estimate of the time saved by the template so far,
+         * i.e. the time needed to create the template multiplied by the number of its uses.
+         */
+        public long getBenefit() {
+            return creationTime * (1 + useCount.get());
+        }
+
         public boolean isLoaded() {
             return future.isDone();
         }
 
         public EmbeddedDatabase createDatabase(CompositeDatabasePreparer preparer) {
+            useCount.incrementAndGet();
             lock.readLock().lock();
             try {
                 if (!closed) {
@@ -258,6 +430,7 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         }
 
         public DatabaseTemplate createTemplate(CompositeDatabasePreparer preparer) {
+            useCount.incrementAndGet();
             lock.readLock().lock();
             try {
                 if (!closed) {
@@ -273,6 +446,9 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         public void close() {
             lock.writeLock().lock();
             try {
+                if (closed || future.isCompletedExceptionally()) {
+                    return;
+                }
                 closed = true;
                 getTemplate().close();
             } finally {
@@ -290,8 +466,11 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         }
 
         private void loadTemplate(Supplier<DatabaseTemplate> templateProvider) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
             try {
-                future.complete(templateProvider.get());
+                DatabaseTemplate template = templateProvider.get();
+                creationTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+                future.complete(template);
             } catch (Throwable e) {
                 future.completeExceptionally(e);
                 throw e;
@@ -299,6 +478,104 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
         }
     }
 
+    /**
+     * Counters of database templates, shared by all templating providers.
+     */
+    public static class TemplateMetrics {
+
+        private final AtomicLong scheduledCount = new AtomicLong();
+        private final AtomicLong completedCount = new AtomicLong();
+        private final AtomicLong failedCount = new AtomicLong();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicLong totalCreationTime = new AtomicLong();
+
+        /**
+         * Returns the number of templates whose creation has been started.
+         */
+        public long getScheduledCount() {
+            return scheduledCount.get();
+        }
+
+        /**
+         * Returns the number of templates that have been successfully created.
+         */
+        public long getCompletedCount() {
+            return completedCount.get();
+        }
+
+        /**
+         * Returns the number of templates whose creation has failed.
+         */
+        public long getFailedCount() {
+            return failedCount.get();
+        }
+
+        /**
+         * Returns the number of templates that are being created right now.
+         */
+        public int getPendingCount() {
+            return pendingCount.get();
+        }
+
+        /**
+         * Returns the total time in milliseconds spent by creating the successfully created templates.
+         */
+        public long getTotalCreationTime() {
+            return totalCreationTime.get();
+        }
+
+        private void onScheduled() {
+            scheduledCount.incrementAndGet();
+            pendingCount.incrementAndGet();
+        }
+
+        private void onCompleted(long creationTime) {
+            completedCount.incrementAndGet();
+            totalCreationTime.addAndGet(creationTime);
+        }
+
+        private void onFailed() {
+            failedCount.incrementAndGet();
+        }
+
+        private void onFinished() {
+            pendingCount.decrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return "TemplateMetrics{" +
+                    "scheduled=" + getScheduledCount() +
+                    ", completed=" + getCompletedCount() +
+                    ", failed=" + getFailedCount() +
+                    ", pending=" + getPendingCount() +
+                    ", totalCreationTime=" + getTotalCreationTime() +
+                    '}';
+        }
+    }
+
+    private static class PrefixStats {
+
+        private final AtomicLong totalLoadTime = new AtomicLong(0);
+        private final AtomicInteger chainCount = new AtomicInteger(0);
+
+        public long getTotalLoadTime() {
+            return totalLoadTime.get();
+        }
+
+        public int getChainCount() {
+            return chainCount.get();
+        }
+
+        public void onLoad(long loadTime) {
+            totalLoadTime.addAndGet(loadTime);
+        }
+
+        public void onChain() {
+            chainCount.incrementAndGet();
+        }
+    }
+
     private static class PreparerStats {
 
         private final AtomicLong totalLoadTime = new AtomicLong(0);
@@ -326,10 +603,14 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
 
         private final long durationThreshold;
         private final int maxTemplateCount;
+        private final boolean backgroundTemplates;
+        private final boolean checkpoints;
 
         private Config(Config.Builder builder) {
             this.durationThreshold = builder.durationThreshold;
             this.maxTemplateCount = builder.maxTemplateCount;
+            this.backgroundTemplates = builder.backgroundTemplates;
+            this.checkpoints = builder.checkpoints;
         }
 
         public long getDurationThreshold() {
@@ -340,6 +621,14 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
             return maxTemplateCount;
         }
 
+        public boolean isBackgroundTemplates() {
+            return backgroundTemplates;
+        }
+
+        public boolean isCheckpoints() {
+            return checkpoints;
+        }
+
         public static Builder builder() {
             return new Builder();
         }
@@ -350,18 +639,22 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
             if (o == null || getClass() != o.getClass()) return false;
             Config config = (Config) o;
             return durationThreshold == config.durationThreshold &&
-                    maxTemplateCount == config.maxTemplateCount;
+                    maxTemplateCount == config.maxTemplateCount &&
+                    backgroundTemplates == config.backgroundTemplates &&
+                    checkpoints == config.checkpoints;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(durationThreshold, maxTemplateCount);
+            return Objects.hash(durationThreshold, maxTemplateCount, backgroundTemplates, checkpoints);
         }
 
         public static class Builder {
 
             private long durationThreshold = 0;
             private int maxTemplateCount = 10;
+            private boolean backgroundTemplates = false;
+            private boolean checkpoints = false;
 
             private Builder() {}
 
@@ -375,6 +668,23 @@ public class TemplatingDatabaseProvider implements DatabaseProvider {
                 return this;
             }
 
+            /**
+             * Whether to create new templates on a background thread.
+             * Requests are served without the template until the template is ready.
+             */
+            public Builder withBackgroundTemplates(boolean backgroundTemplates) {
+                this.backgroundTemplates = backgroundTemplates;
+                return this;
+            }
+
+            /**
+             * Whether to create intermediate templates (checkpoints) for expensive prefixes shared by multiple preparer chains.
+             */
+            public Builder withCheckpoints(boolean checkpoints) {
+                this.checkpoints = checkpoints;
+                return this;
+            }
+
             public Config build() {
                 return new Config(this);
             }
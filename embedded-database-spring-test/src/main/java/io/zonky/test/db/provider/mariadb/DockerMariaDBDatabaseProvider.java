@@ -22,14 +22,24 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.zonky.test.db.preparer.DatabasePreparer;
-import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.DatabaseRequest;
+import io.zonky.test.db.provider.DatabaseTemplate;
 import io.zonky.test.db.provider.EmbeddedDatabase;
 import io.zonky.test.db.provider.ProviderException;
+import io.zonky.test.db.provider.TemplatableDatabaseProvider;
+import io.zonky.test.db.provider.support.AsyncDatabaseCleaner;
 import io.zonky.test.db.provider.support.BlockingDatabaseWrapper;
+import io.zonky.test.db.provider.support.DatabaseInstancePool;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.InstanceMetrics;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.PlacementPolicy;
+import io.zonky.test.db.provider.support.MySQLSchemaCloner;
+import io.zonky.test.db.provider.support.SimpleDatabaseTemplate;
 import io.zonky.test.db.util.PropertyUtils;
+import io.zonky.test.db.util.RandomStringUtils;
 import org.mariadb.jdbc.MariaDbDataSource;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanWrapper;
@@ -37,7 +47,6 @@ import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.core.env.Environment;
 import org.springframework.util.ClassUtils;
-import org.testcontainers.containers.Container.ExecResult;
 import org.testcontainers.containers.MariaDBContainer;
 import org.testcontainers.containers.output.Slf4jLogConsumer;
 import org.testcontainers.utility.DockerImageName;
@@ -47,30 +56,39 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
 
 import static java.util.Collections.emptyList;
 
-public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
+public class DockerMariaDBDatabaseProvider implements TemplatableDatabaseProvider {
 
     private static final String DEFAULT_MARIADB_USERNAME = "test";
     private static final String DEFAULT_MARIADB_PASSWORD = "docker";
     private static final Integer MARIADB_PORT = 3306;
 
-    private static final LoadingCache<DatabaseConfig, DatabasePool> databasesPools = CacheBuilder.newBuilder()
-            .build(new CacheLoader<DatabaseConfig, DatabasePool>() {
-                public DatabasePool load(DatabaseConfig config) {
-                    return new DatabasePool(config);
+    private static final LoadingCache<DatabaseConfig, DatabaseInstance> databases = CacheBuilder.newBuilder()
+            .build(new CacheLoader<DatabaseConfig, DatabaseInstance>() {
+                public DatabaseInstance load(DatabaseConfig config) throws SQLException {
+                    return new DatabaseInstance(config);
                 }
             });
 
+    private static final LoadingCache<DatabaseConfig, DatabaseInstancePool<DatabaseInstance>> databasePools = CacheBuilder.newBuilder()
+            .build(new CacheLoader<DatabaseConfig, DatabaseInstancePool<DatabaseInstance>>() {
+                public DatabaseInstancePool<DatabaseInstance> load(DatabaseConfig config) {
+                    return DatabaseInstancePool.eager("docker-mariadb", config.containers, PlacementPolicy.LEAST_LOADED, () -> new DatabaseInstance(config));
+                }
+            });
+
+    private static final List<AsyncDatabaseCleaner> cleaners = new CopyOnWriteArrayList<>();
+
     private final DatabaseConfig databaseConfig;
     private final ClientConfig clientConfig;
 
@@ -78,20 +96,40 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
         String dockerImage = environment.getProperty("zonky.test.database.mariadb.docker.image", "mariadb:10.4");
         String tmpfsOptions = environment.getProperty("zonky.test.database.mariadb.docker.tmpfs.options", "rw,noexec,nosuid");
         boolean tmpfsEnabled = environment.getProperty("zonky.test.database.mariadb.docker.tmpfs.enabled", boolean.class, false);
+        int containers = environment.getProperty("zonky.test.database.mariadb.docker.containers", int.class, 1);
 
         Map<String, String> connectProperties = PropertyUtils.extractAll(environment, "zonky.test.database.mariadb.client.properties");
 
         List<MariaDBContainerCustomizer> customizers = Optional.ofNullable(containerCustomizers.getIfAvailable()).orElse(emptyList());
 
-        this.databaseConfig = new DatabaseConfig(dockerImage, tmpfsOptions, tmpfsEnabled, customizers);
+        this.databaseConfig = new DatabaseConfig(dockerImage, tmpfsOptions, tmpfsEnabled, customizers, containers);
         this.clientConfig = new ClientConfig(connectProperties);
     }
 
     @Override
-    public EmbeddedDatabase createDatabase(DatabasePreparer preparer) throws ProviderException {
+    public DatabaseTemplate createTemplate(DatabaseRequest request) throws ProviderException {
+        try {
+            if (databaseConfig.containers > 1) {
+                return databasePools.get(databaseConfig).createTemplate(request, (instance, r) -> instance.createTemplate(clientConfig, r));
+            }
+            DatabaseInstance instance = databases.get(databaseConfig);
+            return instance.createTemplate(clientConfig, request);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), ProviderException.class);
+            throw new ProviderException("Unexpected error when preparing a database cluster", e.getCause());
+        } catch (SQLException e) {
+            throw new ProviderException("Unexpected error when creating a database template", e);
+        }
+    }
+
+    @Override
+    public EmbeddedDatabase createDatabase(DatabaseRequest request) throws ProviderException {
         try {
-            DatabasePool pool = databasesPools.get(databaseConfig);
-            return pool.createDatabase(clientConfig, preparer);
+            if (databaseConfig.containers > 1) {
+                return databasePools.get(databaseConfig).createDatabase(request, (instance, r) -> instance.createDatabase(clientConfig, r));
+            }
+            DatabaseInstance instance = databases.get(databaseConfig);
+            return instance.createDatabase(clientConfig, request);
         } catch (ExecutionException | UncheckedExecutionException e) {
             Throwables.throwIfInstanceOf(e.getCause(), ProviderException.class);
             throw new ProviderException("Unexpected error when preparing a database cluster", e.getCause());
@@ -114,36 +152,31 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
         return Objects.hash(databaseConfig, clientConfig);
     }
 
-    protected static class DatabasePool {
-
-        private final BlockingQueue<DatabaseInstance> databaseInstances = new LinkedBlockingQueue<>();
-        private final DatabaseConfig databaseConfig;
-
-        private DatabasePool(DatabaseConfig config) {
-            this.databaseConfig = config;
-        }
-
-        public EmbeddedDatabase createDatabase(ClientConfig config, DatabasePreparer preparer) throws SQLException {
-            DatabaseInstance instance = databaseInstances.poll();
-            if (instance == null) {
-                instance = new DatabaseInstance(databaseConfig, this);
-            }
-            return instance.createDatabase(config, preparer);
-        }
+    /**
+     * Returns the metrics of the database instances started by all the instance pools of this provider.
+     */
+    public static List<InstanceMetrics> getPoolMetrics() {
+        return databasePools.asMap().values().stream()
+                .flatMap(pool -> pool.getMetrics().stream())
+                .collect(ImmutableList.toImmutableList());
+    }
 
-        private void recycle(DatabaseInstance instance) {
-            databaseInstances.offer(instance);
-        }
+    /**
+     * Returns the cleaners of all the database instances started by this provider,
+     * including the numbers of pending, completed and failed database cleanups.
+     */
+    public static List<AsyncDatabaseCleaner> getDatabaseCleaners() {
+        return ImmutableList.copyOf(cleaners);
     }
 
     protected static class DatabaseInstance {
 
-        private final DatabasePool databasePool;
         private final MariaDBContainer container;
         private final Semaphore semaphore;
+        private final AsyncDatabaseCleaner cleaner;
+        private final MySQLSchemaCloner cloner;
 
-        private DatabaseInstance(DatabaseConfig config, DatabasePool pool) {
-            databasePool = pool;
+        private DatabaseInstance(DatabaseConfig config) throws SQLException {
             container = createContainer(config.dockerImage);
 
             if (config.tmpfsEnabled) {
@@ -161,6 +194,12 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
             container.followOutput(new Slf4jLogConsumer(LoggerFactory.getLogger(DockerMariaDBDatabaseProvider.class)));
 
             semaphore = new Semaphore(150);
+
+            // the system database must never be dropped, so closing the administrative database does nothing
+            EmbeddedDatabase adminDatabase = getDatabase(new ClientConfig(ImmutableMap.of()), "mysql", () -> {});
+            cleaner = new AsyncDatabaseCleaner("docker-mariadb", adminDatabase);
+            cloner = new MySQLSchemaCloner("docker-mariadb", adminDatabase);
+            cleaners.add(cleaner);
         }
 
         private MariaDBContainer createContainer(String dockerImage) {
@@ -171,39 +210,37 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
             }
         }
 
-        public EmbeddedDatabase createDatabase(ClientConfig config, DatabasePreparer preparer) throws SQLException {
-            String databaseName = container.getDatabaseName();
-            executeStatement(config, String.format("CREATE DATABASE IF NOT EXISTS %s", databaseName));
+        public DatabaseTemplate createTemplate(ClientConfig config, DatabaseRequest request) throws SQLException {
+            EmbeddedDatabase result = createDatabase(config, request);
+            String templateName = result.unwrap(MariaDBEmbeddedDatabase.class).getDatabaseName();
+            return new SimpleDatabaseTemplate(templateName, result::close);
+        }
+
+        public EmbeddedDatabase createDatabase(ClientConfig config, DatabaseRequest request) throws SQLException {
+            DatabaseTemplate template = request.getTemplate();
+            DatabasePreparer preparer = request.getPreparer();
+
+            String databaseName = RandomStringUtils.randomAlphabetic(12).toLowerCase(Locale.ENGLISH);
+
+            executeStatement(config, String.format("CREATE DATABASE %s", databaseName));
+            executeStatement(config, String.format("GRANT ALL PRIVILEGES ON %s.* TO '%s'@'%%'", databaseName, container.getUsername()));
+
             try {
+                if (template != null) {
+                    cloner.cloneSchema(template.getTemplateName(), databaseName);
+                }
+
                 EmbeddedDatabase database = getDatabase(config, databaseName);
                 if (preparer != null) {
                     preparer.prepare(database);
                 }
                 return database;
             } catch (Exception e) {
-                try {
-                    cleanDatabase(config, databaseName);
-                } catch (Exception ce) {
-                    e.addSuppressed(ce);
-                }
+                cleaner.dropDatabase(databaseName);
                 throw e;
             }
         }
 
-        protected void cleanDatabase(ClientConfig config, String dbName) {
-            try {
-                String dropCommand = "mysql -uroot -pdocker -N -e \"show databases\" | grep -v -E \"^(information_schema|performance_schema|mysql|sys)$\" | awk '{print \"drop database \" $1 \"\"}' | mysql -uroot -pdocker";
-                ExecResult dropResult = container.execInContainer("sh", "-c", dropCommand);
-                if (dropResult.getExitCode() != 0) {
-                    throw new ProviderException("Unexpected error when cleaning up the database");
-                }
-                databasePool.recycle(this);
-            } catch (Exception e) {
-                Throwables.throwIfInstanceOf(e.getCause(), ProviderException.class);
-                throw new ProviderException("Unexpected error when cleaning up the database", e.getCause());
-            }
-        }
-
         private void executeStatement(ClientConfig config, String ddlStatement) throws SQLException {
             DataSource dataSource = getDatabase(config, "mysql");
             try (Connection connection = dataSource.getConnection(); PreparedStatement stmt = connection.prepareStatement(ddlStatement)) {
@@ -212,6 +249,10 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
         }
 
         private EmbeddedDatabase getDatabase(ClientConfig config, String dbName) throws SQLException {
+            return getDatabase(config, dbName, () -> cleaner.dropDatabase(dbName));
+        }
+
+        private EmbeddedDatabase getDatabase(ClientConfig config, String dbName, Runnable closeCallback) throws SQLException {
             MariaDbDataSource dataSource = new MariaDbDataSource();
 
             dataSource.setUrl(String.format("jdbc:mariadb://%s:%s/%s",
@@ -229,7 +270,7 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
                 dataSourceWrapper.setPropertyValue(entry.getKey(), entry.getValue());
             }
 
-            return new BlockingDatabaseWrapper(new MariaDBEmbeddedDatabase(dataSource, () -> cleanDatabase(config, dbName)), semaphore);
+            return new BlockingDatabaseWrapper(new MariaDBEmbeddedDatabase(dataSource, closeCallback), semaphore);
         }
     }
 
@@ -239,12 +280,14 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
         private final String tmpfsOptions;
         private final boolean tmpfsEnabled;
         private final List<MariaDBContainerCustomizer> customizers;
+        private final int containers;
 
-        private DatabaseConfig(String dockerImage, String tmpfsOptions, boolean tmpfsEnabled, List<MariaDBContainerCustomizer> customizers) {
+        private DatabaseConfig(String dockerImage, String tmpfsOptions, boolean tmpfsEnabled, List<MariaDBContainerCustomizer> customizers, int containers) {
             this.dockerImage = dockerImage;
             this.tmpfsOptions = tmpfsOptions;
             this.tmpfsEnabled = tmpfsEnabled;
             this.customizers = customizers;
+            this.containers = containers;
         }
 
         @Override
@@ -253,6 +296,7 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
             if (o == null || getClass() != o.getClass()) return false;
             DatabaseConfig that = (DatabaseConfig) o;
             return tmpfsEnabled == that.tmpfsEnabled &&
+                    containers == that.containers &&
                     Objects.equals(dockerImage, that.dockerImage) &&
                     Objects.equals(tmpfsOptions, that.tmpfsOptions) &&
                     DeepEquals.deepEquals(customizers, that.customizers);
@@ -260,7 +304,7 @@ public class DockerMariaDBDatabaseProvider implements DatabaseProvider {
 
         @Override
         public int hashCode() {
-            int result = Objects.hash(dockerImage, tmpfsOptions, tmpfsEnabled);
+            int result = Objects.hash(dockerImage, tmpfsOptions, tmpfsEnabled, containers);
             result = 31 * result + DeepEquals.deepHashCode(customizers);
             return result;
         }
@@ -18,11 +18,15 @@ package io.zonky.test.db.provider.postgres;
 
 import com.cedarsoftware.util.DeepEquals;
 import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.model.Bind;
+import com.github.dockerjava.api.model.Volume;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.zonky.test.db.preparer.DatabasePreparer;
 import io.zonky.test.db.provider.DatabaseRequest;
@@ -31,6 +35,9 @@ import io.zonky.test.db.provider.EmbeddedDatabase;
 import io.zonky.test.db.provider.ProviderException;
 import io.zonky.test.db.provider.TemplatableDatabaseProvider;
 import io.zonky.test.db.provider.support.BlockingDatabaseWrapper;
+import io.zonky.test.db.provider.support.DatabaseInstancePool;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.InstanceMetrics;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.PlacementPolicy;
 import io.zonky.test.db.provider.support.SimpleDatabaseTemplate;
 import io.zonky.test.db.util.PropertyUtils;
 import io.zonky.test.db.util.RandomStringUtils;
@@ -46,6 +53,8 @@ import org.testcontainers.containers.output.Slf4jLogConsumer;
 import org.testcontainers.utility.DockerImageName;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -73,11 +82,18 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
 
     private static final LoadingCache<DatabaseConfig, DatabaseInstance> databases = CacheBuilder.newBuilder()
             .build(new CacheLoader<DatabaseConfig, DatabaseInstance>() {
-                public DatabaseInstance load(DatabaseConfig config) {
+                public DatabaseInstance load(DatabaseConfig config) throws IOException, SQLException {
                     return new DatabaseInstance(config);
                 }
             });
 
+    private static final LoadingCache<DatabaseConfig, DatabaseInstancePool<DatabaseInstance>> databasePools = CacheBuilder.newBuilder()
+            .build(new CacheLoader<DatabaseConfig, DatabaseInstancePool<DatabaseInstance>>() {
+                public DatabaseInstancePool<DatabaseInstance> load(DatabaseConfig config) {
+                    return DatabaseInstancePool.eager("docker-postgres", config.containers, config.placementPolicy, () -> new DatabaseInstance(config));
+                }
+            });
+
     private final DatabaseConfig databaseConfig;
     private final ClientConfig clientConfig;
 
@@ -86,22 +102,39 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
         String tmpfsOptions = environment.getProperty("zonky.test.database.postgres.docker.tmpfs.options", "rw,noexec,nosuid");
         boolean tmpfsEnabled = environment.getProperty("zonky.test.database.postgres.docker.tmpfs.enabled", boolean.class, false);
 
+        int containers = environment.getProperty("zonky.test.database.postgres.docker.containers", int.class, 1);
+        PlacementPolicy placementPolicy = PropertyUtils.getEnumProperty(environment, "zonky.test.database.postgres.docker.placement-policy", PlacementPolicy.class, PlacementPolicy.LEAST_LOADED);
+
+        boolean templateCacheEnabled = environment.getProperty("zonky.test.database.postgres.template-cache.enabled", boolean.class, false);
+        String templateCacheDirectory = environment.getProperty("zonky.test.database.postgres.template-cache.directory",
+                Paths.get(System.getProperty("java.io.tmpdir"), "embedded-database-templates").toString());
+
         Map<String, String> initdbProperties = PropertyUtils.extractAll(environment, "zonky.test.database.postgres.initdb.properties");
         Map<String, String> configProperties = PropertyUtils.extractAll(environment, "zonky.test.database.postgres.server.properties");
         Map<String, String> connectProperties = PropertyUtils.extractAll(environment, "zonky.test.database.postgres.client.properties");
 
         List<PostgreSQLContainerCustomizer> customizers = Optional.ofNullable(containerCustomizers.getIfAvailable()).orElse(emptyList());
 
-        this.databaseConfig = new DatabaseConfig(dockerImage, tmpfsOptions, tmpfsEnabled, initdbProperties, configProperties, customizers);
+        if (templateCacheEnabled && tmpfsEnabled) {
+            logger.warn("Template cache can not be used together with tmpfs, the template cache is disabled");
+            templateCacheEnabled = false;
+        }
+
+        this.databaseConfig = new DatabaseConfig(dockerImage, tmpfsOptions, tmpfsEnabled, initdbProperties, configProperties, customizers, templateCacheEnabled ? templateCacheDirectory : null, containers, placementPolicy);
         this.clientConfig = new ClientConfig(connectProperties);
     }
 
     @Override
     public DatabaseTemplate createTemplate(DatabaseRequest request) throws ProviderException {
         try {
-            EmbeddedDatabase result = createDatabase(request);
-            BaseDataSource dataSource = result.unwrap(BaseDataSource.class);
-            return new SimpleDatabaseTemplate(dataSource.getDatabaseName(), result::close);
+            if (databaseConfig.containers > 1) {
+                return databasePools.get(databaseConfig).createTemplate(request, (instance, r) -> instance.createTemplate(clientConfig, r));
+            }
+            DatabaseInstance instance = databases.get(databaseConfig);
+            return instance.createTemplate(clientConfig, request);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), ProviderException.class);
+            throw new ProviderException("Unexpected error when preparing a database cluster", e.getCause());
         } catch (SQLException e) {
             throw new ProviderException("Unexpected error when creating a database template", e);
         }
@@ -110,6 +143,9 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
     @Override
     public EmbeddedDatabase createDatabase(DatabaseRequest request) throws ProviderException {
         try {
+            if (databaseConfig.containers > 1) {
+                return databasePools.get(databaseConfig).createDatabase(request, (instance, r) -> instance.createDatabase(clientConfig, r));
+            }
             DatabaseInstance instance = databases.get(databaseConfig);
             return instance.createDatabase(clientConfig, request);
         } catch (ExecutionException | UncheckedExecutionException e) {
@@ -134,12 +170,22 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
         return Objects.hash(databaseConfig, clientConfig);
     }
 
+    /**
+     * Returns the metrics of the database instances started by all the instance pools of this provider.
+     */
+    public static List<InstanceMetrics> getPoolMetrics() {
+        return databasePools.asMap().values().stream()
+                .flatMap(pool -> pool.getMetrics().stream())
+                .collect(ImmutableList.toImmutableList());
+    }
+
     protected static class DatabaseInstance {
 
         private final PostgreSQLContainer container;
         private final Semaphore semaphore;
+        private final PostgresTemplateCache templateCache;
 
-        private DatabaseInstance(DatabaseConfig config) {
+        private DatabaseInstance(DatabaseConfig config) throws IOException, SQLException {
             String initdbArgs = config.initdbProperties.entrySet().stream()
                     .map(e -> String.format("--%s=%s", e.getKey(), e.getValue()))
                     .collect(Collectors.joining(" "));
@@ -165,6 +211,18 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
                 container.withCreateContainerCmdModifier(consumer);
             }
 
+            if (config.templateCacheDirectory != null) {
+                String configKey = PostgresTemplateCache.configKey(config.dockerImage, config.initdbProperties, config.configProperties);
+                int slot = PostgresTemplateCache.lockSlot(Paths.get(config.templateCacheDirectory), configKey);
+                Bind dataVolume = new Bind(String.format("zonky-templates-%s-%d", configKey, slot), new Volume("/var/lib/postgresql/data"));
+
+                Consumer<CreateContainerCmd> consumer = cmd -> {
+                    Bind[] binds = Optional.ofNullable(cmd.getHostConfig().getBinds()).orElse(new Bind[0]);
+                    cmd.getHostConfig().withBinds(ObjectArrays.concat(binds, dataVolume));
+                };
+                container.withCreateContainerCmdModifier(consumer);
+            }
+
             container.withUsername(DEFAULT_POSTGRES_USERNAME);
             container.withPassword(DEFAULT_POSTGRES_PASSWORD);
 
@@ -174,6 +232,23 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
             container.followOutput(new Slf4jLogConsumer(LoggerFactory.getLogger(DockerPostgresDatabaseProvider.class)));
 
             semaphore = new Semaphore(Integer.parseInt(serverProperties.get("max_connections")));
+
+            if (config.templateCacheDirectory != null) {
+                templateCache = new PostgresTemplateCache(getDatabase(new ClientConfig(ImmutableMap.of()), "postgres"));
+                templateCache.cleanUp();
+            } else {
+                templateCache = null;
+            }
+        }
+
+        public DatabaseTemplate createTemplate(ClientConfig config, DatabaseRequest request) throws SQLException {
+            if (templateCache != null) {
+                return templateCache.createTemplate(request, r -> createDatabase(config, r));
+            }
+
+            EmbeddedDatabase result = createDatabase(config, request);
+            BaseDataSource dataSource = result.unwrap(BaseDataSource.class);
+            return new SimpleDatabaseTemplate(dataSource.getDatabaseName(), result::close);
         }
 
         private PostgreSQLContainer createContainer(String dockerImage, Consumer<PostgreSQLContainer> configAction) {
@@ -269,14 +344,20 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
         private final Map<String, String> initdbProperties;
         private final Map<String, String> configProperties;
         private final List<PostgreSQLContainerCustomizer> customizers;
+        private final String templateCacheDirectory;
+        private final int containers;
+        private final PlacementPolicy placementPolicy;
 
-        private DatabaseConfig(String dockerImage, String tmpfsOptions, boolean tmpfsEnabled, Map<String, String> initdbProperties, Map<String, String> configProperties, List<PostgreSQLContainerCustomizer> customizers) {
+        private DatabaseConfig(String dockerImage, String tmpfsOptions, boolean tmpfsEnabled, Map<String, String> initdbProperties, Map<String, String> configProperties, List<PostgreSQLContainerCustomizer> customizers, String templateCacheDirectory, int containers, PlacementPolicy placementPolicy) {
             this.dockerImage = dockerImage;
             this.tmpfsOptions = tmpfsOptions;
             this.tmpfsEnabled = tmpfsEnabled;
             this.initdbProperties = ImmutableMap.copyOf(initdbProperties);
             this.configProperties = ImmutableMap.copyOf(configProperties);
             this.customizers = customizers;
+            this.templateCacheDirectory = templateCacheDirectory;
+            this.containers = containers;
+            this.placementPolicy = placementPolicy;
         }
 
         @Override
@@ -285,16 +366,19 @@ public class DockerPostgresDatabaseProvider implements TemplatableDatabaseProvid
             if (o == null || getClass() != o.getClass()) return false;
             DatabaseConfig that = (DatabaseConfig) o;
             return tmpfsEnabled == that.tmpfsEnabled &&
+                    containers == that.containers &&
+                    placementPolicy == that.placementPolicy &&
                     Objects.equals(dockerImage, that.dockerImage) &&
                     Objects.equals(tmpfsOptions, that.tmpfsOptions) &&
                     Objects.equals(initdbProperties, that.initdbProperties) &&
                     Objects.equals(configProperties, that.configProperties) &&
+                    Objects.equals(templateCacheDirectory, that.templateCacheDirectory) &&
                     DeepEquals.deepEquals(customizers, that.customizers);
         }
 
         @Override
         public int hashCode() {
-            int result = Objects.hash(dockerImage, tmpfsOptions, tmpfsEnabled, initdbProperties, configProperties);
+            int result = Objects.hash(dockerImage, tmpfsOptions, tmpfsEnabled, initdbProperties, configProperties, templateCacheDirectory, containers, placementPolicy);
             result = 31 * result + DeepEquals.deepHashCode(customizers);
             return result;
         }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.postgres;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.zonky.test.db.provider.DatabaseRequest;
+import io.zonky.test.db.provider.DatabaseTemplate;
+import io.zonky.test.db.provider.EmbeddedDatabase;
+import io.zonky.test.db.provider.support.PersistentDatabaseTemplate;
+import io.zonky.test.db.provider.support.SimpleDatabaseTemplate;
+import org.postgresql.ds.common.BaseDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps database templates in a database cluster whose data survive the JVM.
+ * <p>
+ * Templates are stored as databases named after the fingerprint of their preparers,
+ * so a template becomes unreachable as soon as any of its inputs (e.g. a migration) changes.
+ * Unreachable templates are dropped after some time, the last use of each template is tracked in the database comment.
+ * Each cluster is used by at most one JVM at a time, parallel JVMs get their own clusters (slots).
+ */
+public class PostgresTemplateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostgresTemplateCache.class);
+
+    private static final String TEMPLATE_PREFIX = "zonky_tpl_";
+    private static final int MAX_TEMPLATES = 50;
+    private static final long MAX_TEMPLATE_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private static final List<FileChannel> slotLocks = new CopyOnWriteArrayList<>();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PostgresTemplateCache(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Returns a short hash of the given values that can be used to distinguish differently configured clusters.
+     */
+    public static String configKey(Object... values) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Object value : values) {
+            hasher.putString(Objects.toString(value), UTF_8).putChar('/');
+        }
+        return hasher.hash().toString().substring(0, 12);
+    }
+
+    /**
+     * Locks the first free slot for the given cluster configuration and returns its number.
+     * The lock is held until the JVM exits.
+     */
+    public static int lockSlot(Path directory, String configKey) throws IOException {
+        Files.createDirectories(directory);
+
+        for (int slot = 0; ; slot++) {
+            Path lockFile = directory.resolve(String.format("%s-%d.lock", configKey, slot));
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+
+            if (lock != null) {
+                slotLocks.add(channel);
+                return slot;
+            }
+
+            channel.close();
+        }
+    }
+
+    /**
+     * Drops databases left over by previous runs and templates that have not been used for a long time.
+     */
+    public void cleanUp() {
+        try {
+            List<String> leftovers = jdbcTemplate.queryForList(
+                    "SELECT datname FROM pg_database WHERE NOT datistemplate AND datname <> 'postgres' AND datname NOT LIKE ?",
+                    String.class, TEMPLATE_PREFIX.replace("_", "\\_") + "%");
+            leftovers.forEach(this::dropDatabase);
+
+            List<Map<String, Object>> templates = jdbcTemplate.queryForList(
+                    "SELECT datname, shobj_description(oid, 'pg_database') AS last_used FROM pg_database WHERE datname LIKE ? " +
+                            "ORDER BY shobj_description(oid, 'pg_database') DESC NULLS LAST",
+                    TEMPLATE_PREFIX.replace("_", "\\_") + "%");
+
+            long minLastUsed = System.currentTimeMillis() - MAX_TEMPLATE_AGE;
+            for (int i = 0; i < templates.size(); i++) {
+                String templateName = (String) templates.get(i).get("datname");
+                long lastUsed = parseLastUsed((String) templates.get(i).get("last_used"));
+                if (i >= MAX_TEMPLATES || lastUsed < minLastUsed) {
+                    dropDatabase(templateName);
+                }
+            }
+
+            logger.debug("Template cache has been cleaned - leftovers={}, templates={}", leftovers.size(), Math.min(templates.size(), MAX_TEMPLATES));
+        } catch (DataAccessException e) {
+            logger.warn("Unexpected error when cleaning the template cache", e);
+        }
+    }
+
+    /**
+     * Returns a persistent template for the given request if it already exists,
+     * otherwise creates the database by the given action and stores it as a new persistent template.
+     * Falls back to a regular template if the request can not be fingerprinted or the template can not be stored.
+     */
+    public DatabaseTemplate createTemplate(DatabaseRequest request, DatabaseFactory databaseFactory) throws SQLException {
+        String fingerprint = PersistentDatabaseTemplate.fingerprint(request);
+
+        if (fingerprint == null) {
+            EmbeddedDatabase database = databaseFactory.createDatabase(request);
+            return new SimpleDatabaseTemplate(database.unwrap(BaseDataSource.class).getDatabaseName(), database::close);
+        }
+
+        String templateName = TEMPLATE_PREFIX + fingerprint.substring(0, Math.min(fingerprint.length(), 40));
+
+        if (touchTemplate(templateName)) {
+            logger.debug("Persistent template has been reused: {}", templateName);
+            return new PersistentDatabaseTemplate(templateName, fingerprint);
+        }
+
+        EmbeddedDatabase database = databaseFactory.createDatabase(request);
+        String databaseName = database.unwrap(BaseDataSource.class).getDatabaseName();
+
+        try {
+            jdbcTemplate.execute(String.format("ALTER DATABASE %s RENAME TO %s", databaseName, templateName));
+        } catch (DataAccessException e) {
+            if (touchTemplate(templateName)) {
+                database.close();
+                return new PersistentDatabaseTemplate(templateName, fingerprint);
+            }
+            logger.warn("Unable to store persistent template {}, a regular template is used instead", templateName, e);
+            return new SimpleDatabaseTemplate(databaseName, database::close);
+        }
+
+        // the database no longer exists under its original name, closing it only releases its resources
+        database.close();
+        touchTemplate(templateName);
+        logger.debug("Persistent template has been stored: {}", templateName);
+        return new PersistentDatabaseTemplate(templateName, fingerprint);
+    }
+
+    private boolean touchTemplate(String templateName) {
+        Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM pg_database WHERE datname = ?", Integer.class, templateName);
+        if (count == null || count == 0) {
+            return false;
+        }
+        jdbcTemplate.execute(String.format("COMMENT ON DATABASE %s IS '%d'", templateName, System.currentTimeMillis()));
+        return true;
+    }
+
+    private void dropDatabase(String databaseName) {
+        try {
+            jdbcTemplate.execute(String.format("DROP DATABASE IF EXISTS \"%s\"", databaseName));
+        } catch (DataAccessException e) {
+            logger.warn("Unable to drop '{}' database", databaseName, e);
+        }
+    }
+
+    private static long parseLastUsed(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @FunctionalInterface
+    public interface DatabaseFactory {
+
+        EmbeddedDatabase createDatabase(DatabaseRequest request) throws SQLException;
+
+    }
+}
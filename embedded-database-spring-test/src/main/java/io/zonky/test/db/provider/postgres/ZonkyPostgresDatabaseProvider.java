@@ -31,6 +31,9 @@ import io.zonky.test.db.provider.EmbeddedDatabase;
 import io.zonky.test.db.provider.ProviderException;
 import io.zonky.test.db.provider.TemplatableDatabaseProvider;
 import io.zonky.test.db.provider.support.BlockingDatabaseWrapper;
+import io.zonky.test.db.provider.support.DatabaseInstancePool;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.InstanceMetrics;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.PlacementPolicy;
 import io.zonky.test.db.provider.support.SimpleDatabaseTemplate;
 import io.zonky.test.db.util.PropertyUtils;
 import io.zonky.test.db.util.RandomStringUtils;
@@ -43,9 +46,12 @@ import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.util.ClassUtils;
+import org.springframework.util.FileSystemUtils;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -75,6 +81,13 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
                 }
             });
 
+    private static final LoadingCache<DatabaseConfig, DatabaseInstancePool<DatabaseInstance>> shardedDatabases = CacheBuilder.newBuilder()
+            .build(new CacheLoader<DatabaseConfig, DatabaseInstancePool<DatabaseInstance>>() {
+                public DatabaseInstancePool<DatabaseInstance> load(DatabaseConfig config) {
+                    return DatabaseInstancePool.lazy("zonky-postgres", config.shards, PlacementPolicy.LEAST_LOADED, () -> new DatabaseInstance(config));
+                }
+            });
+
     private final DatabaseConfig databaseConfig;
     private final ClientConfig clientConfig;
 
@@ -83,18 +96,29 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
         Map<String, String> configProperties = PropertyUtils.extractAll(environment, "zonky.test.database.postgres.server.properties");
         Map<String, String> connectProperties = PropertyUtils.extractAll(environment, "zonky.test.database.postgres.client.properties");
 
+        boolean templateCacheEnabled = environment.getProperty("zonky.test.database.postgres.template-cache.enabled", boolean.class, false);
+        String templateCacheDirectory = environment.getProperty("zonky.test.database.postgres.template-cache.directory",
+                Paths.get(System.getProperty("java.io.tmpdir"), "embedded-database-templates").toString());
+
+        int shards = environment.getProperty("zonky.test.database.postgres.zonky-provider.shards", int.class, 1);
+
         List<Consumer<EmbeddedPostgres.Builder>> customizers = Optional.ofNullable(databaseCustomizers.getIfAvailable()).orElse(emptyList());
 
-        this.databaseConfig = new DatabaseConfig(initdbProperties, configProperties, customizers);
+        this.databaseConfig = new DatabaseConfig(initdbProperties, configProperties, customizers, templateCacheEnabled ? templateCacheDirectory : null, shards);
         this.clientConfig = new ClientConfig(connectProperties);
     }
 
     @Override
     public DatabaseTemplate createTemplate(DatabaseRequest request) throws ProviderException {
         try {
-            EmbeddedDatabase result = createDatabase(request);
-            BaseDataSource dataSource = result.unwrap(BaseDataSource.class);
-            return new SimpleDatabaseTemplate(dataSource.getDatabaseName(), result::close);
+            if (databaseConfig.shards > 1) {
+                return shardedDatabases.get(databaseConfig).createTemplate(request, (instance, r) -> instance.createTemplate(clientConfig, r));
+            }
+            DatabaseInstance instance = databases.get(databaseConfig);
+            return instance.createTemplate(clientConfig, request);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), ProviderException.class);
+            throw new ProviderException("Unexpected error when preparing a database cluster", e.getCause());
         } catch (SQLException e) {
             throw new ProviderException("Unexpected error when creating a database template", e);
         }
@@ -103,6 +127,9 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
     @Override
     public EmbeddedDatabase createDatabase(DatabaseRequest request) throws ProviderException {
         try {
+            if (databaseConfig.shards > 1) {
+                return shardedDatabases.get(databaseConfig).createDatabase(request, (instance, r) -> instance.createDatabase(clientConfig, r));
+            }
             DatabaseInstance instance = databases.get(databaseConfig);
             return instance.createDatabase(clientConfig, request);
         } catch (ExecutionException | UncheckedExecutionException e) {
@@ -127,16 +154,30 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
         return Objects.hash(databaseConfig, clientConfig);
     }
 
+    /**
+     * Returns the metrics of the database instances started by all the instance pools of this provider.
+     */
+    public static List<InstanceMetrics> getPoolMetrics() {
+        return shardedDatabases.asMap().values().stream()
+                .flatMap(pool -> pool.getMetrics().stream())
+                .collect(ImmutableList.toImmutableList());
+    }
+
     protected static class DatabaseInstance {
 
         private final EmbeddedPostgres postgres;
         private final Semaphore semaphore;
+        private final PostgresTemplateCache templateCache;
 
         private DatabaseInstance(DatabaseConfig config) throws IOException {
             EmbeddedPostgres.Builder builder = EmbeddedPostgres.builder();
             config.applyTo(builder);
 
-            postgres = builder.start();
+            if (config.templateCacheDirectory != null) {
+                postgres = startPersistentCluster(builder, config);
+            } else {
+                postgres = builder.start();
+            }
             registerShutdownHook(postgres);
 
             DataSource dataSource = postgres.getDatabase("postgres", "postgres");
@@ -144,6 +185,41 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
             Integer maxConnections = jdbcTemplate.queryForObject("show max_connections", Integer.class);
 
             semaphore = new Semaphore(maxConnections);
+
+            if (config.templateCacheDirectory != null) {
+                templateCache = new PostgresTemplateCache(dataSource);
+                templateCache.cleanUp();
+            } else {
+                templateCache = null;
+            }
+        }
+
+        private static EmbeddedPostgres startPersistentCluster(EmbeddedPostgres.Builder builder, DatabaseConfig config) throws IOException {
+            Path directory = Paths.get(config.templateCacheDirectory);
+            String configKey = PostgresTemplateCache.configKey(config.initdbProperties, config.configProperties);
+            int slot = PostgresTemplateCache.lockSlot(directory, configKey);
+            Path dataDirectory = directory.resolve(String.format("zonky-%s-%d", configKey, slot));
+
+            builder.setDataDirectory(dataDirectory);
+            builder.setCleanDataDirectory(false);
+
+            try {
+                return builder.start();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to start PostgreSQL server from the template cache {}, the cache will be recreated", dataDirectory, e);
+                FileSystemUtils.deleteRecursively(dataDirectory.toFile());
+                return builder.start();
+            }
+        }
+
+        public DatabaseTemplate createTemplate(ClientConfig config, DatabaseRequest request) throws SQLException {
+            if (templateCache != null) {
+                return templateCache.createTemplate(request, r -> createDatabase(config, r));
+            }
+
+            EmbeddedDatabase result = createDatabase(config, request);
+            BaseDataSource dataSource = result.unwrap(BaseDataSource.class);
+            return new SimpleDatabaseTemplate(dataSource.getDatabaseName(), result::close);
         }
 
         public EmbeddedDatabase createDatabase(ClientConfig config, DatabaseRequest request) throws SQLException {
@@ -227,12 +303,16 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
         private final Map<String, String> initdbProperties;
         private final Map<String, String> configProperties;
         private final List<Consumer<EmbeddedPostgres.Builder>> customizers;
+        private final String templateCacheDirectory;
+        private final int shards;
         private final EmbeddedPostgres.Builder builder;
 
-        private DatabaseConfig(Map<String, String> initdbProperties, Map<String, String> configProperties, List<Consumer<EmbeddedPostgres.Builder>> customizers) {
+        private DatabaseConfig(Map<String, String> initdbProperties, Map<String, String> configProperties, List<Consumer<EmbeddedPostgres.Builder>> customizers, String templateCacheDirectory, int shards) {
             this.initdbProperties = ImmutableMap.copyOf(initdbProperties);
             this.configProperties = ImmutableMap.copyOf(configProperties);
             this.customizers = ImmutableList.copyOf(customizers);
+            this.templateCacheDirectory = templateCacheDirectory;
+            this.shards = shards;
             this.builder = EmbeddedPostgres.builder();
             applyTo(this.builder);
         }
@@ -250,12 +330,14 @@ public class ZonkyPostgresDatabaseProvider implements TemplatableDatabaseProvide
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             DatabaseConfig that = (DatabaseConfig) o;
-            return Objects.equals(builder, that.builder);
+            return shards == that.shards &&
+                    Objects.equals(templateCacheDirectory, that.templateCacheDirectory) &&
+                    Objects.equals(builder, that.builder);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(builder);
+            return Objects.hash(templateCacheDirectory, shards, builder);
         }
     }
 
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.support;
+
+import com.google.common.base.MoreObjects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drops databases in the background over a single persistent administrative connection,
+ * so that closing a database does not block the calling thread.
+ * <p>
+ * The cleanup statements are executed one by one in a dedicated daemon thread. Failures are logged
+ * and counted in the metrics of the cleaner, they are never propagated to the callers.
+ */
+public class AsyncDatabaseCleaner {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncDatabaseCleaner.class);
+
+    private final String name;
+    private final DataSource dataSource;
+    private final ExecutorService executor;
+
+    private final AtomicInteger pendingCleanups = new AtomicInteger();
+    private final AtomicInteger completedCleanups = new AtomicInteger();
+    private final AtomicInteger failedCleanups = new AtomicInteger();
+
+    private Connection connection; // confined to the cleanup thread
+
+    /**
+     * Creates a cleaner that obtains the administrative connection from the given data source.
+     * The data source must connect as a user that is allowed to drop the databases.
+     */
+    public AsyncDatabaseCleaner(String name, DataSource dataSource) {
+        this.name = name;
+        this.dataSource = dataSource;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the database to be dropped, the returned future completes once the database is dropped or the cleanup fails.
+     */
+    public CompletableFuture<Void> dropDatabase(String dbName) {
+        pendingCleanups.incrementAndGet();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                executeStatement(String.format("DROP DATABASE IF EXISTS %s", dbName));
+                completedCleanups.incrementAndGet();
+            } catch (SQLException | RuntimeException e) {
+                failedCleanups.incrementAndGet();
+                if (logger.isTraceEnabled()) {
+                    logger.warn("Unable to release '{}' database", dbName, e);
+                } else {
+                    logger.warn("Unable to release '{}' database", dbName);
+                }
+            } finally {
+                pendingCleanups.decrementAndGet();
+            }
+        }, executor);
+    }
+
+    private void executeStatement(String sql) throws SQLException {
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = dataSource.getConnection();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            }
+        } catch (SQLException | RuntimeException e) {
+            closeConnection(); // the connection is re-established on the next cleanup
+            throw e;
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.trace("Unable to close the administrative connection", e);
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * Returns the number of cleanups that have been scheduled but are not finished yet.
+     */
+    public int getPendingCleanups() {
+        return pendingCleanups.get();
+    }
+
+    public int getCompletedCleanups() {
+        return completedCleanups.get();
+    }
+
+    public int getFailedCleanups() {
+        return failedCleanups.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("name", name)
+                .add("pendingCleanups", pendingCleanups.get())
+                .add("completedCleanups", completedCleanups.get())
+                .add("failedCleanups", failedCleanups.get())
+                .toString();
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.support;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.provider.DatabaseRequest;
+import io.zonky.test.db.provider.DatabaseTemplate;
+import io.zonky.test.db.provider.EmbeddedDatabase;
+import io.zonky.test.db.provider.ProviderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of database instances sharing the same configuration, e.g. database clusters or containers.
+ * <p>
+ * Each request is routed to one of the instances according to the {@link PlacementPolicy}, the load of an instance
+ * is the number of databases and templates being created on it at the moment. Templates are materialized
+ * on each instance on first use, by repeating the request of the original template there.
+ * <p>
+ * The instances are either all started in parallel on first use, or lazily, only when all the running instances are busy.
+ * An instance that fails to start is removed from the pool and replaced by a new one when the next request needs it.
+ *
+ * @param <T> the type of the pooled instances
+ */
+public class DatabaseInstancePool<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseInstancePool.class);
+
+    public enum PlacementPolicy {
+
+        /**
+         * Routes requests to the least loaded instance, preferring instances that already contain the template.
+         */
+        LEAST_LOADED,
+
+        /**
+         * Routes requests to the least loaded instance that already contains the template,
+         * so templates are materialized on other instances only when none of them contains it yet.
+         */
+        TEMPLATE_AFFINITY,
+
+        /**
+         * Routes requests to the instances in turn, regardless of their load.
+         */
+        ROUND_ROBIN
+
+    }
+
+    @FunctionalInterface
+    public interface InstanceFactory<T> {
+
+        T create() throws Exception;
+
+    }
+
+    @FunctionalInterface
+    public interface InstanceOperation<T, R> {
+
+        R apply(T instance, DatabaseRequest request) throws SQLException;
+
+    }
+
+    private final String name;
+    private final int size;
+    private final PlacementPolicy placementPolicy;
+    private final InstanceFactory<T> factory;
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+
+    private int nextMember;
+    private int startedMembers;
+
+    /**
+     * Creates a pool that starts all the instances in parallel right away.
+     */
+    public static <T> DatabaseInstancePool<T> eager(String name, int size, PlacementPolicy placementPolicy, InstanceFactory<T> factory) {
+        DatabaseInstancePool<T> pool = new DatabaseInstancePool<>(name, size, placementPolicy, factory);
+        for (int i = 0; i < size; i++) {
+            pool.startMember();
+        }
+        return pool;
+    }
+
+    /**
+     * Creates a pool that starts the instances lazily, only when all the running instances are busy.
+     */
+    public static <T> DatabaseInstancePool<T> lazy(String name, int size, PlacementPolicy placementPolicy, InstanceFactory<T> factory) {
+        return new DatabaseInstancePool<>(name, size, placementPolicy, factory);
+    }
+
+    private DatabaseInstancePool(String name, int size, PlacementPolicy placementPolicy, InstanceFactory<T> factory) {
+        this.name = name;
+        this.size = size;
+        this.placementPolicy = placementPolicy;
+        this.factory = factory;
+    }
+
+    public DatabaseTemplate createTemplate(DatabaseRequest request, InstanceOperation<T, DatabaseTemplate> operation) throws SQLException {
+        Member member = acquireMember(request.getTemplate());
+        try {
+            DatabaseTemplate template = operation.apply(member.getInstance(), resolveRequest(request, member));
+            member.templates.incrementAndGet();
+            return new PooledDatabaseTemplate(request, operation, member, template);
+        } finally {
+            member.load.decrementAndGet();
+        }
+    }
+
+    public EmbeddedDatabase createDatabase(DatabaseRequest request, InstanceOperation<T, EmbeddedDatabase> operation) throws SQLException {
+        Member member = acquireMember(request.getTemplate());
+        try {
+            EmbeddedDatabase database = operation.apply(member.getInstance(), resolveRequest(request, member));
+            member.databases.incrementAndGet();
+            return database;
+        } finally {
+            member.load.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the started instances.
+     */
+    public List<InstanceMetrics> getMetrics() {
+        return members.stream()
+                .map(m -> new InstanceMetrics(m.index, m.load.get(), m.databases.get(), m.templates.get(), m.replicatedTemplates.get()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private DatabaseRequest resolveRequest(DatabaseRequest request, Member member) throws SQLException {
+        DatabaseTemplate template = request.getTemplate();
+        if (template instanceof DatabaseInstancePool.PooledDatabaseTemplate && ((PooledDatabaseTemplate) template).getPool() == this) {
+            return DatabaseRequest.of(request.getPreparer(), ((PooledDatabaseTemplate) template).materialize(member));
+        }
+        return request;
+    }
+
+    private synchronized Member acquireMember(DatabaseTemplate template) {
+        Member selected;
+
+        if (placementPolicy == PlacementPolicy.ROUND_ROBIN) {
+            selected = nextMember < members.size() ? members.get(nextMember) : null;
+            nextMember = (nextMember + 1) % size;
+        } else {
+            selected = selectLeastLoaded(template, placementPolicy == PlacementPolicy.TEMPLATE_AFFINITY);
+            if (selected != null && selected.load.get() > 0 && members.size() < size) {
+                selected = null;
+            }
+        }
+
+        if (selected == null) {
+            selected = startMember();
+        }
+
+        selected.load.incrementAndGet();
+        return selected;
+    }
+
+    private synchronized Member startMember() {
+        Member member = new Member(startedMembers++);
+        members.add(member);
+        return member;
+    }
+
+    private synchronized void removeMember(Member member) {
+        if (members.remove(member)) {
+            logger.warn("Database instance {}-{} has failed to start, it will be replaced on next request", name, member.index);
+        }
+    }
+
+    private Member selectLeastLoaded(DatabaseTemplate template, boolean templateRequired) {
+        Member selected = null;
+        for (Member member : members) {
+            boolean hasTemplate = hasTemplate(template, member);
+            if (templateRequired && !hasTemplate && template instanceof DatabaseInstancePool.PooledDatabaseTemplate) {
+                continue;
+            }
+            if (selected == null || member.load.get() < selected.load.get()
+                    || member.load.get() == selected.load.get() && hasTemplate && !hasTemplate(template, selected)) {
+                selected = member;
+            }
+        }
+        if (selected == null && templateRequired) {
+            return selectLeastLoaded(template, false);
+        }
+        return selected;
+    }
+
+    private boolean hasTemplate(DatabaseTemplate template, Member member) {
+        return template instanceof DatabaseInstancePool.PooledDatabaseTemplate
+                && ((PooledDatabaseTemplate) template).templates.containsKey(member);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("name", name)
+                .add("size", size)
+                .add("placementPolicy", placementPolicy)
+                .add("instances", getMetrics())
+                .toString();
+    }
+
+    public static class InstanceMetrics {
+
+        private final int index;
+        private final int load;
+        private final long databases;
+        private final long templates;
+        private final long replicatedTemplates;
+
+        private InstanceMetrics(int index, int load, long databases, long templates, long replicatedTemplates) {
+            this.index = index;
+            this.load = load;
+            this.databases = databases;
+            this.templates = templates;
+            this.replicatedTemplates = replicatedTemplates;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the number of databases and templates being created on the instance at the moment.
+         */
+        public int getLoad() {
+            return load;
+        }
+
+        public long getDatabases() {
+            return databases;
+        }
+
+        public long getTemplates() {
+            return templates;
+        }
+
+        /**
+         * Returns the number of templates materialized on the instance on behalf of a template created on another instance.
+         */
+        public long getReplicatedTemplates() {
+            return replicatedTemplates;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("index", index)
+                    .add("load", load)
+                    .add("databases", databases)
+                    .add("templates", templates)
+                    .add("replicatedTemplates", replicatedTemplates)
+                    .toString();
+        }
+    }
+
+    private class Member {
+
+        private final int index;
+        private final CompletableFuture<T> instance = new CompletableFuture<>();
+        private final AtomicInteger load = new AtomicInteger();
+        private final AtomicInteger databases = new AtomicInteger();
+        private final AtomicInteger templates = new AtomicInteger();
+        private final AtomicInteger replicatedTemplates = new AtomicInteger();
+
+        private Member(int index) {
+            this.index = index;
+
+            Thread thread = new Thread(() -> {
+                logger.info("Starting database instance {}-{}", name, index);
+                try {
+                    instance.complete(factory.create());
+                } catch (Throwable e) {
+                    instance.completeExceptionally(e);
+                }
+            }, name + "-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public T getInstance() {
+            try {
+                return join(instance, "Unexpected error when preparing a database instance");
+            } catch (ProviderException e) {
+                if (instance.isCompletedExceptionally()) {
+                    removeMember(this);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private class PooledDatabaseTemplate implements DatabaseTemplate {
+
+        private final DatabaseRequest request;
+        private final InstanceOperation<T, DatabaseTemplate> operation;
+        private final String templateName;
+        private final ConcurrentMap<Member, CompletableFuture<DatabaseTemplate>> templates = new ConcurrentHashMap<>();
+
+        // guarded by the lock of the pooled template
+        private boolean closed;
+
+        private PooledDatabaseTemplate(DatabaseRequest request, InstanceOperation<T, DatabaseTemplate> operation, Member member, DatabaseTemplate template) {
+            this.request = request;
+            this.operation = operation;
+            this.templateName = template.getTemplateName();
+            this.templates.put(member, CompletableFuture.completedFuture(template));
+        }
+
+        private DatabaseInstancePool<T> getPool() {
+            return DatabaseInstancePool.this;
+        }
+
+        public DatabaseTemplate materialize(Member member) throws SQLException {
+            CompletableFuture<DatabaseTemplate> future = new CompletableFuture<>();
+            CompletableFuture<DatabaseTemplate> existing = templates.putIfAbsent(member, future);
+
+            if (existing != null) {
+                try {
+                    return existing.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProviderException("Interrupted while waiting for a database template", e);
+                } catch (ExecutionException e) {
+                    Throwables.throwIfInstanceOf(e.getCause(), SQLException.class);
+                    Throwables.throwIfUnchecked(e.getCause());
+                    throw new ProviderException("Unexpected error when creating a database template", e.getCause());
+                }
+            }
+
+            try {
+                logger.trace("Materializing database template {} on instance {}-{}", templateName, name, member.index);
+                DatabaseTemplate template = operation.apply(member.getInstance(), resolveRequest(request, member));
+                member.replicatedTemplates.incrementAndGet();
+                synchronized (this) {
+                    future.complete(template);
+                    if (!closed) {
+                        return template;
+                    }
+                }
+                // the pooled template has been closed in the meantime and has not seen the new template
+                template.close();
+                return template;
+            } catch (SQLException | RuntimeException e) {
+                templates.remove(member, future);
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public String getTemplateName() {
+            return templateName;
+        }
+
+        @Override
+        public void close() {
+            List<DatabaseTemplate> materialized = new ArrayList<>();
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                for (CompletableFuture<DatabaseTemplate> future : templates.values()) {
+                    DatabaseTemplate template = future.getNow(null);
+                    if (template != null) {
+                        materialized.add(template);
+                    }
+                }
+            }
+            // templates being materialized right now are closed by the materializing thread
+            materialized.forEach(DatabaseTemplate::close);
+        }
+    }
+
+    private static <R> R join(CompletableFuture<R> future, String errorMessage) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProviderException("Interrupted while waiting for a database instance", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), ProviderException.class);
+            throw new ProviderException(errorMessage, e.getCause());
+        }
+    }
+}
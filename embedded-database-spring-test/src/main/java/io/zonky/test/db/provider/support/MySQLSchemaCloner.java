@@ -0,0 +1,259 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.support;
+
+import com.google.common.base.Throwables;
+import io.zonky.test.db.provider.ProviderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Copies a schema into another schema of the same MySQL or MariaDB server, which allows to use any database as a template.
+ * <p>
+ * Tables are recreated from their {@code SHOW CREATE TABLE} definitions and filled by {@code INSERT ... SELECT} statements,
+ * the tables are split into groups that are copied in parallel over separate connections. Views, stored routines
+ * and triggers are recreated afterwards, so the triggers are not fired by the copying. Foreign key and unique checks
+ * are disabled while copying the tables, the data are expected to be consistent in the source schema.
+ */
+public class MySQLSchemaCloner {
+
+    private static final Logger logger = LoggerFactory.getLogger(MySQLSchemaCloner.class);
+
+    private static final int PARALLELISM = 4;
+
+    private static final Pattern GENERATED_COLUMN_PATTERN = Pattern.compile("(VIRTUAL|STORED|PERSISTENT) GENERATED", Pattern.CASE_INSENSITIVE);
+
+    private final DataSource dataSource;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a cloner that obtains connections from the given data source.
+     * The data source must connect as a user that is allowed to read the source and create objects in the target schemas.
+     */
+    public MySQLSchemaCloner(String name, DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.executor = Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+            Thread thread = new Thread(runnable, name + "-cloner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Copies all tables including their data, views, stored routines and triggers from the source schema
+     * to the target schema, which must already exist and be empty.
+     */
+    public void cloneSchema(String source, String target) throws SQLException {
+        long startTime = System.currentTimeMillis();
+
+        try (Connection connection = dataSource.getConnection()) {
+            Map<String, String> tables = getInsertColumns(connection, source);
+            copyTables(source, target, tables);
+
+            execute(connection, String.format("USE `%s`", target));
+            createRoutines(connection, source, target);
+            createViews(connection, source, target);
+            createTriggers(connection, source, target);
+        }
+
+        logger.trace("Schema {} has been cloned to {} in {} ms", source, target, System.currentTimeMillis() - startTime);
+    }
+
+    private void copyTables(String source, String target, Map<String, String> tables) throws SQLException {
+        List<List<String>> groups = new ArrayList<>();
+        int index = 0;
+        for (String table : tables.keySet()) {
+            if (groups.size() < PARALLELISM) {
+                groups.add(new ArrayList<>());
+            }
+            groups.get(index++ % PARALLELISM).add(table);
+        }
+
+        List<CompletableFuture<Void>> futures = groups.stream()
+                .map(group -> CompletableFuture.runAsync(() -> {
+                    try {
+                        copyTables(source, target, group, tables);
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor))
+                .collect(Collectors.toList());
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), SQLException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new ProviderException("Unexpected error when copying tables", e.getCause());
+        }
+    }
+
+    private void copyTables(String source, String target, List<String> group, Map<String, String> tables) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            execute(connection, "SET FOREIGN_KEY_CHECKS = 0");
+            execute(connection, "SET UNIQUE_CHECKS = 0");
+            execute(connection, String.format("USE `%s`", target));
+
+            for (String table : group) {
+                execute(connection, showCreate(connection, String.format("SHOW CREATE TABLE `%s`.`%s`", source, table), "Create Table"));
+
+                String columns = tables.get(table);
+                execute(connection, String.format("INSERT INTO `%s`.`%s` %sSELECT %s FROM `%s`.`%s`",
+                        target, table, columns.equals("*") ? "" : "(" + columns + ") ", columns, source, table));
+            }
+        }
+    }
+
+    /**
+     * Views may depend on each other, so the views whose dependencies do not exist yet are postponed
+     * until no more views can be created.
+     */
+    private void createViews(Connection connection, String source, String target) throws SQLException {
+        List<String> views = queryNames(connection, "SELECT TABLE_NAME FROM information_schema.VIEWS WHERE TABLE_SCHEMA = ?", source);
+
+        Map<String, String> definitions = new LinkedHashMap<>();
+        for (String view : views) {
+            String definition = showCreate(connection, String.format("SHOW CREATE VIEW `%s`.`%s`", source, view), "Create View");
+            definitions.put(view, replaceSchema(definition, source, target));
+        }
+
+        while (!definitions.isEmpty()) {
+            int remaining = definitions.size();
+            SQLException lastException = null;
+            for (Iterator<String> iterator = definitions.values().iterator(); iterator.hasNext(); ) {
+                try {
+                    execute(connection, iterator.next());
+                    iterator.remove();
+                } catch (SQLException e) {
+                    lastException = e;
+                }
+            }
+            if (definitions.size() == remaining) {
+                throw lastException;
+            }
+        }
+    }
+
+    private void createRoutines(Connection connection, String source, String target) throws SQLException {
+        List<String> functions = queryNames(connection, "SELECT ROUTINE_NAME FROM information_schema.ROUTINES WHERE ROUTINE_SCHEMA = ? AND ROUTINE_TYPE = 'FUNCTION'", source);
+        List<String> procedures = queryNames(connection, "SELECT ROUTINE_NAME FROM information_schema.ROUTINES WHERE ROUTINE_SCHEMA = ? AND ROUTINE_TYPE = 'PROCEDURE'", source);
+
+        for (String function : functions) {
+            String definition = showCreate(connection, String.format("SHOW CREATE FUNCTION `%s`.`%s`", source, function), "Create Function");
+            execute(connection, replaceSchema(definition, source, target));
+        }
+        for (String procedure : procedures) {
+            String definition = showCreate(connection, String.format("SHOW CREATE PROCEDURE `%s`.`%s`", source, procedure), "Create Procedure");
+            execute(connection, replaceSchema(definition, source, target));
+        }
+    }
+
+    private void createTriggers(Connection connection, String source, String target) throws SQLException {
+        List<String> triggers = queryNames(connection, "SELECT TRIGGER_NAME FROM information_schema.TRIGGERS WHERE TRIGGER_SCHEMA = ? ORDER BY ACTION_ORDER", source);
+
+        for (String trigger : triggers) {
+            String definition = showCreate(connection, String.format("SHOW CREATE TRIGGER `%s`.`%s`", source, trigger), "SQL Original Statement");
+            execute(connection, replaceSchema(definition, source, target));
+        }
+    }
+
+    /**
+     * Returns the base tables of the schema mapped to the list of columns that can be inserted into,
+     * or {@code *} if the table has no generated columns.
+     */
+    private static Map<String, String> getInsertColumns(Connection connection, String schema) throws SQLException {
+        Map<String, String> tables = new LinkedHashMap<>();
+        for (String table : queryNames(connection, "SELECT TABLE_NAME FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE' ORDER BY TABLE_NAME", schema)) {
+            tables.put(table, "*");
+        }
+
+        Map<String, List<String>> columns = new HashMap<>();
+        List<String> generatedTables = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT TABLE_NAME, COLUMN_NAME, EXTRA FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, ORDINAL_POSITION")) {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String table = resultSet.getString(1);
+                    String extra = resultSet.getString(3);
+                    if (extra != null && GENERATED_COLUMN_PATTERN.matcher(extra).find()) {
+                        generatedTables.add(table);
+                    } else {
+                        columns.computeIfAbsent(table, t -> new ArrayList<>()).add(String.format("`%s`", resultSet.getString(2)));
+                    }
+                }
+            }
+        }
+
+        for (String table : generatedTables) {
+            if (tables.containsKey(table)) {
+                tables.put(table, String.join(", ", columns.get(table)));
+            }
+        }
+        return tables;
+    }
+
+    private static List<String> queryNames(Connection connection, String sql, String schema) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    names.add(resultSet.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String showCreate(Connection connection, String sql, String columnLabel) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            if (!resultSet.next()) {
+                throw new SQLException("No definition has been returned by " + sql);
+            }
+            return resultSet.getString(columnLabel);
+        }
+    }
+
+    private static String replaceSchema(String definition, String source, String target) {
+        return definition.replace(String.format("`%s`.", source), String.format("`%s`.", target));
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
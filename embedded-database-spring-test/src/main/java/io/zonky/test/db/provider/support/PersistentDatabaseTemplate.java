@@ -0,0 +1,85 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.support;
+
+import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.preparer.CompositeDatabasePreparer;
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseRequest;
+import io.zonky.test.db.provider.DatabaseTemplate;
+import io.zonky.test.db.util.FingerprintUtils;
+
+import java.util.List;
+
+/**
+ * Database template that outlives the JVM and is identified by the fingerprint of the preparers used to create it.
+ * Closing the template only releases it from the current JVM, the underlying database is kept for later runs.
+ */
+public class PersistentDatabaseTemplate implements DatabaseTemplate {
+
+    private final String templateName;
+    private final String fingerprint;
+
+    public PersistentDatabaseTemplate(String templateName, String fingerprint) {
+        this.templateName = templateName;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of the whole chain of preparers that would be applied by the given request,
+     * including the preparers of the template, or {@code null} if the fingerprint can not be resolved.
+     */
+    public static String fingerprint(DatabaseRequest request) {
+        DatabaseTemplate template = request.getTemplate();
+        DatabasePreparer preparer = request.getPreparer();
+
+        String chainFingerprint;
+        if (template == null) {
+            chainFingerprint = "";
+        } else if (template instanceof PersistentDatabaseTemplate) {
+            chainFingerprint = ((PersistentDatabaseTemplate) template).getFingerprint();
+        } else {
+            return null;
+        }
+
+        List<DatabasePreparer> preparers;
+        if (preparer instanceof CompositeDatabasePreparer) {
+            preparers = ((CompositeDatabasePreparer) preparer).getPreparers();
+        } else if (preparer != null) {
+            preparers = ImmutableList.of(preparer);
+        } else {
+            preparers = ImmutableList.of();
+        }
+
+        String result = FingerprintUtils.combine(chainFingerprint, preparers);
+        return result != null && !result.isEmpty() ? result : null;
+    }
+
+    @Override
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public void close() {
+        // the template is intentionally kept for later runs
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.util;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import io.zonky.test.db.preparer.DatabasePreparer;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class FingerprintUtils {
+
+    private FingerprintUtils() {}
+
+    /**
+     * Combines the fingerprint of a chain of preparers with the fingerprint of the next preparer in the chain.
+     * An empty string represents the fingerprint of an empty chain.
+     */
+    public static String combine(String chainFingerprint, String fingerprint) {
+        return Hashing.sha256().newHasher()
+                .putString(chainFingerprint, UTF_8)
+                .putChar('/')
+                .putString(fingerprint, UTF_8)
+                .hash().toString();
+    }
+
+    /**
+     * Combines the fingerprint of a chain of preparers with the fingerprints of the given preparers,
+     * or returns {@code null} if any of the preparers does not support fingerprinting.
+     */
+    public static String combine(String chainFingerprint, List<DatabasePreparer> preparers) {
+        String result = chainFingerprint;
+        for (DatabasePreparer preparer : preparers) {
+            String fingerprint = preparer.fingerprint();
+            if (fingerprint == null) {
+                return null;
+            }
+            result = combine(result, fingerprint);
+        }
+        return result;
+    }
+
+    /**
+     * Converts a Flyway-like location ({@code classpath:}, {@code filesystem:} or no prefix)
+     * to a Spring resource pattern that matches the location in all classpath roots.
+     */
+    public static String toResourcePattern(String location) {
+        if (location.startsWith("filesystem:")) {
+            return "file:" + location.substring("filesystem:".length());
+        } else if (location.startsWith("classpath:")) {
+            return "classpath*:" + location.substring("classpath:".length());
+        } else if (!location.contains(":")) {
+            return "classpath*:" + location;
+        } else {
+            return location;
+        }
+    }
+
+    /**
+     * Puts names and contents of all readable resources matching the pattern into the hasher.
+     * The resources are processed in a stable order.
+     */
+    public static void putResources(Hasher hasher, ResourcePatternResolver resolver, String locationPattern) throws IOException {
+        List<Resource> resources = new ArrayList<>(Arrays.asList(resolver.getResources(locationPattern)));
+        resources.sort(Comparator.comparing(FingerprintUtils::resourceKey));
+
+        hasher.putString(locationPattern, UTF_8).putChar('/');
+        for (Resource resource : resources) {
+            putResource(hasher, resource);
+        }
+    }
+
+    /**
+     * Puts the name and the content of the resource into the hasher.
+     */
+    public static void putResource(Hasher hasher, Resource resource) throws IOException {
+        if (!resource.isReadable()) {
+            hasher.putString(String.valueOf(resource.getFilename()), UTF_8).putChar('!');
+            return;
+        }
+        hasher.putString(String.valueOf(resource.getFilename()), UTF_8).putChar('=');
+        try (InputStream stream = resource.getInputStream()) {
+            hasher.putLong(ByteStreams.copy(stream, Funnels.asOutputStream(hasher)));
+        }
+    }
+
+    /**
+     * Puts a stable representation of the value into the hasher.
+     * <p>
+     * Returns {@code false} if the value (or any nested value) has no representation that is stable across JVM runs,
+     * e.g. because it does not override {@link Object#toString()}. In such case, the state of the hasher is undefined
+     * and the whole fingerprint must be treated as unsupported.
+     */
+    public static boolean putValue(Hasher hasher, Object value) {
+        if (value == null) {
+            hasher.putString("null", UTF_8);
+        } else if (value instanceof CharSequence || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            hasher.putString(value.getClass().getName(), UTF_8).putChar(':').putString(value.toString(), UTF_8);
+        } else if (value instanceof Enum) {
+            hasher.putString(((Enum<?>) value).getDeclaringClass().getName(), UTF_8).putChar(':').putString(((Enum<?>) value).name(), UTF_8);
+        } else if (value instanceof Class) {
+            hasher.putString("class:", UTF_8).putString(((Class<?>) value).getName(), UTF_8);
+        } else if (value instanceof Date) {
+            hasher.putString(value.getClass().getName(), UTF_8).putChar(':').putLong(((Date) value).getTime());
+        } else if (value instanceof Calendar) {
+            hasher.putString("calendar:", UTF_8).putLong(((Calendar) value).getTimeInMillis())
+                    .putString(((Calendar) value).getTimeZone().getID(), UTF_8);
+        } else if (value instanceof byte[]) {
+            hasher.putString("bytes:", UTF_8).putInt(((byte[]) value).length).putBytes((byte[]) value);
+        } else if (value instanceof char[]) {
+            hasher.putString("chars:", UTF_8).putInt(((char[]) value).length).putString(new String((char[]) value), UTF_8);
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            hasher.putString("array:", UTF_8).putInt(length);
+            for (int i = 0; i < length; i++) {
+                if (!putValue(hasher, Array.get(value, i))) {
+                    return false;
+                }
+            }
+        } else if (value instanceof List) {
+            hasher.putString("list:", UTF_8).putInt(((List<?>) value).size());
+            for (Object item : (List<?>) value) {
+                if (!putValue(hasher, item)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof Set) {
+            return putUnordered(hasher, "set:", (Set<?>) value);
+        } else if (value instanceof Map) {
+            List<Object> entries = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                entries.add(Arrays.asList(entry.getKey(), entry.getValue()));
+            }
+            return putUnordered(hasher, "map:", entries);
+        } else if (hasCustomToString(value)) {
+            hasher.putString(value.getClass().getName(), UTF_8).putChar(':').putString(value.toString(), UTF_8);
+        } else {
+            return false;
+        }
+        hasher.putChar(';');
+        return true;
+    }
+
+    private static boolean putUnordered(Hasher hasher, String type, Collection<?> values) {
+        List<String> hashes = new ArrayList<>(values.size());
+        for (Object value : values) {
+            Hasher itemHasher = Hashing.sha256().newHasher();
+            if (!putValue(itemHasher, value)) {
+                return false;
+            }
+            hashes.add(itemHasher.hash().toString());
+        }
+        hashes.sort(Comparator.naturalOrder());
+
+        hasher.putString(type, UTF_8).putInt(hashes.size());
+        hashes.forEach(hash -> hasher.putString(hash, UTF_8));
+        hasher.putChar(';');
+        return true;
+    }
+
+    private static boolean hasCustomToString(Object value) {
+        try {
+            return value.getClass().getMethod("toString").getDeclaringClass() != Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static String resourceKey(Resource resource) {
+        try {
+            return resource.getURL().toString();
+        } catch (IOException e) {
+            return resource.getDescription();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.zonky.test.db.util;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class SqlUtils {
+
+    private static final Set<String> READ_ONLY_COMMANDS = ImmutableSet.of(
+            "SELECT", "WITH", "SHOW", "EXPLAIN", "VALUES", "TABLE",
+            "BEGIN", "START", "COMMIT", "END", "ROLLBACK", "SAVEPOINT", "RELEASE");
+
+    private static final Pattern WRITE_CLAUSE_PATTERN = Pattern.compile(
+            "\\b(INSERT|UPDATE|DELETE|MERGE|INTO|NEXTVAL|SETVAL|ANALYZE)\\b");
+
+    private static final Pattern LEADING_NOISE_PATTERN = Pattern.compile(
+            "^(\\s|\\(|--[^\\n]*(\\n|$)|/\\*.*?\\*/)+", Pattern.DOTALL);
+
+    private SqlUtils() {}
+
+    /**
+     * Removes leading whitespaces, comments and opening parentheses from the statement.
+     */
+    public static String stripLeadingNoise(String sql) {
+        return LEADING_NOISE_PATTERN.matcher(sql).replaceFirst("");
+    }
+
+    /**
+     * Returns {@code true} if the statement is known not to modify the database.
+     * <p>
+     * Only {@code SELECT}, {@code WITH}, {@code SHOW}, {@code EXPLAIN}, {@code VALUES} and {@code TABLE} queries
+     * without any data-modifying clause and transaction control statements are considered as read-only.
+     * Side effects of functions invoked by a select query are not detected.
+     */
+    public static boolean isReadOnlyStatement(String sql) {
+        String statement = stripLeadingNoise(sql).toUpperCase(Locale.ROOT);
+
+        int commandEnd = 0;
+        while (commandEnd < statement.length() && Character.isLetter(statement.charAt(commandEnd))) {
+            commandEnd++;
+        }
+
+        String command = statement.substring(0, commandEnd);
+        return READ_ONLY_COMMANDS.contains(command) && !WRITE_CLAUSE_PATTERN.matcher(statement).find();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.zonky.test.db;
+
+import io.zonky.test.category.PostgresTestSuite;
+import io.zonky.test.db.context.DatabaseContext;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.support.SpyPostProcessor;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestContext;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.support.AbstractTestExecutionListener;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.EMBEDDED;
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseType.POSTGRES;
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.RefreshMode.AFTER_EACH_TEST_METHOD;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.context.TestExecutionListeners.MergeMode.MERGE_WITH_DEFAULTS;
+
+@RunWith(SpringRunner.class)
+@Category(PostgresTestSuite.class)
+@TestExecutionListeners(
+        mergeMode = MERGE_WITH_DEFAULTS,
+        listeners = DatabaseRestoreTablesIntegrationTest.class
+)
+@TestPropertySource(properties = "zonky.test.database.refresh-strategy=restore-tables")
+@AutoConfigureEmbeddedDatabase(type = POSTGRES, provider = EMBEDDED, refresh = AFTER_EACH_TEST_METHOD)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ContextConfiguration
+public class DatabaseRestoreTablesIntegrationTest extends AbstractTestExecutionListener {
+
+    private static final String SQL_SELECT_PERSONS = "select id, name from test.person";
+    private static final String SQL_SELECT_SEQUENCE = "select last_value, is_called from test.person_id_seq";
+    private static final String SQL_SELECT_COLUMNS = "select column_name from information_schema.columns where table_schema = 'test' and table_name = 'person'";
+    private static final String SQL_INSERT_PERSON = "insert into test.person (name) values (?)";
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        public TestDatabaseInitializer testDatabaseInitializer(DataSource dataSource) {
+            return new TestDatabaseInitializer(dataSource);
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        public BeanPostProcessor spyPostProcessor() {
+            return new SpyPostProcessor((bean, beanName) ->
+                    bean instanceof DatabaseContext || beanName.equals("embeddedPostgresDatabaseProvider"));
+        }
+    }
+
+    public static class TestDatabaseInitializer implements InitializingBean {
+
+        private final DataSource dataSource;
+
+        public TestDatabaseInitializer(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public void afterPropertiesSet() {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute("create schema test");
+            jdbcTemplate.execute("create table test.person (id serial primary key, name varchar(255) not null)");
+            jdbcTemplate.update(SQL_INSERT_PERSON, "Dave");
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public void afterTestClass(TestContext testContext) {
+        ApplicationContext applicationContext = testContext.getApplicationContext();
+        DatabaseContext databaseContext = applicationContext.getBean(DatabaseContext.class);
+        DatabaseProvider databaseProvider = applicationContext.getBean("embeddedPostgresDatabaseProvider", DatabaseProvider.class);
+
+        // the tables modified by data changes are restored in place, only the schema change requires a new database
+        verify(databaseContext, times(6)).reset();
+        verify(databaseProvider, times(2)).createDatabase(any());
+
+        Mockito.reset(databaseContext, databaseProvider);
+    }
+
+    @Test
+    public void test1InsertedRowsAreRemoved() {
+        assertInitialState();
+
+        jdbcTemplate.update(SQL_INSERT_PERSON, "Tom");
+        jdbcTemplate.update(SQL_INSERT_PERSON, "Jerry");
+
+        assertThat(jdbcTemplate.queryForList(SQL_SELECT_PERSONS)).hasSize(3);
+        assertThat(jdbcTemplate.queryForObject("select max(id) from test.person", Long.class)).isEqualTo(3L);
+    }
+
+    @Test
+    public void test2UpdatedRowsAreRestored() {
+        assertInitialState();
+
+        jdbcTemplate.update("update test.person set name = ? where id = ?", "Tom", 1);
+
+        assertThat(jdbcTemplate.queryForObject("select name from test.person where id = 1", String.class)).isEqualTo("Tom");
+    }
+
+    @Test
+    public void test3TruncatedTableIsRestored() {
+        assertInitialState();
+
+        jdbcTemplate.execute("truncate test.person");
+
+        assertThat(jdbcTemplate.queryForList(SQL_SELECT_PERSONS)).isEmpty();
+    }
+
+    @Test
+    public void test4SchemaChangeCausesRecreation() {
+        assertInitialState();
+
+        jdbcTemplate.execute("alter table test.person add column email varchar(255)");
+        jdbcTemplate.update(SQL_INSERT_PERSON, "Tom");
+
+        assertThat(jdbcTemplate.queryForList(SQL_SELECT_COLUMNS, String.class)).contains("email");
+    }
+
+    @Test
+    public void test5DatabaseIsRecreatedAfterSchemaChange() {
+        assertInitialState();
+    }
+
+    private void assertInitialState() {
+        List<Map<String, Object>> persons = jdbcTemplate.queryForList(SQL_SELECT_PERSONS);
+        assertThat(persons).hasSize(1);
+        assertThat(persons.get(0)).containsEntry("id", 1).containsEntry("name", "Dave");
+
+        Map<String, Object> sequence = jdbcTemplate.queryForMap(SQL_SELECT_SEQUENCE);
+        assertThat(sequence).containsEntry("last_value", 1L).containsEntry("is_called", true);
+
+        assertThat(jdbcTemplate.queryForList(SQL_SELECT_COLUMNS, String.class)).containsOnly("id", "name");
+    }
+}
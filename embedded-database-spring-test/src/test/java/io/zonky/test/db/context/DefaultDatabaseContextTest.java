@@ -21,6 +21,7 @@ import org.springframework.beans.factory.BeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.util.ReflectionUtils;
 
@@ -28,8 +29,16 @@ import javax.sql.DataSource;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
 import static io.zonky.test.db.context.DatabaseContext.ContextState.DIRTY;
 import static io.zonky.test.db.context.DatabaseContext.ContextState.FRESH;
 import static io.zonky.test.db.context.DatabaseContext.ContextState.INITIALIZING;
@@ -259,6 +268,195 @@ public class DefaultDatabaseContextTest {
         verifyNoMoreInteractions(databaseProvider);
     }
 
+    @Test
+    public void databaseContextInDirtyStateShouldReturnSameDatabaseToConcurrentThreads() throws Exception {
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class);
+        when(databaseProvider.createDatabase(any())).thenReturn(database);
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getDatabase()).isSameAs(database);
+        assertThat(databaseContext.getState()).isEqualTo(DIRTY);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<EmbeddedDatabase>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> databaseContext.getDatabase()));
+            }
+            for (Future<EmbeddedDatabase> result : results) {
+                assertThat(result.get()).isSameAs(database);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(databaseProvider).createDatabase(any());
+    }
+
+    @Test
+    public void readOnlyTestShouldKeepDatabaseFreshWhenWriteTrackingIsEnabled() throws Exception {
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class, RETURNS_MOCKS);
+        when(databaseProvider.createDatabase(any())).thenReturn(database);
+        databaseContext.setEnvironment(new MockEnvironment().withProperty("zonky.test.database.write-tracking.enabled", "true"));
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+
+        try (Connection connection = databaseContext.getDatabase().getConnection()) {
+            connection.createStatement().executeQuery("select * from person");
+            connection.prepareStatement("select * from person where id = ?").executeQuery();
+        }
+
+        databaseContext.handleTestFinished(new TestExecutionFinishedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getState()).isEqualTo(FRESH);
+        databaseContext.reset();
+        databaseContext.getDatabase();
+
+        verify(databaseProvider).createDatabase(any());
+    }
+
+    @Test
+    public void writingTestShouldMakeDatabaseDirtyWhenWriteTrackingIsEnabled() throws Exception {
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class, RETURNS_MOCKS);
+        when(databaseProvider.createDatabase(any())).thenReturn(database);
+        databaseContext.setEnvironment(new MockEnvironment().withProperty("zonky.test.database.write-tracking.enabled", "true"));
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+
+        try (Connection connection = databaseContext.getDatabase().getConnection()) {
+            connection.prepareStatement("update person set name = ?").executeUpdate();
+        }
+
+        databaseContext.handleTestFinished(new TestExecutionFinishedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getState()).isEqualTo(DIRTY);
+        databaseContext.reset();
+        databaseContext.getDatabase();
+
+        verify(databaseProvider, times(2)).createDatabase(any());
+    }
+
+    @Test
+    public void writingTestShouldBeRolledBackWhenRollbackStrategyIsEnabled() throws Exception {
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class, RETURNS_MOCKS);
+        when(databaseProvider.createDatabase(any())).thenReturn(database);
+        databaseContext.setEnvironment(new MockEnvironment().withProperty("zonky.test.database.refresh-strategy", "rollback"));
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+
+        try (Connection connection = databaseContext.getDatabase().getConnection()) {
+            connection.prepareStatement("update person set name = ?").executeUpdate();
+        }
+
+        databaseContext.handleTestFinished(new TestExecutionFinishedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getState()).isEqualTo(DIRTY);
+        databaseContext.reset();
+        assertThat(databaseContext.getState()).isEqualTo(FRESH);
+        databaseContext.getDatabase();
+
+        verify(databaseProvider).createDatabase(any());
+    }
+
+    @Test
+    public void concurrentTestShouldUseLeasedDatabaseWhenLeasingIsEnabled() throws Exception {
+        EmbeddedDatabase sharedDatabase = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase leasedDatabase = mock(EmbeddedDatabase.class);
+        when(databaseProvider.createDatabase(any())).thenReturn(sharedDatabase, leasedDatabase);
+        databaseContext.setEnvironment(new MockEnvironment().withProperty("zonky.test.database.leasing.enabled", "true"));
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getDatabase()).isSameAs(sharedDatabase);
+
+        List<EmbeddedDatabase> concurrentDatabases = new ArrayList<>();
+        runInDifferentThread(() -> {
+            databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+            concurrentDatabases.add(databaseContext.getDatabase());
+            databaseContext.handleTestFinished(new TestExecutionFinishedEvent(this, MOCK_TEST_METHOD));
+            databaseContext.reset();
+        });
+
+        assertThat(concurrentDatabases).containsExactly(leasedDatabase);
+        assertThat(databaseContext.getDatabase()).isSameAs(sharedDatabase);
+
+        databaseContext.destroy();
+        verify(sharedDatabase).close();
+        verify(leasedDatabase).close();
+    }
+
+    @Test
+    public void leasedDatabaseShouldBeUsedBeforeTestExecutionStarted() throws Exception {
+        EmbeddedDatabase sharedDatabase = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase leasedDatabase = mock(EmbeddedDatabase.class);
+        when(databaseProvider.createDatabase(any())).thenReturn(sharedDatabase, leasedDatabase);
+        databaseContext.setEnvironment(new MockEnvironment().withProperty("zonky.test.database.leasing.enabled", "true"));
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getDatabase()).isSameAs(sharedDatabase);
+
+        List<EmbeddedDatabase> concurrentDatabases = new ArrayList<>();
+        runInDifferentThread(() -> {
+            databaseContext.acquireLease();
+            // e.g. a test transaction started by a listener before the test execution
+            concurrentDatabases.add(databaseContext.getDatabase());
+            databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+            concurrentDatabases.add(databaseContext.getDatabase());
+            databaseContext.handleTestFinished(new TestExecutionFinishedEvent(this, MOCK_TEST_METHOD));
+            databaseContext.releaseLease();
+        });
+
+        assertThat(concurrentDatabases).containsExactly(leasedDatabase, leasedDatabase);
+        assertThat(databaseContext.getDatabase()).isSameAs(sharedDatabase);
+        verify(databaseProvider, times(2)).createDatabase(any());
+    }
+
+    @Test
+    public void releasedLeasesShouldBeReusedByOtherThreads() throws Exception {
+        EmbeddedDatabase sharedDatabase = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase leasedDatabase1 = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase leasedDatabase2 = mock(EmbeddedDatabase.class);
+        when(databaseProvider.createDatabase(any())).thenReturn(sharedDatabase, leasedDatabase1, leasedDatabase2);
+        databaseContext.setEnvironment(new MockEnvironment().withProperty("zonky.test.database.leasing.enabled", "true"));
+
+        databaseContext.handleContextRefreshed(new ContextRefreshedEvent(applicationContext));
+        databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+        assertThat(databaseContext.getDatabase()).isSameAs(sharedDatabase);
+
+        List<EmbeddedDatabase> concurrentDatabases = new CopyOnWriteArrayList<>();
+        CountDownLatch leasedLatch = new CountDownLatch(2);
+        Runnable concurrentTest = () -> {
+            databaseContext.handleTestStarted(new TestExecutionStartedEvent(this, MOCK_TEST_METHOD));
+            concurrentDatabases.add(databaseContext.getDatabase());
+            leasedLatch.countDown();
+            awaitUninterruptibly(leasedLatch);
+            databaseContext.handleTestFinished(new TestExecutionFinishedEvent(this, MOCK_TEST_METHOD));
+            databaseContext.releaseLease();
+        };
+
+        Thread thread1 = new Thread(concurrentTest);
+        Thread thread2 = new Thread(concurrentTest);
+        thread1.start();
+        thread2.start();
+        thread1.join();
+        thread2.join();
+
+        for (int i = 0; i < 6; i++) {
+            runInDifferentThread(concurrentTest);
+        }
+
+        assertThat(concurrentDatabases).hasSize(8).containsOnly(leasedDatabase1, leasedDatabase2);
+        assertThat(databaseContext.getDatabase()).isSameAs(sharedDatabase);
+        verify(databaseProvider, times(3)).createDatabase(any());
+
+        databaseContext.destroy();
+        verify(sharedDatabase).close();
+        verify(leasedDatabase1).close();
+        verify(leasedDatabase2).close();
+    }
+
     private static void runInDifferentThread(Runnable runnable) throws InterruptedException {
         Thread thread = new Thread(runnable);
         thread.start();
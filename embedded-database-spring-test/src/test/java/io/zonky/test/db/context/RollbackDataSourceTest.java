@@ -0,0 +1,124 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RollbackDataSourceTest {
+
+    private DataSource targetDataSource;
+    private Connection physicalConnection;
+    private DatabaseMetaData metaData;
+
+    @Before
+    public void setUp() throws SQLException {
+        targetDataSource = mock(DataSource.class);
+        physicalConnection = mock(Connection.class, RETURNS_MOCKS);
+        metaData = mock(DatabaseMetaData.class);
+
+        when(targetDataSource.getConnection()).thenReturn(physicalConnection);
+        when(physicalConnection.getMetaData()).thenReturn(metaData);
+        when(metaData.getDatabaseProductName()).thenReturn("PostgreSQL");
+    }
+
+    @Test
+    public void sequentialConnectionsShouldShareSinglePhysicalConnection() throws Exception {
+        RollbackDataSource dataSource = RollbackDataSource.wrap(targetDataSource);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().executeUpdate("insert into person values (1)");
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.prepareStatement("update person set name = ?").executeUpdate();
+            connection.commit();
+            assertThat(connection.getAutoCommit()).isFalse();
+        }
+
+        assertThat(dataSource.rollback()).isTrue();
+
+        verify(targetDataSource).getConnection();
+        verify(physicalConnection).setAutoCommit(false);
+        verify(physicalConnection).rollback();
+        verify(physicalConnection, never()).commit();
+        verify(physicalConnection, never()).close();
+    }
+
+    @Test
+    public void failedStatementShouldBeRolledBackToSavepoint() throws Exception {
+        RollbackDataSource dataSource = RollbackDataSource.wrap(targetDataSource);
+        Statement statement = mock(Statement.class);
+        Savepoint savepoint = mock(Savepoint.class);
+        when(physicalConnection.createStatement()).thenReturn(statement);
+        when(physicalConnection.setSavepoint()).thenReturn(savepoint);
+        when(statement.executeUpdate(anyString())).thenThrow(new SQLException("duplicate key"));
+
+        try (Connection connection = dataSource.getConnection()) {
+            assertThatThrownBy(() -> connection.createStatement().executeUpdate("insert into person values (1)"))
+                    .isInstanceOf(SQLException.class);
+        }
+
+        verify(physicalConnection).rollback(savepoint);
+        assertThat(dataSource.rollback()).isTrue();
+    }
+
+    @Test
+    public void concurrentConnectionsShouldPreventRollback() throws Exception {
+        RollbackDataSource dataSource = RollbackDataSource.wrap(targetDataSource);
+
+        try (Connection first = dataSource.getConnection(); Connection second = dataSource.getConnection()) {
+            first.createStatement().executeUpdate("insert into person values (1)");
+        }
+
+        assertThat(dataSource.rollback()).isFalse();
+        verify(physicalConnection).commit();
+    }
+
+    @Test
+    public void nonTransactionalStatementShouldPreventRollback() throws Exception {
+        when(metaData.getDatabaseProductName()).thenReturn("MySQL");
+        RollbackDataSource dataSource = RollbackDataSource.wrap(targetDataSource);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().execute("insert into person values (1)");
+        }
+        assertThat(dataSource.rollback()).isTrue();
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().execute("create table address (id int)");
+        }
+
+        assertThat(dataSource.rollback()).isFalse();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import org.junit.Test;
+
+import static io.zonky.test.db.context.TableRestorer.parseModifiedTables;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TableRestorerTest {
+
+    @Test
+    public void parseDataModifications() {
+        assertThat(parseModifiedTables("insert into person (id, name) values (1, 'Dave')")).containsExactly("person");
+        assertThat(parseModifiedTables("UPDATE test.Person SET name = ?")).containsExactly("test.Person");
+        assertThat(parseModifiedTables("delete from only \"Person\" where id = 1")).containsExactly("\"Person\"");
+        assertThat(parseModifiedTables("/* comment */ (INSERT INTO person SELECT * FROM backup)")).containsExactly("person");
+    }
+
+    @Test
+    public void parseTruncate() {
+        assertThat(parseModifiedTables("truncate table person, test.address restart identity")).containsExactly("person", "test.address");
+        assertThat(parseModifiedTables("TRUNCATE ONLY person")).containsExactly("person");
+    }
+
+    @Test
+    public void parseNestedModifications() {
+        assertThat(parseModifiedTables("insert into person values (1, 'Dave') on conflict (id) do update set name = excluded.name"))
+                .containsExactly("person");
+        assertThat(parseModifiedTables("with moved as (delete from person returning *) insert into archive select * from moved"))
+                .containsExactly("person", "archive");
+    }
+
+    @Test
+    public void unrestorableStatements() {
+        assertThat(parseModifiedTables("create table person (id int)")).isNull();
+        assertThat(parseModifiedTables("alter table person add column age int")).isNull();
+        assertThat(parseModifiedTables("truncate person cascade")).isNull();
+        assertThat(parseModifiedTables("insert into person values (nextval('person_seq'))")).isNull();
+        assertThat(parseModifiedTables("insert into person values (1); drop table address")).isNull();
+        assertThat(parseModifiedTables("with ids as (select id from person) select * from ids")).isNull();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.context;
+
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+
+import static io.zonky.test.db.util.SqlUtils.isReadOnlyStatement;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.mock;
+
+public class WriteTrackingDataSourceTest {
+
+    @Test
+    public void readOnlyStatements() {
+        assertThat(isReadOnlyStatement("select * from person")).isTrue();
+        assertThat(isReadOnlyStatement("  /* comment */ SELECT id, updated_at FROM person")).isTrue();
+        assertThat(isReadOnlyStatement("-- comment\n(select 1) union (select 2)")).isTrue();
+        assertThat(isReadOnlyStatement("with t as (select 1) select * from t")).isTrue();
+        assertThat(isReadOnlyStatement("show search_path")).isTrue();
+        assertThat(isReadOnlyStatement("commit")).isTrue();
+    }
+
+    @Test
+    public void writeStatements() {
+        assertThat(isReadOnlyStatement("insert into person values (1)")).isFalse();
+        assertThat(isReadOnlyStatement("update person set name = 'x'")).isFalse();
+        assertThat(isReadOnlyStatement("create table test (id int)")).isFalse();
+        assertThat(isReadOnlyStatement("with t as (delete from person returning *) select * from t")).isFalse();
+        assertThat(isReadOnlyStatement("select * into backup from person")).isFalse();
+        assertThat(isReadOnlyStatement("select nextval('person_seq')")).isFalse();
+        assertThat(isReadOnlyStatement("explain analyze delete from person")).isFalse();
+        assertThat(isReadOnlyStatement("set search_path to test")).isFalse();
+        assertThat(isReadOnlyStatement("")).isFalse();
+    }
+
+    @Test
+    public void trackStatements() throws Exception {
+        WriteTrackingDataSource dataSource = WriteTrackingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement().executeQuery("select 1");
+            connection.prepareStatement("select * from person").executeQuery();
+            assertThat(dataSource.hasWrites()).isFalse();
+
+            connection.prepareStatement("delete from person").execute();
+            assertThat(dataSource.hasWrites()).isTrue();
+        }
+    }
+
+    @Test
+    public void trackUpdatableResultSets() throws Exception {
+        WriteTrackingDataSource dataSource = WriteTrackingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE).executeQuery("select * from person");
+            assertThat(dataSource.hasWrites()).isTrue();
+        }
+    }
+
+    @Test
+    public void trackCallableStatements() throws Exception {
+        WriteTrackingDataSource dataSource = WriteTrackingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.prepareCall("{call select_person()}").execute();
+            assertThat(dataSource.hasWrites()).isTrue();
+        }
+    }
+}
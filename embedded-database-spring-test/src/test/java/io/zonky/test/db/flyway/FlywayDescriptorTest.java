@@ -2,6 +2,9 @@ package io.zonky.test.db.flyway;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.zonky.test.category.FlywayTestSuite;
 import org.flywaydb.core.api.callback.BaseCallback;
 import org.flywaydb.core.api.callback.Event;
@@ -154,6 +157,38 @@ public class FlywayDescriptorTest {
         assertThat(descriptor1).isNotEqualTo(descriptor4);
     }
 
+    @Test
+    public void testFingerprint() throws ClassNotFoundException {
+        FlywayWrapper wrapper1 = FlywayWrapper.newInstance();
+        wrapper1.setLocations(ImmutableList.of("db/migration"));
+        wrapper1.setSchemas(ImmutableList.of("schema1"));
+
+        FlywayWrapper wrapper2 = FlywayWrapper.newInstance();
+        wrapper2.setLocations(ImmutableList.of("db/migration"));
+        wrapper2.setSchemas(ImmutableList.of("schema1"));
+
+        FlywayWrapper wrapper3 = FlywayWrapper.newInstance();
+        wrapper3.setLocations(ImmutableList.of("db/migration"));
+        wrapper3.setSchemas(ImmutableList.of("schema2"));
+
+        Hasher hasher1 = Hashing.sha256().newHasher();
+        Hasher hasher2 = Hashing.sha256().newHasher();
+        Hasher hasher3 = Hashing.sha256().newHasher();
+
+        assertThat(FlywayDescriptor.from(wrapper1).putFingerprint(hasher1)).isTrue();
+        assertThat(FlywayDescriptor.from(wrapper2).putFingerprint(hasher2)).isTrue();
+        assertThat(FlywayDescriptor.from(wrapper3).putFingerprint(hasher3)).isTrue();
+
+        HashCode hash1 = hasher1.hash();
+        assertThat(hash1).isEqualTo(hasher2.hash());
+        assertThat(hash1).isNotEqualTo(hasher3.hash());
+
+        FlywayWrapper wrapper4 = FlywayWrapper.newInstance();
+        wrapper4.setCallbacks(createMockCallbacks());
+
+        assertThat(FlywayDescriptor.from(wrapper4).putFingerprint(Hashing.sha256().newHasher())).isFalse();
+    }
+
     @Test
     public void testEnvsFields() {
         FlywayWrapper wrapper1 = FlywayWrapper.newInstance();
@@ -44,4 +44,31 @@ public class LiquibaseDatabasePreparerTest {
     public void estimatedDuration() {
         assertThat(preparer.estimatedDuration()).isEqualTo(214);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void fingerprint() {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setChangeLog("classpath:/db/changelog/db.changelog-master.yaml");
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        LiquibaseDatabasePreparer samePreparer = new LiquibaseDatabasePreparer(LiquibaseDescriptor.from(liquibase));
+
+        liquibase.setContexts("test");
+        LiquibaseDatabasePreparer otherPreparer = new LiquibaseDatabasePreparer(LiquibaseDescriptor.from(liquibase));
+
+        assertThat(preparer.fingerprint()).isNotNull().isEqualTo(samePreparer.fingerprint());
+        assertThat(preparer.fingerprint()).isNotEqualTo(otherPreparer.fingerprint());
+    }
+
+    @Test
+    public void fingerprintOfRootChangeLog() {
+        assertThat(rootPreparer("classpath:/liquibase-root-changelog.yaml").fingerprint()).isNotNull();
+        assertThat(rootPreparer("classpath:/liquibase-root-include-changelog.yaml").fingerprint()).isNull();
+    }
+
+    private static LiquibaseDatabasePreparer rootPreparer(String changeLog) {
+        SpringLiquibase liquibase = new SpringLiquibase();
+        liquibase.setChangeLog(changeLog);
+        liquibase.setResourceLoader(new DefaultResourceLoader());
+        return new LiquibaseDatabasePreparer(LiquibaseDescriptor.from(liquibase));
+    }
+}
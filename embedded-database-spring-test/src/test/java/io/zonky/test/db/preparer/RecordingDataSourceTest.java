@@ -40,6 +40,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -82,6 +83,169 @@ public class RecordingDataSourceTest {
         inOrder.verify(mockConnection).close();
     }
 
+    @Test
+    public void testRepeatedReplay() throws SQLException {
+        RecordingDataSource recordingDataSource = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        Connection connection = recordingDataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement("update person set name = ? where id = ?");
+        statement.setInt(1, 1);
+        statement.setString(2, null);
+        statement.execute();
+        statement.close();
+        connection.close();
+
+        DatabasePreparer preparer = recordingDataSource.getPreparer();
+
+        for (int i = 0; i < 2; i++) {
+            DataSource mockDataSource = mock(DataSource.class);
+            Connection mockConnection = mock(Connection.class);
+            PreparedStatement mockStatement = mock(PreparedStatement.class);
+
+            when(mockDataSource.getConnection()).thenReturn(mockConnection);
+            when(mockConnection.prepareStatement(anyString())).thenReturn(mockStatement);
+
+            preparer.prepare(mockDataSource);
+
+            InOrder inOrder = inOrder(mockDataSource, mockConnection, mockStatement);
+            inOrder.verify(mockDataSource).getConnection();
+            inOrder.verify(mockConnection).prepareStatement("update person set name = ? where id = ?");
+            inOrder.verify(mockStatement).setInt(1, 1);
+            inOrder.verify(mockStatement).setString(2, null);
+            inOrder.verify(mockStatement).execute();
+            inOrder.verify(mockStatement).close();
+            inOrder.verify(mockConnection).close();
+        }
+    }
+
+    @Test
+    public void testBatchedReplay() throws SQLException {
+        RecordingDataSource recordingDataSource = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        Connection connection = recordingDataSource.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement("insert into person values (?)");
+        for (int i = 0; i < 3; i++) {
+            preparedStatement.setInt(1, i);
+            preparedStatement.executeUpdate();
+        }
+        preparedStatement.close();
+
+        for (int i = 0; i < 2; i++) {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("delete from person where id = " + i);
+            statement.close();
+        }
+        connection.close();
+
+        DataSource mockDataSource = mock(DataSource.class);
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockPreparedStatement = mock(PreparedStatement.class);
+        Statement mockStatement = mock(Statement.class);
+
+        when(mockDataSource.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.prepareStatement(anyString())).thenReturn(mockPreparedStatement);
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+
+        DatabasePreparer preparer = recordingDataSource.getPreparer();
+        preparer.prepare(mockDataSource);
+
+        InOrder inOrder = inOrder(mockDataSource, mockConnection, mockPreparedStatement, mockStatement);
+        inOrder.verify(mockDataSource).getConnection();
+        inOrder.verify(mockConnection).prepareStatement("insert into person values (?)");
+        inOrder.verify(mockPreparedStatement).setInt(1, 0);
+        inOrder.verify(mockPreparedStatement).addBatch();
+        inOrder.verify(mockPreparedStatement).setInt(1, 1);
+        inOrder.verify(mockPreparedStatement).addBatch();
+        inOrder.verify(mockPreparedStatement).setInt(1, 2);
+        inOrder.verify(mockPreparedStatement).addBatch();
+        inOrder.verify(mockPreparedStatement).executeBatch();
+        inOrder.verify(mockPreparedStatement).close();
+        inOrder.verify(mockConnection).createStatement();
+        inOrder.verify(mockStatement).addBatch("delete from person where id = 0");
+        inOrder.verify(mockStatement).addBatch("delete from person where id = 1");
+        inOrder.verify(mockStatement).executeBatch();
+        inOrder.verify(mockStatement).close();
+        inOrder.verify(mockConnection).close();
+
+        verify(mockPreparedStatement, never()).executeUpdate();
+        verify(mockStatement, never()).executeUpdate(anyString());
+    }
+
+    @Test
+    public void testReadOnlyStatementsRemoval() throws SQLException {
+        RecordingDataSource recordingDataSource1 = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+        RecordingDataSource recordingDataSource2 = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        Connection connection1 = recordingDataSource1.getConnection();
+        PreparedStatement query = connection1.prepareStatement("select count(*) from person where name = ?");
+        query.setString(1, "name");
+        ResultSet resultSet = query.executeQuery();
+        resultSet.next();
+        resultSet.close();
+        query.close();
+        Statement statement1 = connection1.createStatement();
+        statement1.executeUpdate("insert into person values (1)");
+        statement1.close();
+        connection1.close();
+
+        Connection readOnlyConnection = recordingDataSource1.getConnection();
+        readOnlyConnection.setAutoCommit(false);
+        Statement readOnlyStatement = readOnlyConnection.createStatement();
+        readOnlyStatement.execute("select * from person");
+        readOnlyStatement.close();
+        readOnlyConnection.commit();
+        readOnlyConnection.close();
+
+        Connection connection2 = recordingDataSource2.getConnection();
+        Statement statement2 = connection2.createStatement();
+        statement2.executeUpdate("insert into person values (1)");
+        statement2.close();
+        connection2.close();
+
+        DatabasePreparer preparer1 = recordingDataSource1.getPreparer();
+        DatabasePreparer preparer2 = recordingDataSource2.getPreparer();
+
+        assertThat(preparer1).isEqualTo(preparer2);
+
+        DataSource mockDataSource = mock(DataSource.class);
+        Connection mockConnection = mock(Connection.class);
+        Statement mockStatement = mock(Statement.class);
+
+        when(mockDataSource.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+
+        preparer1.prepare(mockDataSource);
+
+        verify(mockDataSource).getConnection();
+        verify(mockConnection, never()).prepareStatement(anyString());
+        verify(mockStatement).executeUpdate("insert into person values (1)");
+        verify(mockStatement, never()).execute(anyString());
+    }
+
+    @Test
+    public void testSideEffectQueriesAreKept() throws SQLException {
+        RecordingDataSource recordingDataSource = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
+
+        Connection connection = recordingDataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.executeQuery("select pg_catalog.set_config('search_path', '', false)").close();
+        statement.execute("select nextval('person_seq')");
+        statement.close();
+        connection.close();
+
+        DataSource mockDataSource = mock(DataSource.class, RETURNS_MOCKS);
+        Connection mockConnection = mock(Connection.class);
+        Statement mockStatement = mock(Statement.class, RETURNS_MOCKS);
+
+        when(mockDataSource.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.createStatement()).thenReturn(mockStatement);
+
+        recordingDataSource.getPreparer().prepare(mockDataSource);
+
+        verify(mockStatement).executeQuery("select pg_catalog.set_config('search_path', '', false)");
+        verify(mockStatement).execute("select nextval('person_seq')");
+    }
+
     @Test
     public void testResultSet() throws SQLException {
         RecordingDataSource recordingDataSource = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
@@ -371,6 +535,44 @@ public class RecordingDataSourceTest {
         verify(mockStatement).setCharacterStream(anyInt(), any());
     }
 
+    @Test
+    public void testLargeInputStream() throws SQLException {
+        byte[] data = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+
+        RecordingDataSource recordingDataSource = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_DEEP_STUBS));
+
+        Connection connection = recordingDataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement("insert data");
+        statement.setBinaryStream(1, new ByteArrayInputStream(data));
+        statement.executeUpdate();
+
+        statement.close();
+        connection.close();
+
+        DataSource mockDataSource = mock(DataSource.class);
+        Connection mockConnection = mock(Connection.class);
+        PreparedStatement mockStatement = mock(PreparedStatement.class);
+
+        when(mockDataSource.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.prepareStatement(any())).thenReturn(mockStatement);
+
+        doAnswer(invocation -> {
+            InputStream stream = invocation.getArgument(1, InputStream.class);
+            byte[] bytes = StreamUtils.copyToByteArray(stream);
+            checkState(Arrays.equals(bytes, data));
+            return null;
+        }).when(mockStatement).setBinaryStream(eq(1), any());
+
+        DatabasePreparer preparer = recordingDataSource.getPreparer();
+        preparer.prepare(mockDataSource);
+        preparer.prepare(mockDataSource);
+
+        verify(mockStatement, times(2)).setBinaryStream(anyInt(), any());
+    }
+
     @Test
     public void testEquals() throws SQLException {
         RecordingDataSource recordingDataSource1 = RecordingDataSource.wrap(mock(DataSource.class, RETURNS_MOCKS));
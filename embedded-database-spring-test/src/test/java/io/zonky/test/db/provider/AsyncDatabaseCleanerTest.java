@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider;
+
+import io.zonky.test.db.provider.support.AsyncDatabaseCleaner;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncDatabaseCleanerTest {
+
+    @Test
+    public void databasesAreDroppedOverSingleConnection() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+
+        AsyncDatabaseCleaner cleaner = new AsyncDatabaseCleaner("test", dataSource);
+        cleaner.dropDatabase("first");
+        cleaner.dropDatabase("second").join();
+
+        verify(dataSource, times(1)).getConnection();
+        verify(statement).execute("DROP DATABASE IF EXISTS first");
+        verify(statement).execute("DROP DATABASE IF EXISTS second");
+
+        assertThat(cleaner.getCompletedCleanups()).isEqualTo(2);
+        assertThat(cleaner.getFailedCleanups()).isZero();
+        assertThat(cleaner.getPendingCleanups()).isZero();
+    }
+
+    @Test
+    public void failuresAreCountedAndConnectionIsReestablished() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute("DROP DATABASE IF EXISTS first")).thenThrow(new SQLException("connection lost"));
+
+        AsyncDatabaseCleaner cleaner = new AsyncDatabaseCleaner("test", dataSource);
+        cleaner.dropDatabase("first").join();
+        cleaner.dropDatabase("second").join();
+
+        verify(connection).close();
+        verify(dataSource, times(2)).getConnection();
+        verify(statement).execute("DROP DATABASE IF EXISTS second");
+
+        assertThat(cleaner.getCompletedCleanups()).isEqualTo(1);
+        assertThat(cleaner.getFailedCleanups()).isEqualTo(1);
+        assertThat(cleaner.getPendingCleanups()).isZero();
+    }
+
+    @Test
+    public void unexpectedExceptionsAreNotPropagated() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute("DROP DATABASE IF EXISTS first")).thenThrow(new IllegalStateException("driver failure"));
+
+        AsyncDatabaseCleaner cleaner = new AsyncDatabaseCleaner("test", dataSource);
+        CompletableFuture<Void> future = cleaner.dropDatabase("first");
+        future.join();
+        cleaner.dropDatabase("second").join();
+
+        assertThat(future.isCompletedExceptionally()).isFalse();
+        verify(connection).close();
+        verify(dataSource, times(2)).getConnection();
+        verify(statement).execute("DROP DATABASE IF EXISTS second");
+
+        assertThat(cleaner.getCompletedCleanups()).isEqualTo(1);
+        assertThat(cleaner.getFailedCleanups()).isEqualTo(1);
+        assertThat(cleaner.getPendingCleanups()).isZero();
+    }
+}
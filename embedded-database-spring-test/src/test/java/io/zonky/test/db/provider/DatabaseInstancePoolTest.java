@@ -0,0 +1,154 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider;
+
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.support.DatabaseInstancePool;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.InstanceMetrics;
+import io.zonky.test.db.provider.support.DatabaseInstancePool.PlacementPolicy;
+import io.zonky.test.db.provider.support.SimpleDatabaseTemplate;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.Mockito.mock;
+
+public class DatabaseInstancePoolTest {
+
+    @Test
+    public void lazyPoolStartsInstancesOnlyWhenBusy() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        DatabaseInstancePool<Integer> pool = DatabaseInstancePool.lazy("test", 2, PlacementPolicy.LEAST_LOADED, counter::incrementAndGet);
+
+        pool.createDatabase(request(), (instance, request) -> mock(EmbeddedDatabase.class));
+        pool.createDatabase(request(), (instance, request) -> mock(EmbeddedDatabase.class));
+
+        assertThat(counter.get()).isEqualTo(1);
+        assertThat(pool.getMetrics()).hasSize(1);
+
+        pool.createDatabase(request(), (outer, request) -> pool.createDatabase(request(), (inner, r) -> {
+            assertThat(inner).isNotEqualTo(outer);
+            return mock(EmbeddedDatabase.class);
+        }));
+
+        assertThat(counter.get()).isEqualTo(2);
+        assertThat(pool.getMetrics()).extracting(InstanceMetrics::getDatabases).containsExactly(3L, 1L);
+    }
+
+    @Test
+    public void roundRobinPoolUsesAllInstances() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        DatabaseInstancePool<Integer> pool = DatabaseInstancePool.eager("test", 3, PlacementPolicy.ROUND_ROBIN, counter::incrementAndGet);
+
+        for (int i = 0; i < 6; i++) {
+            pool.createDatabase(request(), (instance, request) -> mock(EmbeddedDatabase.class));
+        }
+
+        assertThat(counter.get()).isEqualTo(3);
+        assertThat(pool.getMetrics()).extracting(InstanceMetrics::getDatabases).containsExactly(2L, 2L, 2L);
+    }
+
+    @Test
+    public void templatesAreMaterializedOncePerInstance() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        DatabaseInstancePool<Integer> pool = DatabaseInstancePool.eager("test", 2, PlacementPolicy.ROUND_ROBIN, counter::incrementAndGet);
+
+        Map<String, Integer> templates = new ConcurrentHashMap<>();
+        DatabaseTemplate template = pool.createTemplate(request(), (instance, request) -> {
+            String templateName = "template" + instance;
+            templates.put(templateName, instance);
+            return new SimpleDatabaseTemplate(templateName, () -> templates.remove(templateName));
+        });
+
+        for (int i = 0; i < 4; i++) {
+            pool.createDatabase(DatabaseRequest.of(mock(DatabasePreparer.class), template), (instance, request) -> {
+                assertThat(templates).containsEntry(request.getTemplate().getTemplateName(), instance);
+                return mock(EmbeddedDatabase.class);
+            });
+        }
+
+        List<InstanceMetrics> metrics = pool.getMetrics();
+        assertThat(metrics).extracting(InstanceMetrics::getTemplates).containsExactly(1L, 0L);
+        assertThat(metrics).extracting(InstanceMetrics::getReplicatedTemplates).containsExactly(0L, 1L);
+        assertThat(templates).hasSize(2);
+
+        template.close();
+
+        assertThat(templates).isEmpty();
+    }
+
+    @Test
+    public void templateClosedDuringMaterializationIsClosedOnce() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        DatabaseInstancePool<Integer> pool = DatabaseInstancePool.eager("test", 2, PlacementPolicy.ROUND_ROBIN, counter::incrementAndGet);
+
+        Map<String, AtomicInteger> closeCounts = new ConcurrentHashMap<>();
+        AtomicReference<DatabaseTemplate> pooledTemplate = new AtomicReference<>();
+        pooledTemplate.set(pool.createTemplate(request(), (instance, request) -> {
+            String templateName = "template" + instance;
+            closeCounts.put(templateName, new AtomicInteger());
+            if (pooledTemplate.get() != null) {
+                pooledTemplate.get().close();
+            }
+            return new SimpleDatabaseTemplate(templateName, () -> closeCounts.get(templateName).incrementAndGet());
+        }));
+
+        pool.createDatabase(DatabaseRequest.of(mock(DatabasePreparer.class), pooledTemplate.get()), (instance, request) -> mock(EmbeddedDatabase.class));
+        pool.createDatabase(DatabaseRequest.of(mock(DatabasePreparer.class), pooledTemplate.get()), (instance, request) -> mock(EmbeddedDatabase.class));
+        pooledTemplate.get().close();
+
+        assertThat(closeCounts).hasSize(2);
+        assertThat(closeCounts.values()).extracting(AtomicInteger::get).containsOnly(1);
+    }
+
+    @Test
+    public void failedInstanceIsReplaced() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        DatabaseInstancePool<Integer> pool = DatabaseInstancePool.lazy("test", 1, PlacementPolicy.LEAST_LOADED, () -> {
+            if (counter.incrementAndGet() == 1) {
+                throw new IllegalStateException("Instance startup failed");
+            }
+            return counter.get();
+        });
+
+        assertThatCode(() -> pool.createDatabase(request(), (instance, request) -> mock(EmbeddedDatabase.class)))
+                .isExactlyInstanceOf(ProviderException.class)
+                .hasRootCauseInstanceOf(IllegalStateException.class);
+        assertThat(pool.getMetrics()).isEmpty();
+
+        for (int i = 0; i < 2; i++) {
+            pool.createDatabase(request(), (instance, request) -> {
+                assertThat(instance).isEqualTo(2);
+                return mock(EmbeddedDatabase.class);
+            });
+        }
+
+        assertThat(counter.get()).isEqualTo(2);
+        assertThat(pool.getMetrics()).extracting(InstanceMetrics::getIndex).containsExactly(1);
+        assertThat(pool.getMetrics()).extracting(InstanceMetrics::getDatabases).containsExactly(2L);
+    }
+
+    private static DatabaseRequest request() {
+        return DatabaseRequest.of(mock(DatabasePreparer.class));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider;
+
+import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.preparer.CompositeDatabasePreparer;
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.support.PersistentDatabaseTemplate;
+import io.zonky.test.db.provider.support.SimpleDatabaseTemplate;
+import io.zonky.test.db.support.TestDatabasePreparer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PersistentDatabaseTemplateTest {
+
+    @Test
+    public void fingerprintDoesNotDependOnTemplateBoundaries() {
+        DatabasePreparer preparer1 = preparer("1");
+        DatabasePreparer preparer2 = preparer("2");
+        DatabasePreparer preparer3 = preparer("3");
+
+        String fullFingerprint = PersistentDatabaseTemplate.fingerprint(DatabaseRequest.of(composite(preparer1, preparer2, preparer3)));
+
+        String templateFingerprint = PersistentDatabaseTemplate.fingerprint(DatabaseRequest.of(composite(preparer1)));
+        PersistentDatabaseTemplate template = new PersistentDatabaseTemplate("template", templateFingerprint);
+        String chainedFingerprint = PersistentDatabaseTemplate.fingerprint(DatabaseRequest.of(composite(preparer2, preparer3), template));
+
+        assertThat(fullFingerprint).isNotNull().isEqualTo(chainedFingerprint);
+        assertThat(templateFingerprint).isNotEqualTo(fullFingerprint);
+    }
+
+    @Test
+    public void unsupportedPreparer() {
+        DatabasePreparer preparer = TestDatabasePreparer.empty("test");
+
+        assertThat(PersistentDatabaseTemplate.fingerprint(DatabaseRequest.of(composite(preparer("1"), preparer)))).isNull();
+    }
+
+    @Test
+    public void regularTemplate() {
+        SimpleDatabaseTemplate template = new SimpleDatabaseTemplate("template", () -> {});
+
+        assertThat(PersistentDatabaseTemplate.fingerprint(DatabaseRequest.of(composite(preparer("1")), template))).isNull();
+    }
+
+    @Test
+    public void emptyPreparer() {
+        assertThat(PersistentDatabaseTemplate.fingerprint(DatabaseRequest.of(composite()))).isNull();
+    }
+
+    private static DatabasePreparer preparer(String fingerprint) {
+        DatabasePreparer preparer = mock(DatabasePreparer.class);
+        when(preparer.fingerprint()).thenReturn(fingerprint);
+        return preparer;
+    }
+
+    private static CompositeDatabasePreparer composite(DatabasePreparer... preparers) {
+        return new CompositeDatabasePreparer(ImmutableList.copyOf(preparers));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider;
+
+import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.provider.common.PipelineProfileStore;
+import io.zonky.test.db.provider.common.PipelineProfileStore.PipelineProfile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PipelineProfileStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void missingFile() {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profiles.txt");
+        PipelineProfileStore store = new PipelineProfileStore(file);
+
+        assertThat(store.getProfile("fingerprint")).isNull();
+    }
+
+    @Test
+    public void saveAndLoad() {
+        Path file = temporaryFolder.getRoot().toPath().resolve("build").resolve("profiles.txt");
+        long now = System.currentTimeMillis();
+
+        new PipelineProfileStore(file).save(ImmutableList.of(
+                new PipelineProfile("fingerprint1", 10, 100, 500, now),
+                new PipelineProfile("fingerprint2", 2, 300, 1000, now)));
+
+        PipelineProfileStore store = new PipelineProfileStore(file);
+        PipelineProfile profile = store.getProfile("fingerprint1");
+        assertThat(profile.getRequestCount()).isEqualTo(10);
+        assertThat(profile.getRequestInterval()).isEqualTo(100);
+        assertThat(profile.getPreparationTime()).isEqualTo(500);
+        assertThat(store.getProfile("fingerprint2")).isNotNull();
+    }
+
+    @Test
+    public void mergeWithConcurrentlySavedProfiles() {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profiles.txt");
+        long now = System.currentTimeMillis();
+
+        PipelineProfileStore store1 = new PipelineProfileStore(file);
+        PipelineProfileStore store2 = new PipelineProfileStore(file);
+
+        store1.save(ImmutableList.of(new PipelineProfile("fingerprint1", 10, 100, 500, now)));
+        store2.save(ImmutableList.of(new PipelineProfile("fingerprint2", 5, 100, 500, now)));
+
+        PipelineProfileStore store = new PipelineProfileStore(file);
+        assertThat(store.getProfile("fingerprint1")).isNotNull();
+        assertThat(store.getProfile("fingerprint2")).isNotNull();
+    }
+
+    @Test
+    public void invalidLinesAreIgnored() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profiles.txt");
+        Files.write(file, ImmutableList.of("invalid", "fingerprint1;10;100;abc;0", "fingerprint2;10;100;500;0"));
+
+        PipelineProfileStore store = new PipelineProfileStore(file);
+        assertThat(store.getProfile("fingerprint1")).isNull();
+        assertThat(store.getProfile("fingerprint2")).isNotNull();
+    }
+}
@@ -18,6 +18,8 @@ package io.zonky.test.db.provider;
 
 import io.zonky.test.db.preparer.DatabasePreparer;
 import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.Config;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.ExecutorMode;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -91,4 +93,20 @@ public class PrefetchingDatabaseProviderTest {
 
         verify(databaseProvider, timeout(100).times(9)).createDatabase(any(DatabasePreparer.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConfigEquality() {
+        Config config = Config.builder().build();
+
+        assertThat(config).isEqualTo(Config.builder().build());
+        assertThat(config.hashCode()).isEqualTo(Config.builder().build().hashCode());
+
+        assertThat(config).isNotEqualTo(Config.builder().withPipelineMaxCacheSize(10).build());
+        assertThat(config).isNotEqualTo(Config.builder().withExecutorMode(ExecutorMode.ISOLATED).build());
+        assertThat(config).isNotEqualTo(Config.builder().withVirtualThreads(true).build());
+        assertThat(config).isNotEqualTo(Config.builder().withProfileFile("profiles.txt").build());
+
+        assertThat(prefetchingProvider).isNotEqualTo(new PrefetchingDatabaseProvider(databaseProvider,
+                Config.builder().withExecutorMode(ExecutorMode.ISOLATED).build()));
+    }
+}
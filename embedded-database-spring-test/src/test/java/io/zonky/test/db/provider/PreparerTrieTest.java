@@ -0,0 +1,169 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider;
+
+import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.common.PreparerTrie;
+import io.zonky.test.db.support.TestDatabasePreparer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreparerTrieTest {
+
+    private final PreparerTrie<String> trie = new PreparerTrie<>();
+
+    @Test
+    public void exactMatch() {
+        trie.put("provider", preparers("1", "2"), "value");
+
+        assertThat(trie.get("provider", preparers("1", "2"))).isEqualTo("value");
+        assertThat(trie.get("provider", preparers("1"))).isNull();
+        assertThat(trie.get("provider", preparers("1", "2", "3"))).isNull();
+        assertThat(trie.get("otherProvider", preparers("1", "2"))).isNull();
+    }
+
+    @Test
+    public void longestPrefix() {
+        trie.put("provider", preparers("1"), "value1");
+        trie.put("provider", preparers("1", "2", "3"), "value3");
+
+        PreparerTrie.Match<String> match = trie.findLongestPrefix("provider", preparers("1", "2", "3", "4"));
+        assertThat(match.getLength()).isEqualTo(3);
+        assertThat(match.getValue()).isEqualTo("value3");
+
+        match = trie.findLongestPrefix("provider", preparers("1", "2", "4"));
+        assertThat(match.getLength()).isEqualTo(1);
+        assertThat(match.getValue()).isEqualTo("value1");
+
+        assertThat(trie.findLongestPrefix("provider", preparers("2", "3"))).isNull();
+    }
+
+    @Test
+    public void allPrefixes() {
+        trie.put("provider", preparers("1"), "value1");
+        trie.put("provider", preparers("1", "2", "3"), "value3");
+
+        List<PreparerTrie.Match<String>> matches = trie.findPrefixes("provider", preparers("1", "2", "3"));
+        assertThat(matches).extracting(PreparerTrie.Match::getLength).containsExactly(1, 3);
+        assertThat(matches).extracting(PreparerTrie.Match::getValue).containsExactly("value1", "value3");
+    }
+
+    @Test
+    public void removeValue() {
+        trie.put("provider", preparers("1", "2"), "value");
+
+        assertThat(trie.remove("provider", preparers("1", "2"), "otherValue")).isFalse();
+        assertThat(trie.get("provider", preparers("1", "2"))).isEqualTo("value");
+
+        assertThat(trie.remove("provider", preparers("1", "2"), "value")).isTrue();
+        assertThat(trie.get("provider", preparers("1", "2"))).isNull();
+        assertThat(trie.findLongestPrefix("provider", preparers("1", "2"))).isNull();
+    }
+
+    @Test
+    public void removePrunesEmptyNodes() {
+        trie.put("provider", preparers("1"), "value1");
+        trie.put("provider", preparers("1", "2", "3"), "value3");
+
+        assertThat(trie.remove("provider", preparers("1", "2", "3"), "value3")).isTrue();
+        assertThat(trie.get("provider", preparers("1"))).isEqualTo("value1");
+        assertThat(trie.isEmpty()).isFalse();
+
+        assertThat(trie.remove("provider", preparers("1"), "value1")).isTrue();
+        assertThat(trie.isEmpty()).isTrue();
+
+        for (int i = 0; i < 100; i++) {
+            String value = "value" + i;
+            trie.put("provider", preparers("1", "2", String.valueOf(i)), value);
+            assertThat(trie.remove("provider", preparers("1", "2", String.valueOf(i)), value)).isTrue();
+        }
+        assertThat(trie.isEmpty()).isTrue();
+
+        trie.put("provider", preparers("1", "2"), "value2");
+        assertThat(trie.get("provider", preparers("1", "2"))).isEqualTo("value2");
+    }
+
+    @Test
+    public void pruningDoesNotLoseConcurrentlyAddedValues() throws Exception {
+        int threads = 4;
+        int iterations = 10000;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < iterations; i++) {
+                        if (i % 100 == 0) {
+                            barrier.await();
+                        }
+                        String value = thread + "-" + i;
+                        trie.put("provider", preparers("1", String.valueOf(i), String.valueOf(thread)), value);
+                        if (thread % 2 == 0) {
+                            assertThat(trie.remove("provider", preparers("1", String.valueOf(i), String.valueOf(thread)), value)).isTrue();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < iterations; i++) {
+                String value = t % 2 == 0 ? null : t + "-" + i;
+                assertThat(trie.get("provider", preparers("1", String.valueOf(i), String.valueOf(t)))).isEqualTo(value);
+            }
+        }
+    }
+
+    @Test
+    public void computePrefixes() {
+        AtomicInteger counter = new AtomicInteger();
+
+        List<String> values = trie.computePrefixes("provider", preparers("1", "2"), () -> "value" + counter.incrementAndGet());
+        assertThat(values).containsExactly("value1", "value2");
+
+        values = trie.computePrefixes("provider", preparers("1", "2", "3"), () -> "value" + counter.incrementAndGet());
+        assertThat(values).containsExactly("value1", "value2", "value3");
+    }
+
+    private static List<DatabasePreparer> preparers(String... identifiers) {
+        ImmutableList.Builder<DatabasePreparer> builder = ImmutableList.builder();
+        for (String identifier : identifiers) {
+            builder.add(TestDatabasePreparer.empty(identifier));
+        }
+        return builder.build();
+    }
+}
@@ -22,7 +22,9 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -149,6 +151,164 @@ public class TemplatingDatabaseProviderTest {
                 .hasMessage("test exception");
     }
 
+    @Test
+    public void failedTemplateShouldNotPoisonTheKey() {
+        DatabasePreparer preparer = TestDatabasePreparer.empty();
+        DatabaseTemplate template = new TestDatabaseTemplate("template");
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class);
+
+        when(mockProvider.createTemplate(any())).thenThrow(new ProviderException("test exception")).thenReturn(template);
+        when(mockProvider.createDatabase(any(DatabaseRequest.class))).thenReturn(database);
+
+        assertThatCode(() -> optimizingProvider.createDatabase(preparer))
+                .isExactlyInstanceOf(ProviderException.class);
+        assertThat(optimizingProvider.createDatabase(preparer)).isSameAs(database);
+
+        InOrder inOrder = inOrder(mockProvider);
+        inOrder.verify(mockProvider, times(2)).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(preparer))));
+        inOrder.verify(mockProvider).createDatabase(databaseRequest(EMPTY_PREPARER, template));
+    }
+
+    @Test
+    public void createTemplateInBackground() throws Exception {
+        TemplatingDatabaseProvider backgroundProvider = new TemplatingDatabaseProvider(mockProvider,
+                TemplatingDatabaseProvider.Config.builder().withBackgroundTemplates(true).build());
+
+        DatabasePreparer preparer = TestDatabasePreparer.empty();
+        CompositeDatabasePreparer compositePreparer = new CompositeDatabasePreparer(ImmutableList.of(preparer));
+        DatabaseTemplate template = new TestDatabaseTemplate("template");
+
+        EmbeddedDatabase database1 = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase database2 = mock(EmbeddedDatabase.class);
+
+        long completedCount = TemplatingDatabaseProvider.getMetrics().getCompletedCount();
+
+        when(mockProvider.createTemplate(any())).thenReturn(template);
+        when(mockProvider.createDatabase(databaseRequest(compositePreparer))).thenReturn(database1);
+        when(mockProvider.createDatabase(databaseRequest(EMPTY_PREPARER, template))).thenReturn(database2);
+
+        assertThat(backgroundProvider.createDatabase(preparer)).isSameAs(database1);
+
+        awaitPendingTemplates();
+        assertThat(TemplatingDatabaseProvider.getMetrics().getCompletedCount()).isGreaterThan(completedCount);
+
+        assertThat(backgroundProvider.createDatabase(preparer)).isSameAs(database2);
+    }
+
+    @Test
+    public void failedBackgroundTemplateShouldFallBack() throws Exception {
+        TemplatingDatabaseProvider backgroundProvider = new TemplatingDatabaseProvider(mockProvider,
+                TemplatingDatabaseProvider.Config.builder().withBackgroundTemplates(true).build());
+
+        DatabasePreparer preparer = TestDatabasePreparer.empty();
+        CompositeDatabasePreparer compositePreparer = new CompositeDatabasePreparer(ImmutableList.of(preparer));
+        DatabaseTemplate template = new TestDatabaseTemplate("template");
+
+        EmbeddedDatabase database1 = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase database2 = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase database3 = mock(EmbeddedDatabase.class);
+
+        long failedCount = TemplatingDatabaseProvider.getMetrics().getFailedCount();
+
+        when(mockProvider.createTemplate(any())).thenThrow(new ProviderException("test exception")).thenReturn(template);
+        when(mockProvider.createDatabase(databaseRequest(compositePreparer))).thenReturn(database1, database2);
+        when(mockProvider.createDatabase(databaseRequest(EMPTY_PREPARER, template))).thenReturn(database3);
+
+        assertThat(backgroundProvider.createDatabase(preparer)).isSameAs(database1);
+
+        awaitPendingTemplates();
+        assertThat(TemplatingDatabaseProvider.getMetrics().getFailedCount()).isGreaterThan(failedCount);
+
+        assertThat(backgroundProvider.createDatabase(preparer)).isSameAs(database2);
+
+        awaitPendingTemplates();
+        assertThat(backgroundProvider.createDatabase(preparer)).isSameAs(database3);
+    }
+
+    @Test
+    public void createCheckpointForSharedPrefix() {
+        TemplatingDatabaseProvider checkpointingProvider = new TemplatingDatabaseProvider(mockProvider,
+                TemplatingDatabaseProvider.Config.builder().withCheckpoints(true).build());
+
+        DatabasePreparer corePreparer = TestDatabasePreparer.of("core", 100, dataSource -> {});
+        DatabasePreparer fixture1 = TestDatabasePreparer.empty();
+        DatabasePreparer fixture2 = TestDatabasePreparer.empty();
+
+        DatabaseTemplate template1 = new TestDatabaseTemplate("template1");
+        DatabaseTemplate checkpoint = new TestDatabaseTemplate("checkpoint");
+        DatabaseTemplate template2 = new TestDatabaseTemplate("template2");
+
+        EmbeddedDatabase database1 = mock(EmbeddedDatabase.class);
+        EmbeddedDatabase database2 = mock(EmbeddedDatabase.class);
+
+        when(mockProvider.createTemplate(any())).thenReturn(template1, checkpoint, template2);
+        when(mockProvider.createDatabase(any(DatabaseRequest.class))).thenReturn(database1, database2);
+
+        assertThat(checkpointingProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture1)))).isSameAs(database1);
+        assertThat(checkpointingProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture2)))).isSameAs(database2);
+
+        InOrder inOrder = inOrder(mockProvider);
+        inOrder.verify(mockProvider).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture1))));
+        inOrder.verify(mockProvider).createDatabase(databaseRequest(EMPTY_PREPARER, template1));
+        inOrder.verify(mockProvider).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(corePreparer))));
+        inOrder.verify(mockProvider).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(fixture2)), checkpoint));
+        inOrder.verify(mockProvider).createDatabase(databaseRequest(EMPTY_PREPARER, template2));
+    }
+
+    @Test
+    public void checkpointsAreDisabledByDefault() {
+        DatabasePreparer corePreparer = TestDatabasePreparer.of("core", 100, dataSource -> {});
+        DatabasePreparer fixture1 = TestDatabasePreparer.empty();
+        DatabasePreparer fixture2 = TestDatabasePreparer.empty();
+
+        DatabaseTemplate template1 = new TestDatabaseTemplate("template1");
+        DatabaseTemplate template2 = new TestDatabaseTemplate("template2");
+
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class);
+
+        when(mockProvider.createTemplate(any())).thenReturn(template1, template2);
+        when(mockProvider.createDatabase(any(DatabaseRequest.class))).thenReturn(database);
+
+        optimizingProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture1)));
+        optimizingProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture2)));
+
+        verify(mockProvider).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture1))));
+        verify(mockProvider).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture2))));
+        verify(mockProvider, never()).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(corePreparer))));
+    }
+
+    @Test
+    public void checkpointShouldNotBeEvictedBeforeDependentTemplates() {
+        TemplatingDatabaseProvider limitedProvider = new TemplatingDatabaseProvider(mockProvider,
+                TemplatingDatabaseProvider.Config.builder().withMaxTemplateCount(3).withCheckpoints(true).build());
+
+        DatabasePreparer corePreparer = TestDatabasePreparer.of("core", 100, dataSource -> {});
+        DatabasePreparer fixture1 = TestDatabasePreparer.empty();
+        DatabasePreparer fixture2 = TestDatabasePreparer.empty();
+        DatabasePreparer fixture3 = TestDatabasePreparer.empty();
+
+        DatabaseTemplate checkpoint = mock(DatabaseTemplate.class);
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class);
+
+        when(mockProvider.createTemplate(any())).thenReturn(
+                new TestDatabaseTemplate("template1"), checkpoint,
+                new TestDatabaseTemplate("template2"), new TestDatabaseTemplate("template3"));
+        when(mockProvider.createDatabase(any(DatabaseRequest.class))).thenReturn(database);
+
+        limitedProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture1)));
+        limitedProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture2)));
+        limitedProvider.createDatabase(new CompositeDatabasePreparer(ImmutableList.of(corePreparer, fixture3)));
+
+        verify(mockProvider).createTemplate(databaseRequest(new CompositeDatabasePreparer(ImmutableList.of(fixture3)), checkpoint));
+        verify(checkpoint, never()).close();
+    }
+
+    private static void awaitPendingTemplates() throws InterruptedException {
+        for (int i = 0; i < 500 && TemplatingDatabaseProvider.getMetrics().getPendingCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
     private static DatabaseRequest databaseRequest(DatabasePreparer preparer) {
         return databaseRequest(preparer, null);
     }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import com.google.common.collect.ImmutableList;
+import io.zonky.test.db.preparer.CompositeDatabasePreparer;
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PipelineKey;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class PipelineKeyTest {
+
+    private final DatabaseProvider provider = mock(DatabaseProvider.class);
+
+    @Test
+    public void fingerprintIsStableForFingerprintedPreparers() {
+        PipelineKey key = new PipelineKey(provider, composite(new TestPreparer("first"), new TestPreparer("second")));
+        PipelineKey sameKey = new PipelineKey(provider, composite(new TestPreparer("first"), new TestPreparer("second")));
+        PipelineKey otherKey = new PipelineKey(provider, composite(new TestPreparer("first"), new TestPreparer("other")));
+
+        assertThat(key.fingerprint()).isNotNull().isEqualTo(sameKey.fingerprint());
+        assertThat(key.fingerprint()).isNotEqualTo(otherKey.fingerprint());
+    }
+
+    @Test
+    public void fingerprintIsNullIfAnyPreparerIsNotFingerprinted() {
+        PipelineKey key = new PipelineKey(provider, composite(new TestPreparer("first"), new TestPreparer(null)));
+
+        assertThat(key.fingerprint()).isNull();
+        assertThat(key.fingerprint()).isNull();
+    }
+
+    private static DatabasePreparer composite(DatabasePreparer... preparers) {
+        return new CompositeDatabasePreparer(ImmutableList.copyOf(preparers));
+    }
+
+    private static class TestPreparer implements DatabasePreparer {
+
+        private final String fingerprint;
+
+        private TestPreparer(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        public long estimatedDuration() {
+            return 0;
+        }
+
+        @Override
+        public void prepare(DataSource dataSource) {
+            // nothing to do
+        }
+
+        @Override
+        public String fingerprint() {
+            return fingerprint;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.DatabasePipeline;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PipelineStats;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PipelineStatsTest {
+
+    private static final int MAX_DEPTH = 5;
+
+    private long time = 0;
+
+    @Test
+    public void depthGrowsByOneUntilEnoughSamples() {
+        DatabasePipeline pipeline = new DatabasePipeline();
+
+        assertThat(pipeline.updatePrefetchDepth(1, MAX_DEPTH)).isEqualTo(0);
+        assertThat(pipeline.updatePrefetchDepth(2, MAX_DEPTH)).isEqualTo(1);
+        assertThat(pipeline.updatePrefetchDepth(3, MAX_DEPTH)).isEqualTo(2);
+        assertThat(pipeline.updatePrefetchDepth(10, MAX_DEPTH)).isEqualTo(MAX_DEPTH);
+        assertThat(pipeline.getPrefetchDepth()).isEqualTo(MAX_DEPTH);
+    }
+
+    @Test
+    public void depthIsEstimatedOnlyWithEnoughSamples() {
+        PipelineStats stats = new PipelineStats();
+
+        request(stats, 100, 4);
+        prepared(stats, 200, 2);
+        assertThat(stats.estimatePrefetchDepth(MAX_DEPTH)).isEqualTo(-1);
+
+        prepared(stats, 200, 1);
+        assertThat(stats.estimatePrefetchDepth(MAX_DEPTH)).isEqualTo(2);
+    }
+
+    @Test
+    public void depthGrowsWhenRequestsComeFaster() {
+        DatabasePipeline pipeline = new DatabasePipeline();
+        prepared(pipeline.stats, 100, 5);
+
+        request(pipeline.stats, 200, 6);
+        int initialDepth = pipeline.updatePrefetchDepth(6, MAX_DEPTH);
+        assertThat(initialDepth).isEqualTo(1);
+
+        int previousDepth = initialDepth;
+        for (int i = 0; i < 10; i++) {
+            request(pipeline.stats, 10, 1);
+            int depth = pipeline.updatePrefetchDepth(7 + i, MAX_DEPTH);
+            assertThat(depth).isGreaterThanOrEqualTo(previousDepth).isBetween(1, MAX_DEPTH);
+            previousDepth = depth;
+        }
+        assertThat(previousDepth).isEqualTo(MAX_DEPTH);
+    }
+
+    @Test
+    public void depthShrinksWhenRequestsComeSlower() {
+        DatabasePipeline pipeline = new DatabasePipeline();
+        prepared(pipeline.stats, 100, 5);
+
+        request(pipeline.stats, 10, 6);
+        int initialDepth = pipeline.updatePrefetchDepth(6, MAX_DEPTH);
+        assertThat(initialDepth).isEqualTo(MAX_DEPTH);
+
+        int previousDepth = initialDepth;
+        for (int i = 0; i < 20; i++) {
+            request(pipeline.stats, 1000, 1);
+            int depth = pipeline.updatePrefetchDepth(7 + i, MAX_DEPTH);
+            assertThat(depth).isLessThanOrEqualTo(previousDepth).isBetween(1, MAX_DEPTH);
+            previousDepth = depth;
+        }
+        assertThat(previousDepth).isEqualTo(1);
+    }
+
+    @Test
+    public void depthFollowsPreparationTime() {
+        DatabasePipeline pipeline = new DatabasePipeline();
+        request(pipeline.stats, 50, 6);
+
+        prepared(pipeline.stats, 10, 5);
+        assertThat(pipeline.updatePrefetchDepth(6, MAX_DEPTH)).isEqualTo(1);
+
+        prepared(pipeline.stats, 150, 20);
+        assertThat(pipeline.updatePrefetchDepth(7, MAX_DEPTH)).isEqualTo(3);
+
+        prepared(pipeline.stats, 10_000, 20);
+        assertThat(pipeline.updatePrefetchDepth(8, MAX_DEPTH)).isEqualTo(MAX_DEPTH);
+    }
+
+    @Test
+    public void simultaneousRequestsUseMaximalDepth() {
+        PipelineStats stats = new PipelineStats();
+        request(stats, 0, 4);
+        prepared(stats, 100, 3);
+
+        assertThat(stats.getRequestInterval()).isZero();
+        assertThat(stats.estimatePrefetchDepth(MAX_DEPTH)).isEqualTo(MAX_DEPTH);
+    }
+
+    @Test
+    public void statsCanBeInitializedFromProfile() {
+        DatabasePipeline pipeline = new DatabasePipeline();
+        pipeline.stats.initialize(25, 100);
+
+        assertThat(pipeline.stats.getRequestInterval()).isEqualTo(25);
+        assertThat(pipeline.stats.getPreparationTime()).isEqualTo(100);
+        assertThat(pipeline.updatePrefetchDepth(1, MAX_DEPTH)).isEqualTo(4);
+        assertThat(pipeline.updatePrefetchDepth(1, 2)).isEqualTo(2);
+    }
+
+    @Test
+    public void invalidProfileIsIgnored() {
+        PipelineStats stats = new PipelineStats();
+        stats.initialize(25, 0);
+        stats.initialize(-1, 100);
+
+        assertThat(stats.estimatePrefetchDepth(MAX_DEPTH)).isEqualTo(-1);
+    }
+
+    private void request(PipelineStats stats, long intervalMillis, int count) {
+        for (int i = 0; i < count; i++) {
+            time += TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            stats.onRequest(time);
+        }
+    }
+
+    private static void prepared(PipelineStats stats, long durationMillis, int count) {
+        for (int i = 0; i < count; i++) {
+            stats.onPrepared(TimeUnit.MILLISECONDS.toNanos(durationMillis));
+        }
+    }
+}
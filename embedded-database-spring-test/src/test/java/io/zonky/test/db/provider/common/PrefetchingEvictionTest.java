@@ -0,0 +1,277 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.EmbeddedDatabase;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.Config;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.DatabasePipeline;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PipelineKey;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PreparedResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.databaseCount;
+import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.evictionBaseline;
+import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.evictionIndex;
+import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.pipelines;
+import static java.util.Collections.newSetFromMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class PrefetchingEvictionTest {
+
+    private final DatabaseProvider databaseProvider = mock(DatabaseProvider.class);
+
+    @Before
+    public void setUp() {
+        resetState();
+    }
+
+    @After
+    public void tearDown() {
+        resetState();
+    }
+
+    @Test
+    public void cheapestResultsAreEvictedFirst() {
+        PrefetchingDatabaseProvider provider = provider(0);
+        PipelineKey expensive = pipeline(1000);
+        PipelineKey cheap = pipeline(100);
+        PipelineKey medium = pipeline(500);
+
+        EmbeddedDatabase expensiveDatabase = offerResult(expensive);
+        EmbeddedDatabase cheapDatabase = offerResult(cheap);
+        EmbeddedDatabase mediumDatabase = offerResult(medium);
+
+        assertThat(evict(provider)).isSameAs(cheapDatabase);
+        assertThat(evict(provider)).isSameAs(mediumDatabase);
+        assertThat(evict(provider)).isSameAs(expensiveDatabase);
+        assertThat(provider.findDatabaseToRemove()).isEmpty();
+        assertThat(evictionIndex).isEmpty();
+    }
+
+    @Test
+    public void frequentlyRequestedResultsAreEvictedLater() {
+        PrefetchingDatabaseProvider provider = provider(0);
+        PipelineKey frequent = pipeline(100);
+        PipelineKey rare = pipeline(200);
+        pipelines.get(frequent).requests.set(10);
+
+        EmbeddedDatabase frequentDatabase = offerResult(frequent);
+        EmbeddedDatabase rareDatabase = offerResult(rare);
+
+        assertThat(evict(provider)).isSameAs(rareDatabase);
+        assertThat(evict(provider)).isSameAs(frequentDatabase);
+    }
+
+    @Test
+    public void failedResultsAreDiscardedFirst() {
+        PrefetchingDatabaseProvider provider = provider(0);
+        PipelineKey expensive = pipeline(1000);
+        PipelineKey cheap = pipeline(100);
+
+        EmbeddedDatabase cheapDatabase = offerResult(cheap);
+        pipelines.get(expensive).offerResult(expensive, PreparedResult.failure(new IllegalStateException()));
+        databaseCount.incrementAndGet();
+
+        assertThat(evict(provider)).isSameAs(cheapDatabase);
+        assertThat(pipelines.get(expensive).results).isEmpty();
+        assertThat(databaseCount.get()).isZero();
+    }
+
+    @Test
+    public void evictionBaselineAgesOutStaleResults() {
+        PrefetchingDatabaseProvider provider = provider(1);
+        PipelineKey expensive = pipeline(1000);
+        PipelineKey cheap = pipeline(100);
+
+        EmbeddedDatabase expensiveDatabase = offerResult(expensive);
+
+        List<EmbeddedDatabase> evicted = new ArrayList<>();
+        long previousBaseline = evictionBaseline.get();
+        for (int i = 0; i < 10 && !evicted.contains(expensiveDatabase); i++) {
+            offerResult(cheap);
+            evicted.add(evict(provider));
+
+            assertThat(evictionBaseline.get()).isGreaterThan(previousBaseline);
+            previousBaseline = evictionBaseline.get();
+        }
+
+        assertThat(evicted).hasSize(10).endsWith(expensiveDatabase);
+        assertThat(evictionBaseline.get()).isEqualTo(1000);
+        assertThat(pipelines.get(cheap).results).hasSize(1);
+        assertThat(pipelines.get(cheap).results.peek().getEvictionValue()).isEqualTo(1000);
+    }
+
+    @Test
+    public void resultsYoungerThanRequestIntervalAreNotEvicted() {
+        PrefetchingDatabaseProvider provider = provider(0);
+        PipelineKey expensive = pipeline(1000);
+        PipelineKey cheap = pipeline(100);
+        pipelines.get(cheap).stats.initialize(60_000, 100);
+
+        EmbeddedDatabase expensiveDatabase = offerResult(expensive);
+        offerResult(cheap);
+
+        assertThat(evict(provider)).isSameAs(expensiveDatabase);
+        assertThat(provider.findDatabaseToRemove()).isEmpty();
+        assertThat(pipelines.get(cheap).results).hasSize(1);
+        assertThat(evictionIndex).hasSize(1);
+    }
+
+    @Test
+    public void consumedResultsAreSkipped() {
+        PrefetchingDatabaseProvider provider = provider(0);
+        PipelineKey expensive = pipeline(1000);
+        PipelineKey cheap = pipeline(100);
+
+        EmbeddedDatabase expensiveDatabase = offerResult(expensive);
+        offerResult(cheap);
+
+        // simulates a consumer that has taken the result before its index entry was removed
+        pipelines.get(cheap).results.poll();
+        databaseCount.decrementAndGet();
+
+        assertThat(evict(provider)).isSameAs(expensiveDatabase);
+        assertThat(evictionBaseline.get()).isEqualTo(1000);
+        assertThat(evictionIndex).isEmpty();
+    }
+
+    @Test
+    public void concurrentlyConsumedResultsAreReturnedOnlyOnce() throws Exception {
+        PrefetchingDatabaseProvider provider = provider(0);
+        List<PipelineKey> keys = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            keys.add(pipeline(100 * (i + 1)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            offerResult(keys.get(i % keys.size()));
+        }
+        databaseCount.set(Long.MAX_VALUE / 2);
+
+        Set<EmbeddedDatabase> databases = newSetFromMap(new ConcurrentHashMap<>());
+        AtomicInteger returnedCount = new AtomicInteger();
+        CountDownLatch startLatch = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                DatabasePipeline pipeline = pipelines.get(keys.get(i % keys.size()));
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    PreparedResult result;
+                    while ((result = pipeline.pollResult()) != null) {
+                        databases.add(result.get());
+                        returnedCount.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                startLatch.await();
+                while (keys.stream().anyMatch(key -> !pipelines.get(key).results.isEmpty())) {
+                    Optional<Entry<PipelineKey, EmbeddedDatabase>> entry = provider.findDatabaseToRemove();
+                    if (entry.isPresent()) {
+                        databases.add(entry.get().getValue());
+                        returnedCount.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+
+            startLatch.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(returnedCount.get()).isEqualTo(1000);
+        assertThat(databases).hasSize(1000);
+        assertThat(evictionIndex).isEmpty();
+    }
+
+    private PrefetchingDatabaseProvider provider(int maxPreparedDatabases) {
+        return new PrefetchingDatabaseProvider(databaseProvider, Config.builder()
+                .withMaxPreparedDatabases(maxPreparedDatabases).build());
+    }
+
+    private PipelineKey pipeline(long estimatedDuration) {
+        PipelineKey key = new PipelineKey(databaseProvider, new TestPreparer(estimatedDuration));
+        pipelines.put(key, new DatabasePipeline());
+        return key;
+    }
+
+    private static EmbeddedDatabase offerResult(PipelineKey key) {
+        EmbeddedDatabase database = mock(EmbeddedDatabase.class);
+        pipelines.get(key).offerResult(key, PreparedResult.success(database));
+        databaseCount.incrementAndGet();
+        return database;
+    }
+
+    private static EmbeddedDatabase evict(PrefetchingDatabaseProvider provider) {
+        Optional<Entry<PipelineKey, EmbeddedDatabase>> entry = provider.findDatabaseToRemove();
+        assertThat(entry).isPresent();
+        databaseCount.decrementAndGet();
+        return entry.get().getValue();
+    }
+
+    private static void resetState() {
+        pipelines.clear();
+        evictionIndex.clear();
+        evictionBaseline.set(0);
+        databaseCount.set(0);
+    }
+
+    private static class TestPreparer implements DatabasePreparer {
+
+        private final long estimatedDuration;
+
+        private TestPreparer(long estimatedDuration) {
+            this.estimatedDuration = estimatedDuration;
+        }
+
+        @Override
+        public long estimatedDuration() {
+            return estimatedDuration;
+        }
+
+        @Override
+        public void prepare(DataSource dataSource) {
+            // nothing to do
+        }
+    }
+}
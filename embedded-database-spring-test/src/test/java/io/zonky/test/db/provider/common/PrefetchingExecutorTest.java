@@ -0,0 +1,115 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.EmbeddedDatabase;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.Config;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.ExecutorMode;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.taskExecutor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class PrefetchingExecutorTest {
+
+    @Test
+    public void sharedModeUsesCommonExecutor() {
+        PrefetchingDatabaseProvider provider1 = new PrefetchingDatabaseProvider(recordingProvider(new CopyOnWriteArrayList<>()),
+                Config.builder().build());
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        PrefetchingDatabaseProvider provider2 = new PrefetchingDatabaseProvider(recordingProvider(threads),
+                Config.builder().withVirtualThreads(true).build());
+
+        assertThat(provider1.executor).isSameAs(taskExecutor);
+        assertThat(provider2.executor).isSameAs(taskExecutor);
+
+        provider2.createDatabase(mock(DatabasePreparer.class));
+
+        assertThat(threads.get(0)).isNotSameAs(Thread.currentThread());
+        assertThat(isVirtual(threads.get(0))).isFalse();
+    }
+
+    @Test
+    public void isolatedModeUsesExecutorPerProvider() {
+        List<Thread> threads1 = new CopyOnWriteArrayList<>();
+        List<Thread> threads2 = new CopyOnWriteArrayList<>();
+        DatabaseProvider databaseProvider1 = recordingProvider(threads1);
+        DatabaseProvider databaseProvider2 = recordingProvider(threads2);
+
+        PrefetchingDatabaseProvider provider1 = new PrefetchingDatabaseProvider(databaseProvider1, isolated("isolated-first-").build());
+        PrefetchingDatabaseProvider provider2 = new PrefetchingDatabaseProvider(databaseProvider2, isolated("isolated-second-").build());
+        PrefetchingDatabaseProvider provider3 = new PrefetchingDatabaseProvider(databaseProvider1, isolated("isolated-third-").build());
+
+        assertThat(provider1.executor).isNotSameAs(taskExecutor).isNotSameAs(provider2.executor);
+        assertThat(provider3.executor).isSameAs(provider1.executor);
+
+        provider1.createDatabase(mock(DatabasePreparer.class));
+        provider2.createDatabase(mock(DatabasePreparer.class));
+
+        assertThat(threads1.get(0).getName()).startsWith("isolated-first-");
+        assertThat(threads2.get(0).getName()).startsWith("isolated-second-");
+        assertThat(isVirtual(threads1.get(0))).isFalse();
+    }
+
+    @Test
+    public void virtualThreadsAreUsedInIsolatedModeWhenSupported() {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        PrefetchingDatabaseProvider provider = new PrefetchingDatabaseProvider(recordingProvider(threads),
+                isolated("isolated-virtual-").withVirtualThreads(true).build());
+
+        provider.createDatabase(mock(DatabasePreparer.class));
+
+        assertThat(threads.get(0).getName()).startsWith("isolated-virtual-");
+        assertThat(isVirtual(threads.get(0))).isEqualTo(virtualThreadsSupported());
+    }
+
+    private static Config.Builder isolated(String threadNamePrefix) {
+        return Config.builder()
+                .withExecutorMode(ExecutorMode.ISOLATED)
+                .withThreadNamePrefix(threadNamePrefix);
+    }
+
+    private static DatabaseProvider recordingProvider(List<Thread> threads) {
+        return preparer -> {
+            threads.add(Thread.currentThread());
+            return mock(EmbeddedDatabase.class);
+        };
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2026 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zonky.test.db.provider.common;
+
+import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseProvider;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PipelineKey;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PrefetchingTask;
+import io.zonky.test.db.provider.common.PrefetchingDatabaseProvider.PriorityTaskQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.core.Ordered.HIGHEST_PRECEDENCE;
+import static org.springframework.core.Ordered.LOWEST_PRECEDENCE;
+
+public class PriorityTaskQueueTest {
+
+    private final PipelineKey key = new PipelineKey(mock(DatabaseProvider.class), mock(DatabasePreparer.class));
+    private final PriorityTaskQueue queue = new PriorityTaskQueue();
+
+    @Test
+    public void tasksArePolledByPriority() {
+        PrefetchingTask task1 = task(5);
+        PrefetchingTask task2 = task(-1);
+        PrefetchingTask task3 = task(LOWEST_PRECEDENCE);
+        PrefetchingTask task4 = task(HIGHEST_PRECEDENCE);
+        PrefetchingTask task5 = task(0);
+
+        for (PrefetchingTask task : new PrefetchingTask[] { task1, task2, task3, task4, task5 }) {
+            assertThat(queue.offer(task)).isTrue();
+        }
+
+        assertThat(queue.size()).isEqualTo(5);
+        assertThat(queue.peek()).isSameAs(task4);
+        assertThat(queue.poll()).isSameAs(task4);
+        assertThat(queue.poll()).isSameAs(task2);
+        assertThat(queue.poll()).isSameAs(task5);
+        assertThat(queue.poll()).isSameAs(task1);
+        assertThat(queue.poll()).isSameAs(task3);
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.peek()).isNull();
+    }
+
+    @Test
+    public void tasksWithSamePriorityAreOrderedByRoundAndInsertion() {
+        PrefetchingTask task1 = task(0);
+        PrefetchingTask task2 = task(0);
+        PrefetchingTask task3 = task(0);
+        PrefetchingTask task4 = task(0);
+
+        queue.offer(task1);
+        queue.offer(task2);
+        queue.offer(task3);
+        queue.offer(task4);
+
+        assertThat(queue.reprioritize(task1, 0, 2)).isTrue();
+        assertThat(queue.reprioritize(task2, 0, 1)).isTrue();
+
+        assertThat(queue.poll()).isSameAs(task3);
+        assertThat(queue.poll()).isSameAs(task4);
+        assertThat(queue.poll()).isSameAs(task2);
+        assertThat(queue.poll()).isSameAs(task1);
+    }
+
+    @Test
+    public void queuedTaskCannotBeOfferedTwice() {
+        PrefetchingTask task = task(0);
+
+        assertThat(queue.offer(task)).isTrue();
+        assertThat(queue.offer(task)).isFalse();
+        assertThat(queue.size()).isEqualTo(1);
+
+        assertThat(queue.poll()).isSameAs(task);
+        assertThat(queue.offer(task)).isTrue();
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void reprioritizeMovesTaskInBothDirections() {
+        PrefetchingTask task1 = task(1);
+        PrefetchingTask task2 = task(2);
+        PrefetchingTask task3 = task(3);
+        queue.offer(task1);
+        queue.offer(task2);
+        queue.offer(task3);
+
+        assertThat(queue.reprioritize(task3, 0, 0)).isTrue();
+        assertThat(task3.priority).isEqualTo(0);
+        assertThat(queue.peek()).isSameAs(task3);
+
+        assertThat(queue.reprioritize(task3, 10, 0)).isTrue();
+        assertThat(queue.poll()).isSameAs(task1);
+        assertThat(queue.poll()).isSameAs(task2);
+        assertThat(queue.poll()).isSameAs(task3);
+    }
+
+    @Test
+    public void dequeuedTaskCannotBeReprioritizedOrRemoved() {
+        PrefetchingTask task1 = task(1);
+        PrefetchingTask task2 = task(2);
+        queue.offer(task1);
+        queue.offer(task2);
+
+        assertThat(queue.poll()).isSameAs(task1);
+
+        assertThat(queue.contains(task1)).isFalse();
+        assertThat(queue.reprioritize(task1, HIGHEST_PRECEDENCE, 0)).isFalse();
+        assertThat(task1.priority).isEqualTo(1);
+        assertThat(queue.remove(task1)).isFalse();
+
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.contains(task2)).isTrue();
+        assertThat(queue.poll()).isSameAs(task2);
+    }
+
+    @Test
+    public void removedTaskIsNoLongerQueued() {
+        List<PrefetchingTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PrefetchingTask task = task(i);
+            tasks.add(task);
+            queue.offer(task);
+        }
+
+        assertThat(queue.remove(tasks.get(0))).isTrue();
+        assertThat(queue.remove(tasks.get(5))).isTrue();
+        assertThat(queue.remove(tasks.get(9))).isTrue();
+        assertThat(queue.remove(tasks.get(5))).isFalse();
+        assertThat(queue.remove(new Object())).isFalse();
+
+        assertThat(queue.contains(tasks.get(5))).isFalse();
+        assertThat(queue.reprioritize(tasks.get(5), 0, 0)).isFalse();
+        assertThat(queue.size()).isEqualTo(7);
+
+        List<Runnable> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        assertThat(drained).containsExactly(tasks.get(1), tasks.get(2), tasks.get(3), tasks.get(4), tasks.get(6), tasks.get(7), tasks.get(8));
+    }
+
+    @Test
+    public void drainToRespectsPriorityAndLimit() {
+        PrefetchingTask task1 = task(3);
+        PrefetchingTask task2 = task(1);
+        PrefetchingTask task3 = task(2);
+        queue.offer(task1);
+        queue.offer(task2);
+        queue.offer(task3);
+
+        List<Runnable> drained = new ArrayList<>();
+        assertThat(queue.drainTo(drained, 2)).isEqualTo(2);
+        assertThat(drained).containsExactly(task2, task3);
+        assertThat(queue.size()).isEqualTo(1);
+
+        assertThat(queue.drainTo(drained)).isEqualTo(1);
+        assertThat(drained).containsExactly(task2, task3, task1);
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.drainTo(drained)).isEqualTo(0);
+    }
+
+    @Test
+    public void iteratorRemovesTasksFromQueue() {
+        PrefetchingTask task1 = task(1);
+        PrefetchingTask task2 = task(2);
+        queue.offer(task1);
+        queue.offer(task2);
+
+        Iterator<Runnable> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == task1) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(queue.contains(task1)).isFalse();
+        assertThat(queue.toArray()).containsExactly(task2);
+    }
+
+    @Test
+    public void takeWaitsForTask() throws Exception {
+        CompletableFuture<Runnable> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        assertThat(future.isDone()).isFalse();
+
+        PrefetchingTask task = task(0);
+        queue.offer(task);
+
+        assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(task);
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void timedPollReturnsNullWhenEmpty() throws Exception {
+        assertThat(queue.poll(10, TimeUnit.MILLISECONDS)).isNull();
+
+        PrefetchingTask task = task(0);
+        queue.offer(task);
+        assertThat(queue.poll(10, TimeUnit.MILLISECONDS)).isSameAs(task);
+    }
+
+    @Test
+    public void heapStaysConsistentAfterRandomOperations() {
+        Random random = new Random(42);
+        Map<PrefetchingTask, int[]> model = new HashMap<>(); // priority, round, insertion order
+        List<PrefetchingTask> queued = new ArrayList<>();
+        int insertions = 0;
+
+        for (int i = 0; i < 5000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 4 || queued.isEmpty()) {
+                PrefetchingTask task = task(random.nextInt(20) - 10);
+                queue.offer(task);
+                model.put(task, new int[] { task.priority, 0, insertions++ });
+                queued.add(task);
+            } else if (operation < 6) {
+                PrefetchingTask task = queued.remove(random.nextInt(queued.size()));
+                assertThat(queue.remove(task)).isTrue();
+                model.remove(task);
+            } else if (operation < 8) {
+                PrefetchingTask task = queued.get(random.nextInt(queued.size()));
+                int priority = random.nextInt(20) - 10;
+                int round = random.nextInt(3);
+                assertThat(queue.reprioritize(task, priority, round)).isTrue();
+                model.put(task, new int[] { priority, round, model.get(task)[2] });
+            } else {
+                PrefetchingTask expected = Collections.min(queued, comparator(model));
+                assertThat(queue.poll()).isSameAs(expected);
+                queued.remove(expected);
+                model.remove(expected);
+            }
+
+            assertThat(queue.size()).isEqualTo(queued.size());
+        }
+
+        for (PrefetchingTask task : queued) {
+            assertThat(queue.contains(task)).isTrue();
+        }
+
+        queued.sort(comparator(model));
+        List<Runnable> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        assertThat(drained).containsExactly(queued.toArray(new Runnable[0]));
+    }
+
+    private PrefetchingTask task(int priority) {
+        return PrefetchingTask.withDatabase(key, null, priority);
+    }
+
+    private static Comparator<PrefetchingTask> comparator(Map<PrefetchingTask, int[]> model) {
+        return Comparator.<PrefetchingTask>comparingInt(task -> model.get(task)[0])
+                .thenComparingInt(task -> model.get(task)[1])
+                .thenComparingInt(task -> model.get(task)[2]);
+    }
+}
@@ -17,6 +17,8 @@
 package io.zonky.test.db.provider.mariadb;
 
 import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseRequest;
+import io.zonky.test.db.provider.DatabaseTemplate;
 import io.zonky.test.db.provider.EmbeddedDatabase;
 import io.zonky.test.db.provider.support.BlockingDatabaseWrapper;
 import io.zonky.test.db.support.TestDatabasePreparer;
@@ -74,8 +76,11 @@ public class DockerMariaDBDatabaseProviderTest {
         assertThat(dataSource2).isNotNull().isExactlyInstanceOf(BlockingDatabaseWrapper.class);
         assertThat(dataSource3).isNotNull().isExactlyInstanceOf(BlockingDatabaseWrapper.class);
 
-        assertThat(getPort(dataSource1)).isNotEqualTo(getPort(dataSource2));
-        assertThat(getPort(dataSource2)).isNotEqualTo(getPort(dataSource3));
+        assertThat(getPort(dataSource1)).isEqualTo(getPort(dataSource2));
+        assertThat(getPort(dataSource2)).isEqualTo(getPort(dataSource3));
+
+        assertThat(getDatabaseName(dataSource1)).isNotEqualTo(getDatabaseName(dataSource2));
+        assertThat(getDatabaseName(dataSource2)).isNotEqualTo(getDatabaseName(dataSource3));
 
         JdbcTemplate jdbcTemplate1 = new JdbcTemplate(dataSource1);
         jdbcTemplate1.update("insert into prime_number (number) values (?)", 2);
@@ -130,6 +135,41 @@ public class DockerMariaDBDatabaseProviderTest {
         assertThat(getPort(dataSource2)).isEqualTo(getPort(dataSource3));
     }
 
+    @Test
+    public void testDatabaseTemplate() throws SQLException {
+        DockerMariaDBDatabaseProvider provider = new DockerMariaDBDatabaseProvider(new MockEnvironment(), containerCustomizers);
+
+        DatabasePreparer templatePreparer = TestDatabasePreparer.of(dataSource -> {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.update("create table person (id int auto_increment primary key, name varchar(100) not null, upper_name varchar(100) as (upper(name)))");
+            jdbcTemplate.update("create table address (id int primary key, person_id int not null, foreign key (person_id) references person (id))");
+            jdbcTemplate.update("create view person_address as select p.name, a.id as address_id from person p join address a on a.person_id = p.id");
+            jdbcTemplate.update("create function greeting(name varchar(100)) returns varchar(110) deterministic return concat('Hello ', name)");
+            jdbcTemplate.update("create trigger address_id before insert on address for each row set new.id = new.id * 10");
+            jdbcTemplate.update("insert into person (name) values (?)", "alice");
+            jdbcTemplate.update("insert into address (id, person_id) values (?, ?)", 1, 1);
+        });
+
+        DatabaseTemplate template = provider.createTemplate(DatabaseRequest.of(templatePreparer));
+
+        EmbeddedDatabase dataSource = provider.createDatabase(DatabaseRequest.of(TestDatabasePreparer.empty(), template));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        assertThat(getDatabaseName(dataSource)).isNotEqualTo(template.getTemplateName());
+        assertThat(jdbcTemplate.queryForObject("select upper_name from person", String.class)).isEqualTo("ALICE");
+        assertThat(jdbcTemplate.queryForObject("select address_id from person_address", Integer.class)).isEqualTo(10);
+        assertThat(jdbcTemplate.queryForObject("select greeting('bob')", String.class)).isEqualTo("Hello bob");
+
+        jdbcTemplate.update("insert into person (name) values (?)", "bob");
+        jdbcTemplate.update("insert into address (id, person_id) values (?, ?)", 2, 2);
+        assertThat(jdbcTemplate.queryForObject("select max(id) from person", Integer.class)).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForObject("select max(id) from address", Integer.class)).isEqualTo(20);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from person_address", Integer.class)).isEqualTo(2);
+
+        dataSource.close();
+        template.close();
+    }
+
     @Test
     public void testContainerCustomizers() throws SQLException {
         when(containerCustomizers.getIfAvailable()).thenReturn(Collections.singletonList(container -> container.withPassword("test")));
@@ -217,6 +257,7 @@ public class DockerMariaDBDatabaseProviderTest {
         Map<String, String> diffProperties = new HashMap<>();
         diffProperties.put("zonky.test.database.mariadb.docker.image", "diff-test-image");
         diffProperties.put("zonky.test.database.mariadb.client.properties.zzz", "zzz-diff-value");
+        diffProperties.put("zonky.test.database.mariadb.docker.containers", "2");
 
         for (Map.Entry<String, String> diffProperty : diffProperties.entrySet()) {
             MockEnvironment environment1 = new MockEnvironment();
@@ -240,6 +281,10 @@ public class DockerMariaDBDatabaseProviderTest {
         return dataSource.unwrap(MariaDBEmbeddedDatabase.class).getPortNumber();
     }
 
+    private static String getDatabaseName(DataSource dataSource) throws SQLException {
+        return dataSource.unwrap(MariaDBEmbeddedDatabase.class).getDatabaseName();
+    }
+
     private static MariaDBContainerCustomizer mariadbContainerCustomizer(long timeout) {
         return container -> container.withStartupTimeout(Duration.ofSeconds(timeout));
     }
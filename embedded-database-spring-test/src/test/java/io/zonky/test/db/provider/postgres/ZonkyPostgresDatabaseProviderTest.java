@@ -18,6 +18,8 @@ package io.zonky.test.db.provider.postgres;
 
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
 import io.zonky.test.db.preparer.DatabasePreparer;
+import io.zonky.test.db.provider.DatabaseRequest;
+import io.zonky.test.db.provider.DatabaseTemplate;
 import io.zonky.test.db.provider.support.BlockingDatabaseWrapper;
 import io.zonky.test.db.support.TestDatabasePreparer;
 import io.zonky.test.support.TestSocketUtils;
@@ -37,6 +39,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -129,6 +132,31 @@ public class ZonkyPostgresDatabaseProviderTest {
         assertThat(sharedBuffers).isEqualTo("64MB");
     }
 
+    @Test
+    public void testShardedDatabases() throws Exception {
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("zonky.test.database.postgres.zonky-provider.shards", "2");
+
+        ZonkyPostgresDatabaseProvider provider = new ZonkyPostgresDatabaseProvider(environment, databaseCustomizers);
+
+        DatabasePreparer preparer = TestDatabasePreparer.of(dataSource -> {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.update("create table prime_number (number int primary key not null)");
+        });
+        DatabaseTemplate template = provider.createTemplate(DatabaseRequest.of(preparer));
+
+        // the nested request is made while the first cluster is busy, so it is routed to a new one
+        AtomicReference<DataSource> nestedDataSource = new AtomicReference<>();
+        DataSource dataSource = provider.createDatabase(DatabaseRequest.of(TestDatabasePreparer.of(ds ->
+                nestedDataSource.set(provider.createDatabase(DatabaseRequest.of(TestDatabasePreparer.empty(), template))))));
+
+        assertThat(getPort(nestedDataSource.get())).isNotEqualTo(getPort(dataSource));
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(nestedDataSource.get());
+        jdbcTemplate.update("insert into prime_number (number) values (?)", 2);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from prime_number", Integer.class)).isEqualTo(1);
+    }
+
     @Test
     public void providersWithDefaultConfigurationShouldEquals() {
         MockEnvironment environment = new MockEnvironment();